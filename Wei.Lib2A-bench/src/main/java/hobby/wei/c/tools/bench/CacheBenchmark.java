@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hobby.wei.c.tools.CacheRegistry;
+import hobby.wei.c.tools.ICache;
+import hobby.wei.c.tools.LruCache;
+
+/**
+ * {@link LruCache}及{@link ICache.Impl}各变体的吞吐量对比。
+ * <p>
+ * 线程数由{@code jmh}任务的{@code -t}参数指定（见build.gradle），所有线程共享同一个缓存；
+ * 每个线程从共享的访问序列中的不同位置开始，以免步调一致。
+ * 命中/未命中以{@link AuxCounters}输出，命中率 = hits / (hits + misses)；分配速率由{@code -prof gc}给出。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheBenchmark {
+    private static final int CACHE_SIZE = 1 << 10;
+    /**
+     * key的取值范围为缓存容量的8倍，使命中率落在有区分度的范围内。
+     */
+    private static final int KEY_SPACE = CACHE_SIZE << 3;
+    /**
+     * 访问序列的长度，须为2的幂。
+     */
+    private static final int SEQUENCE_LENGTH = 1 << 16;
+    private static final int MASK = SEQUENCE_LENGTH - 1;
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        @Param({"LruCache", "Impl", "Sync", "SyncGet"})
+        public String cache;
+
+        @Param({"UNIFORM", "ZIPFIAN", "SCAN"})
+        public Workload workload;
+
+        Target target;
+        /**
+         * 预先装箱，避免测量到{@link Integer#valueOf(int)}的分配。
+         */
+        Integer[] keys;
+        final AtomicInteger offsets = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            final int[] sequence = workload.generate(new Random(42), KEY_SPACE, SEQUENCE_LENGTH);
+            keys = new Integer[SEQUENCE_LENGTH];
+            for (int i = 0; i < SEQUENCE_LENGTH; i++) {
+                keys[i] = sequence[i];
+            }
+            target = Target.of(cache);
+            // 预热到满容量，使测量从稳定状态开始。
+            for (int i = 0; i < SEQUENCE_LENGTH; i++) {
+                target.get(keys[i]);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            target.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long hits, misses;
+        int index;
+
+        @Setup(Level.Trial)
+        public void setUp(Shared shared) {
+            // 黄金分割的步长，使各线程的起点尽量分散。
+            index = shared.offsets.getAndAdd(0x9E3779B9) & MASK;
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            hits = misses = 0;
+        }
+
+        Integer next(Integer[] keys) {
+            return keys[index++ & MASK];
+        }
+    }
+
+    /**
+     * 读取，未命中时加载并放入，即缓存的典型用法。
+     */
+    @Benchmark
+    public Object get(Shared shared, Counters counters) {
+        final Integer key = counters.next(shared.keys);
+        final Object value = shared.target.getOnly(key);
+        if (value != null) {
+            counters.hits++;
+            return value;
+        }
+        counters.misses++;
+        return shared.target.get(key);
+    }
+
+    /**
+     * 只写入，衡量淘汰的开销。
+     */
+    @Benchmark
+    public Object put(Shared shared, Counters counters) {
+        final Integer key = counters.next(shared.keys);
+        return shared.target.put(key, key);
+    }
+
+    /**
+     * 统一各缓存的调用方式，以免基准测试方法中出现类型判断。
+     */
+    static abstract class Target {
+        static Target of(String name) {
+            switch (name) {
+                case "LruCache":
+                    return new LruTarget();
+                case "Impl":
+                    return new ICacheTarget(new ICache.Impl<>(CACHE_SIZE, DELEGATE));
+                case "Sync":
+                    return new ICacheTarget(new ICache.Impl.Sync<>(CACHE_SIZE, DELEGATE));
+                case "SyncGet":
+                    return new ICacheTarget(new ICache.Impl.SyncGet<>(CACHE_SIZE, DELEGATE));
+                default:
+                    throw new IllegalArgumentException("未知的缓存类型：" + name);
+            }
+        }
+
+        /**
+         * 只读取，不加载。
+         */
+        abstract Object getOnly(Integer key);
+
+        /**
+         * 读取，未命中时加载。
+         */
+        abstract Object get(Integer key);
+
+        abstract Object put(Integer key, Integer value);
+
+        void close() {
+        }
+    }
+
+    /**
+     * 加载即返回key本身，使测量的只是缓存自身的开销。
+     */
+    private static final ICache.Delegate<Integer, Integer> DELEGATE = new ICache.Delegate<Integer, Integer>() {
+        @Override
+        public Integer load(Integer key) {
+            return key;
+        }
+
+        @Override
+        public boolean update(Integer key, Integer value) {
+            return true;
+        }
+    };
+
+    private static final class LruTarget extends Target {
+        private final LruCache<Integer, Integer> mCache = new LruCache<>(CACHE_SIZE);
+
+        @Override
+        Object getOnly(Integer key) {
+            return mCache.get(key);
+        }
+
+        @Override
+        Object get(Integer key) {
+            final Integer value = mCache.get(key);
+            if (value != null) return value;
+            mCache.put(key, key);
+            return key;
+        }
+
+        @Override
+        Object put(Integer key, Integer value) {
+            return mCache.put(key, value);
+        }
+
+        @Override
+        void close() {
+            CacheRegistry.unregister(mCache);
+        }
+    }
+
+    private static final class ICacheTarget extends Target {
+        private final ICache.Impl<Integer, Integer> mCache;
+
+        ICacheTarget(ICache.Impl<Integer, Integer> cache) {
+            mCache = cache;
+        }
+
+        @Override
+        Object getOnly(Integer key) {
+            return mCache.getOnly(key);
+        }
+
+        @Override
+        Object get(Integer key) {
+            return mCache.get(key);
+        }
+
+        @Override
+        Object put(Integer key, Integer value) {
+            return mCache.update(key, value);
+        }
+
+        @Override
+        void close() {
+            mCache.close();
+            CacheRegistry.unregister(mCache);
+        }
+    }
+}
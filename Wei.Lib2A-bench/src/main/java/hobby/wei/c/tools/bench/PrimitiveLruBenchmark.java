@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import hobby.wei.c.tools.IntLruCache;
+import hobby.wei.c.tools.LruCache;
+
+/**
+ * {@link IntLruCache}与以{@link Integer}为key的{@link LruCache}的对比。
+ * <p>
+ * 与{@link CacheBenchmark}不同，这里的key不预先装箱，以体现调用方实际的装箱开销；
+ * 每次操作的分配量见{@code -prof gc}输出的{@code gc.alloc.rate.norm}.
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PrimitiveLruBenchmark {
+    private static final int CACHE_SIZE = 1 << 10;
+    private static final int SEQUENCE_LENGTH = 1 << 16;
+    private static final int MASK = SEQUENCE_LENGTH - 1;
+    /**
+     * 使key超出{@link Integer#valueOf(int)}的缓存范围，与资源id等实际的key相符。
+     */
+    private static final int KEY_BASE = 0x7f000000;
+
+    @Param({"ZIPFIAN", "UNIFORM"})
+    public Workload workload;
+
+    private int[] mKeys;
+    private int mIndex;
+    private LruCache<Integer, Object> mBoxed;
+    private IntLruCache<Object> mPrimitive;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mKeys = workload.generate(new Random(42), CACHE_SIZE << 3, SEQUENCE_LENGTH);
+        for (int i = 0; i < SEQUENCE_LENGTH; i++) {
+            mKeys[i] += KEY_BASE;
+        }
+        mBoxed = new LruCache<>(CACHE_SIZE);
+        mPrimitive = new IntLruCache<>(CACHE_SIZE);
+    }
+
+    @Benchmark
+    public Object boxed() {
+        final int key = mKeys[mIndex++ & MASK];
+        final Object value = mBoxed.get(key);
+        if (value != null) return value;
+        mBoxed.put(key, this);
+        return this;
+    }
+
+    @Benchmark
+    public Object primitive() {
+        final int key = mKeys[mIndex++ & MASK];
+        final Object value = mPrimitive.get(key);
+        if (value != null) return value;
+        mPrimitive.put(key, this);
+        return this;
+    }
+}
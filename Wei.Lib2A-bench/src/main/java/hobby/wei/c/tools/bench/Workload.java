@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools.bench;
+
+import java.util.Random;
+
+/**
+ * 预先生成的访问序列，避免在测量期间生成随机数或装箱。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public enum Workload {
+    /**
+     * 所有key等概率。
+     */
+    UNIFORM {
+        @Override
+        int[] generate(Random random, int keySpace, int length) {
+            final int[] keys = new int[length];
+            for (int i = 0; i < length; i++) {
+                keys[i] = random.nextInt(keySpace);
+            }
+            return keys;
+        }
+    },
+    /**
+     * 少数热点key占大部分访问(s = 0.99)，接近大多数实际场景。
+     */
+    ZIPFIAN {
+        @Override
+        int[] generate(Random random, int keySpace, int length) {
+            return zipfian(random, keySpace, length, 0.99);
+        }
+    },
+    /**
+     * 热点访问中夹杂着一次性的顺序扫描（如列表页翻页），用于检验策略能否抵抗扫描污染。
+     */
+    SCAN {
+        @Override
+        int[] generate(Random random, int keySpace, int length) {
+            final int[] keys = zipfian(random, keySpace, length, 0.99);
+            final int scanLength = Math.max(1, keySpace / 10);
+            // 扫描的key不与热点重叠。
+            int next = keySpace;
+            for (int i = 0; i + scanLength <= length; i += scanLength * 4) {
+                for (int j = 0; j < scanLength; j++) {
+                    keys[i + j] = next++;
+                }
+            }
+            return keys;
+        }
+    };
+
+    /**
+     * @param keySpace key的取值范围[0, keySpace)，{@link #SCAN}的扫描部分除外。
+     */
+    abstract int[] generate(Random random, int keySpace, int length);
+
+    private static int[] zipfian(Random random, int keySpace, int length, double skew) {
+        final double[] cdf = new double[keySpace];
+        double sum = 0;
+        for (int i = 0; i < keySpace; i++) {
+            sum += 1 / Math.pow(i + 1, skew);
+            cdf[i] = sum;
+        }
+        final int[] keys = new int[length];
+        for (int i = 0; i < length; i++) {
+            final double u = random.nextDouble() * sum;
+            int lo = 0, hi = keySpace - 1;
+            while (lo < hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (cdf[mid] < u) lo = mid + 1;
+                else hi = mid;
+            }
+            keys[i] = lo;
+        }
+        // 打散热点key的分布，避免排名与数值相关。
+        final int[] perm = new int[keySpace];
+        for (int i = 0; i < keySpace; i++) perm[i] = i;
+        for (int i = keySpace - 1; i > 0; i--) {
+            final int j = random.nextInt(i + 1);
+            final int t = perm[i];
+            perm[i] = perm[j];
+            perm[j] = t;
+        }
+        for (int i = 0; i < length; i++) keys[i] = perm[keys[i]];
+        return keys;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ICache.Builder#writeBehind 延迟写入}模式。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class WriteBehindTest {
+    /**
+     * 达到上限时在{@link ICache#update}中同步写入，被拒绝的值不能留在缓存中。
+     */
+    @Test
+    public void rejectedWriteIsNotCached() {
+        final ICache<String, String> cache = new ICache.Builder<String, String>(10)
+                .writeBehind(1, TimeUnit.SECONDS, 1, 1)
+                .build(new ICache.Delegate<String, String>() {
+                    @Override
+                    public String load(String key) {
+                        return "stored";
+                    }
+
+                    @Override
+                    public boolean update(String key, String value) {
+                        return false;
+                    }
+                });
+        assertTrue(cache.update("k", "rejected"));
+        assertNull(cache.getOnly("k"));
+        assertEquals("stored", cache.get("k"));
+    }
+}
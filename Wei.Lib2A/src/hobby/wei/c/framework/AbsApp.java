@@ -31,6 +31,8 @@ import java.util.WeakHashMap;
 import hobby.wei.c.L;
 import hobby.wei.c.framework.user.IUser;
 import hobby.wei.c.framework.user.IUserConfig;
+import hobby.wei.c.persist.KeeperPreloader;
+import hobby.wei.c.tools.MemoryTrimmer;
 import hobby.wei.c.used.UsedKeeper;
 import hobby.wei.c.utils.CrashHandler;
 
@@ -104,11 +106,34 @@ public abstract class AbsApp extends Application {
 		super.onCreate();
 		//if(getConfig() == null) throw new NullPointerException("getConfig() 返回值不能为null。请不要返回Config.get()");
 
+		KeeperPreloader.preload(UsedKeeper.AppS.module(0));
+		onPreloadKeepers();
 		ensureInfos();
 	}
 
+	/**
+	 * 在{@link #onCreate()}中回调，声明启动后很快会用到的{@link hobby.wei.c.persist.Keeper Keeper}（包括
+	 * {@link hobby.wei.c.persist.ModularKeeper#preload(String, String) ModularKeeper}），以便在后台并行加载，
+	 * 见{@link KeeperPreloader}.
+	 */
+	protected void onPreloadKeepers() {
+	}
+
 	//protected abstract Config getConfig();
 
+	/**按内存压力等级收缩已登记的缓存，见{@link MemoryTrimmer}。子类重写时请调用super**/
+	@Override
+	public void onTrimMemory(int level) {
+		super.onTrimMemory(level);
+		MemoryTrimmer.onTrimMemory(level);
+	}
+
+	@Override
+	public void onLowMemory() {
+		super.onLowMemory();
+		MemoryTrimmer.onLowMemory();
+	}
+
 	/**
 	 * 退出应用事件回调
 	 * @return true表示kill当前App以及其所有后台进程（需要加上权限：android.permission.KILL_BACKGROUND_PROCESSES），false则不kill.
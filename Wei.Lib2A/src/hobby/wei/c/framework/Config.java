@@ -16,13 +16,48 @@
 
 package hobby.wei.c.framework;
 
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+
+import hobby.wei.c.file.FsSize;
+import hobby.wei.c.tools.MemoryBudget;
+
 /**
  * @author 周伟 Wei Chou(weichou2010@gmail.com)
  */
 public abstract class Config {
+	/**进程内各缓存共享的内存预算占{@link #memoryLimit()}的比例的倒数**/
+	private static final int MEMORY_BUDGET_DIVISOR	= 8;
+
+	private static FsSize sMemoryLimit;
+	private static MemoryBudget sMemoryBudget;
+
 	public static Config get() {
 		return AbsApp.get().mConfig;
 	}
+
+	/**当前进程的堆内存上限，即{@link ActivityManager#getMemoryClass()}，声明了largeHeap时为{@link ActivityManager#getLargeMemoryClass()}**/
+	public static synchronized FsSize memoryLimit() {
+		if (sMemoryLimit == null) {
+			final AbsApp app = AbsApp.get();
+			final ActivityManager am = (ActivityManager) app.getSystemService(Context.ACTIVITY_SERVICE);
+			final int mb = (app.getApplicationInfo().flags & ApplicationInfo.FLAG_LARGE_HEAP) != 0
+					? am.getLargeMemoryClass() : am.getMemoryClass();
+			sMemoryLimit = new FsSize(mb * 1024L * 1024L);
+		}
+		return sMemoryLimit;
+	}
+
+	/**进程内各缓存共享的内存预算（单位为字节），为{@link #memoryLimit()}的1/8。
+	 * 通过{@link hobby.wei.c.tools.ICache.Builder#budget(MemoryBudget)}加入，
+	 * 并配合{@link hobby.wei.c.tools.Weighers}使用**/
+	public static synchronized MemoryBudget memoryBudget() {
+		if (sMemoryBudget == null) {
+			sMemoryBudget = new MemoryBudget(memoryLimit().toByte() / MEMORY_BUDGET_DIVISOR);
+		}
+		return sMemoryBudget;
+	}
 /*
 	public static final String DEFAULT_NET_ENCODING	= "UTF-8";
 	public static final int DEFAULT_NET_TIMEOUT		= 5000;
@@ -37,8 +72,6 @@ public abstract class Config {
 	public final String dbName;
 	public final int dbVersion;
 
-	public final FsSize memoryLimit;
-
 	public final String STATUS;
 	public final ApiStatus SUCCESS;
 
@@ -53,7 +86,7 @@ public abstract class Config {
 		versionCode = Manifest.getVersionCode(context);
 		appDirName = getRootDirName();
 
-		memoryLimit = new FsSize(((ActivityManager)context.getSystemService(Context.ACTIVITY_SERVICE)).getMemoryClass());
+		//见memoryLimit()
 
 		dbName = getDBName();
 		dbVersion = getDBVersion();
@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.persist;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Observable;
+import android.os.Handler;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+
+import hobby.wei.c.tools.Background;
+
+/**
+ * 单进程的{@link SharedPreferences}, 数据以二进制格式存放（见{@link BinaryStore}），代替XML文件：
+ * 加载时不必解析XML, 值在首次访问时才解码；每次修改只追加记录，不重写整个文件。
+ * 通过{@link SPrefHelper#binary()}或{@code Keeper.Builder.binary()}使用。
+ * <p>
+ * 首次打开时，若存在同名的XML文件，则导入其中的数据（XML文件本身不做修改）。
+ * <p>
+ * {@link Editor#apply()}在后台写入，连续的多次apply()会合并为一次写入；{@link Editor#commit()}在返回前写入磁盘。
+ * 文件读取失败（如IO错误）时读到的为空，且不能写入：commit()返回false, apply()的修改被丢弃，下次访问时重新读取。
+ * 监听器都在主线程中回调。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class BinarySharedPreferences implements SharedPreferences, BulkReader {
+    private static final boolean DEBUG = false;
+    private static final String TAG = "BinarySharedPreferences";
+    private static final String DIR = "binary_prefs";
+
+    private static final Map<String, WeakReference<BinarySharedPreferences>> sName2SprefMap = new HashMap<>();
+
+    private final Context mContext;
+    private final String mName;
+    private final BinaryStore mStore;
+    private final MyObservable mObservable = new MyObservable();
+    private final Handler mMainHandler;
+    private boolean mFlushScheduled;
+
+    public static BinarySharedPreferences getInstance(Context context, String name) {
+        final String nameLC = name.toLowerCase();
+        synchronized (BinarySharedPreferences.class) {
+            final WeakReference<BinarySharedPreferences> ref = sName2SprefMap.get(nameLC);
+            BinarySharedPreferences spref = ref == null ? null : ref.get();
+            if (spref == null) {
+                spref = new BinarySharedPreferences(context, name);
+                sName2SprefMap.put(nameLC, new WeakReference<>(spref));
+            }
+            return spref;
+        }
+    }
+
+    private BinarySharedPreferences(Context context, String name) {
+        mContext = context.getApplicationContext();
+        mName = name;
+        mStore = new BinaryStore(new File(new File(mContext.getFilesDir(), DIR), name.toLowerCase()));
+        mMainHandler = new Handler(mContext.getMainLooper());
+        // 与SharedPreferencesImpl一样提前在后台加载，读取时未加载完成则等待。
+        try {
+            Background.executor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    awaitLoaded();
+                }
+            });
+        } catch (RejectedExecutionException ignored) {
+            // 首次读取时再加载。
+        }
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        final Integer value = (Integer) get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        final Float value = (Float) get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        final Long value = (Long) get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        final Boolean value = (Boolean) get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        final String value = (String) get(key);
+        return value != null ? value : defValue;
+    }
+
+    /**
+     * @return 不可修改。
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        final Set<String> value = (Set<String>) get(key);
+        return value != null ? value : defValues;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        awaitLoaded();
+        return mStore.getAll();
+    }
+
+    @Override
+    public boolean contains(String key) {
+        awaitLoaded();
+        return mStore.contains(key);
+    }
+
+    /**
+     * 只解码读取的key.
+     */
+    @Override
+    public Map<String, Object> getMany(String... keys) {
+        awaitLoaded();
+        return mStore.getMany(keys);
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        mObservable.registerObserver(listener);
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        mObservable.unregisterObserver(listener);
+    }
+
+    @Override
+    public Editor edit() {
+        return new MyEditor(this);
+    }
+
+    private Object get(String key) {
+        awaitLoaded();
+        return mStore.get(key);
+    }
+
+    private void awaitLoaded() {
+        if (mStore.isLoaded()) return;
+        synchronized (mStore) {
+            if (mStore.isLoaded()) return;
+            final boolean fresh = !mStore.file().exists();
+            try {
+                mStore.load();
+            } catch (IOException e) {
+                Log.e(TAG, "[load]" + mStore.file(), e);
+            }
+            if (fresh && mStore.isLoaded()) importXml();
+        }
+    }
+
+    /**
+     * 导入同名的XML文件中的数据。
+     */
+    private void importXml() {
+        final File xml = new File(new File(mContext.getApplicationInfo().dataDir, "shared_prefs"), mName + ".xml");
+        if (!xml.isFile()) return;
+        final Map<String, Object> values = new HashMap<String, Object>(mContext.getSharedPreferences(mName, Context.MODE_PRIVATE).getAll());
+        if (values.isEmpty()) return;
+        mStore.write(false, values);
+        try {
+            mStore.flush(true);
+        } catch (IOException e) {
+            Log.e(TAG, "[importXml]" + mStore.file(), e);
+        }
+    }
+
+    private boolean write(boolean clear, Map<String, Object> modified, boolean sync) {
+        awaitLoaded();
+        if (!mStore.isLoaded()) {
+            // 写入的话，之后的合并会以这些值覆盖文件中原有的数据。
+            Log.e(TAG, "[write]未能加载，放弃写入：" + mStore.file());
+            return false;
+        }
+        notifyChanged(mStore.write(clear, modified));
+        if (!sync) {
+            scheduleFlush();
+            return true;
+        }
+        try {
+            mStore.flush(true);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "[write]" + mStore.file(), e);
+            // 内存中已修改，稍后再试。
+            scheduleFlush();
+            return false;
+        }
+    }
+
+    private void scheduleFlush() {
+        synchronized (this) {
+            if (mFlushScheduled) return;
+            mFlushScheduled = true;
+        }
+        try {
+            Background.executor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        synchronized (this) {
+            mFlushScheduled = false;
+        }
+        try {
+            mStore.flush(false);
+        } catch (IOException e) {
+            Log.e(TAG, "[flush]" + mStore.file(), e);
+        }
+    }
+
+    private void notifyChanged(final List<String> keys) {
+        if (keys.isEmpty() || mObservable.countObservers() <= 0) return;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (String key : keys) {
+                    mObservable.notifyChanged(BinarySharedPreferences.this, key);
+                }
+            }
+        });
+    }
+
+    public static class MyEditor implements Editor {
+        private final BinarySharedPreferences mSPref;
+        /**
+         * 值为null表示移除。
+         */
+        private final Map<String, Object> mModified = new LinkedHashMap<>();
+        private boolean mClearFlag;
+
+        private MyEditor(BinarySharedPreferences spref) {
+            mSPref = spref;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            return put(key, value);
+        }
+
+        /**
+         * @param value 为null等同于{@link #remove(String)}.
+         */
+        @Override
+        public Editor putString(String key, String value) {
+            return put(key, value);
+        }
+
+        /**
+         * @param values 为null等同于{@link #remove(String)}.
+         */
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            return put(key, values == null ? null : Collections.unmodifiableSet(new HashSet<>(values)));
+        }
+
+        @Override
+        public Editor remove(String key) {
+            return put(key, null);
+        }
+
+        @Override
+        public Editor clear() {
+            mClearFlag = true;
+            return this;
+        }
+
+        /**
+         * 返回前写入磁盘。
+         */
+        @Override
+        public boolean commit() {
+            final boolean success = mSPref.write(mClearFlag, mModified, true);
+            if (DEBUG) Log.d(TAG, "[commit]success:" + success);
+            return success;
+        }
+
+        @Override
+        public void apply() {
+            mSPref.write(mClearFlag, mModified, false);
+        }
+
+        private Editor put(String key, Object value) {
+            checkEmpty(key);
+            mModified.put(key, value);
+            return this;
+        }
+    }
+
+    private static class MyObservable extends Observable<OnSharedPreferenceChangeListener> {
+        public int countObservers() {
+            synchronized (mObservers) {
+                return mObservers.size();
+            }
+        }
+
+        public void notifyChanged(SharedPreferences spref, String key) {
+            synchronized (mObservers) {
+                for (int i = mObservers.size() - 1; i >= 0; i--) {
+                    mObservers.get(i).onSharedPreferenceChanged(spref, key);
+                }
+            }
+        }
+    }
+
+    private static void checkEmpty(String key) {
+        if (key == null || key.length() == 0) throw new IllegalArgumentException("parameter should not be null");
+    }
+}
@@ -0,0 +1,436 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.persist;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import static hobby.wei.c.persist.KvCodec.TYPE_CLEAR;
+import static hobby.wei.c.persist.KvCodec.apply;
+import static hobby.wei.c.persist.KvCodec.readString;
+import static hobby.wei.c.persist.KvCodec.readValue;
+import static hobby.wei.c.persist.KvCodec.scan;
+import static hobby.wei.c.persist.KvCodec.typeOf;
+import static hobby.wei.c.persist.KvCodec.writeRecord;
+import static hobby.wei.c.persist.KvCodec.writeString;
+import static hobby.wei.c.persist.KvCodec.writeValue;
+
+/**
+ * 单进程的二进制键值文件，{@link BinarySharedPreferences}的实现。
+ * <p>
+ * 文件由快照和其后追加的记录日志组成：
+ * <pre>
+ * 头部：MAGIC(int), 格式版本(int), key数(int), 索引字节数(int), 数据字节数(int), 索引和数据的CRC32(int)
+ * 索引：每个key一项：key, 类型(byte), 值在数据区中的偏移(int), 值的字节数(int)
+ * 数据：各个值依次排列
+ * 日志：每次修改一条记录，格式见{@link KvCodec}
+ * </pre>
+ * 加载时只读取一次文件并解析索引，值在首次访问时才解码；之后重放日志。
+ * 修改只在日志末尾追加新的记录，不必像XML那样每次重写整个文件；日志过长时合并为新的快照，
+ * 与{@link hobby.wei.c.file.FileVersioned}一样先写入临时文件，再重命名替换，因此任何时候被杀都不会损坏。
+ * 追加到一半被杀的记录无法通过校验，加载时截掉。
+ * <p>
+ * 本类的方法都是同步的，调用方需保证同一文件在进程内只有一个实例，且没有其它进程写入。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+final class BinaryStore {
+    private static final int MAGIC = 0x57424b56; // "WBKV"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    /**
+     * 日志记录数超过key数的这个倍数（且不少于{@link #COMPACT_MIN_RECORDS}）时合并。
+     */
+    private static final int COMPACT_RATIO = 2;
+    private static final int COMPACT_MIN_RECORDS = 128;
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String CORRUPT_SUFFIX = ".corrupt";
+
+    private final File mFile;
+    private final File mTempFile;
+    /**
+     * 已解码的值。
+     */
+    private final Map<String, Object> mValues = new HashMap<>();
+    /**
+     * 尚未解码的值：key -> {类型, 在mBytes中的偏移, 字节数}.
+     */
+    private final Map<String, int[]> mSlots = new HashMap<>();
+    private byte[] mBytes;
+    private boolean mLoaded;
+    /**
+     * 尚未写入文件的记录。
+     */
+    private final ByteArrayOutputStream mPending = new ByteArrayOutputStream();
+    private FileOutputStream mOut;
+    private int mLogRecords;
+    /**
+     * 追加失败后文件末尾可能有不完整的记录，下次写入时重写整个文件。
+     */
+    private boolean mRewrite;
+
+    BinaryStore(File file) {
+        mFile = file;
+        mTempFile = new File(file.getPath() + TEMP_SUFFIX);
+    }
+
+    File file() {
+        return mFile;
+    }
+
+    synchronized boolean isLoaded() {
+        return mLoaded;
+    }
+
+    /**
+     * 读取文件，已读取过则什么也不做。快照损坏的文件改名为*.corrupt后从空开始。
+     * <p>
+     * 读取失败（抛出异常且文件仍在原处）的仍为未加载，可以再次调用；在此之前不能{@link #write}和{@link #flush}，
+     * 以免之后的合并以不完整的值覆盖文件中原有的数据。
+     */
+    synchronized void load() throws IOException {
+        if (mLoaded) return;
+        // 上次合并时未完成的临时文件。
+        mTempFile.delete();
+        final byte[] bytes = mFile.isFile() ? readFully(mFile) : null;
+        // 不存在或刚创建还未写入。
+        if (bytes == null || bytes.length == 0) {
+            mLoaded = true;
+            return;
+        }
+        final int end;
+        try {
+            end = parse(bytes);
+        } catch (RuntimeException e) {
+            reset();
+            // 移走之后才能从空开始。
+            mLoaded = mFile.renameTo(new File(mFile.getPath() + CORRUPT_SUFFIX));
+            throw new IOException("文件已损坏：" + mFile, e);
+        }
+        if (end < bytes.length) {
+            // 截掉不完整的记录，以免之后追加的记录接在它后面。
+            try {
+                final RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+                try {
+                    raf.setLength(end);
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                reset();
+                throw e;
+            }
+        }
+        mLoaded = true;
+    }
+
+    private void reset() {
+        mValues.clear();
+        mSlots.clear();
+        mBytes = null;
+        mLogRecords = 0;
+    }
+
+    synchronized Object get(String key) {
+        Object value = mValues.get(key);
+        if (value == null && !mSlots.isEmpty()) {
+            final int[] slot = mSlots.remove(key);
+            if (slot != null) {
+                value = decode(slot);
+                mValues.put(key, value);
+                if (mSlots.isEmpty()) mBytes = null;
+            }
+        }
+        return value;
+    }
+
+    synchronized boolean contains(String key) {
+        return mValues.containsKey(key) || mSlots.containsKey(key);
+    }
+
+    /**
+     * @return 不存在的key不在其中。
+     */
+    synchronized Map<String, Object> getMany(String... keys) {
+        final Map<String, Object> result = new HashMap<>();
+        for (String key : keys) {
+            final Object value = get(key);
+            if (value != null) result.put(key, value);
+        }
+        return result;
+    }
+
+    /**
+     * @return 副本。
+     */
+    synchronized Map<String, Object> getAll() {
+        for (Map.Entry<String, int[]> e : mSlots.entrySet()) {
+            mValues.put(e.getKey(), decode(e.getValue()));
+        }
+        mSlots.clear();
+        mBytes = null;
+        return new HashMap<>(mValues);
+    }
+
+    /**
+     * 修改内存中的值，并把记录放入待写队列，之后需调用{@link #flush(boolean)}写入文件。值为null表示移除。
+     *
+     * @return 变化的key.
+     */
+    synchronized List<String> write(boolean clear, Map<String, Object> modified) {
+        if (!mLoaded) throw new IllegalStateException("尚未加载：" + mFile);
+        try {
+            return writeInner(clear, modified);
+        } catch (IOException e) {
+            // 只写入内存，不会发生。
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private List<String> writeInner(boolean clear, Map<String, Object> modified) throws IOException {
+        final Set<String> changed = new LinkedHashSet<>();
+        final DataOutputStream out = new DataOutputStream(mPending);
+        if (clear && (!mValues.isEmpty() || !mSlots.isEmpty())) {
+            changed.addAll(mValues.keySet());
+            changed.addAll(mSlots.keySet());
+            mValues.clear();
+            mSlots.clear();
+            mBytes = null;
+            writeRecord(out, TYPE_CLEAR, "", null);
+            mLogRecords++;
+        }
+        for (Map.Entry<String, Object> e : modified.entrySet()) {
+            final String key = e.getKey();
+            final Object value = e.getValue();
+            // 未解码的值无从比较，视为有变化。
+            final boolean slotted = mSlots.remove(key) != null;
+            if (apply(mValues, key, value) || slotted) {
+                writeRecord(out, typeOf(value), key, value);
+                mLogRecords++;
+                changed.add(key);
+            }
+        }
+        out.flush();
+        if (mSlots.isEmpty()) mBytes = null;
+        return new ArrayList<>(changed);
+    }
+
+    /**
+     * 把待写的记录追加到文件，日志过长时改为合并。
+     *
+     * @param sync 是否等待写入磁盘。
+     */
+    synchronized void flush(boolean sync) throws IOException {
+        if (mPending.size() == 0 && !mRewrite) return;
+        if (!mLoaded) throw new IOException("尚未加载：" + mFile);
+        if (mRewrite || needsCompaction()) {
+            compact();
+            return;
+        }
+        try {
+            if (mOut == null) {
+                final File parent = mFile.getParentFile();
+                if (parent != null && !parent.exists() && !parent.mkdirs()) throw new IOException("无法创建目录：" + parent);
+                mOut = new FileOutputStream(mFile, true);
+                // 新文件先写入空快照。
+                if (mOut.getChannel().size() == 0) mOut.write(snapshot(new HashMap<String, Object>(), null, null));
+            }
+            mPending.writeTo(mOut);
+            if (sync) mOut.getFD().sync();
+            mPending.reset();
+        } catch (IOException e) {
+            closeOut();
+            mRewrite = true;
+            throw e;
+        }
+    }
+
+    synchronized void close() {
+        closeOut();
+    }
+
+    private boolean needsCompaction() {
+        return mLogRecords >= COMPACT_MIN_RECORDS && mLogRecords > (mValues.size() + mSlots.size()) * COMPACT_RATIO;
+    }
+
+    /**
+     * 以当前全部的值写入新的快照并替换原文件。
+     */
+    private void compact() throws IOException {
+        closeOut();
+        final byte[] snapshot = snapshot(mValues, mSlots, mBytes);
+        final File parent = mFile.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) throw new IOException("无法创建目录：" + parent);
+        final FileOutputStream out = new FileOutputStream(mTempFile);
+        try {
+            out.write(snapshot);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!mTempFile.renameTo(mFile)) {
+            mTempFile.delete();
+            mRewrite = true;
+            throw new IOException("无法替换：" + mFile);
+        }
+        mPending.reset();
+        mLogRecords = 0;
+        mRewrite = false;
+    }
+
+    private void closeOut() {
+        if (mOut != null) {
+            try {
+                mOut.close();
+            } catch (IOException ignored) {
+            }
+            mOut = null;
+        }
+    }
+
+    private Object decode(int[] slot) {
+        return readValue(ByteBuffer.wrap(mBytes, slot[1], slot[2]).slice(), (byte) slot[0]);
+    }
+
+    /**
+     * @return 有效内容的末尾。
+     * @throws RuntimeException 快照损坏。
+     */
+    private int parse(byte[] bytes) {
+        final ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) throw new IllegalStateException("格式不符");
+        final int count = in.getInt();
+        final int indexLength = in.getInt();
+        final int dataLength = in.getInt();
+        final int checksum = in.getInt();
+        final int snapshotEnd = HEADER_SIZE + indexLength + dataLength;
+        if (count < 0 || indexLength < 0 || dataLength < 0 || snapshotEnd < HEADER_SIZE || snapshotEnd > bytes.length) {
+            throw new IllegalStateException("长度不符");
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, HEADER_SIZE, indexLength + dataLength);
+        if ((int) crc.getValue() != checksum) throw new IllegalStateException("校验失败");
+        final int dataStart = HEADER_SIZE + indexLength;
+        for (int i = 0; i < count; i++) {
+            final String key = readString(in);
+            final byte type = in.get();
+            final int offset = in.getInt();
+            final int length = in.getInt();
+            if (offset < 0 || length < 0 || offset + length > dataLength) throw new IllegalStateException("索引不符");
+            mSlots.put(key, new int[]{type, dataStart + offset, length});
+        }
+        mBytes = bytes;
+        final List<int[]> records = new ArrayList<>();
+        final int end = scan(bytes, snapshotEnd, bytes.length, records);
+        for (int[] r : records) {
+            final ByteBuffer body = ByteBuffer.wrap(bytes, r[0], r[1]).slice();
+            final byte type = body.get();
+            final String key = readString(body);
+            if (type == TYPE_CLEAR) {
+                mValues.clear();
+                mSlots.clear();
+                continue;
+            }
+            mSlots.remove(key);
+            apply(mValues, key, readValue(body, type));
+        }
+        mLogRecords = records.size();
+        if (mSlots.isEmpty()) mBytes = null;
+        return end;
+    }
+
+    /**
+     * @param slots 未解码的值原样复制，可为null.
+     */
+    private static byte[] snapshot(Map<String, Object> values, Map<String, int[]> slots, byte[] slotBytes) throws IOException {
+        final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        final DataOutputStream indexOut = new DataOutputStream(index);
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        final DataOutputStream dataOut = new DataOutputStream(data);
+        for (Map.Entry<String, Object> e : values.entrySet()) {
+            final byte type = typeOf(e.getValue());
+            final int offset = dataOut.size();
+            writeValue(dataOut, type, e.getValue());
+            writeIndex(indexOut, e.getKey(), type, offset, dataOut.size() - offset);
+        }
+        if (slots != null) {
+            for (Map.Entry<String, int[]> e : slots.entrySet()) {
+                final int[] slot = e.getValue();
+                final int offset = dataOut.size();
+                dataOut.write(slotBytes, slot[1], slot[2]);
+                writeIndex(indexOut, e.getKey(), (byte) slot[0], offset, slot[2]);
+            }
+        }
+        indexOut.flush();
+        dataOut.flush();
+        final CRC32 crc = new CRC32();
+        crc.update(index.toByteArray());
+        crc.update(data.toByteArray());
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + index.size() + data.size());
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(values.size() + (slots == null ? 0 : slots.size()));
+        out.writeInt(index.size());
+        out.writeInt(data.size());
+        out.writeInt((int) crc.getValue());
+        index.writeTo(out);
+        data.writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeIndex(DataOutputStream out, String key, byte type, int offset, int length) throws IOException {
+        writeString(out, key);
+        out.writeByte(type);
+        out.writeInt(offset);
+        out.writeInt(length);
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        final long length = file.length();
+        if (length > Integer.MAX_VALUE) throw new IOException("文件过大：" + file);
+        final byte[] bytes = new byte[(int) length];
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            int n = 0;
+            while (n < bytes.length) {
+                final int r = in.read(bytes, n, bytes.length - n);
+                if (r < 0) break;
+                n += r;
+            }
+            return n == bytes.length ? bytes : Arrays.copyOf(bytes, n);
+        } finally {
+            in.close();
+        }
+    }
+}
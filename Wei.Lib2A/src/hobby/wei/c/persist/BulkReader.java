@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.persist;
+
+import java.util.Map;
+
+/**
+ * 可以一次读取多个key的{@link android.content.SharedPreferences}, 见{@link Keeper#readMany(String...)}.
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+interface BulkReader {
+    /**
+     * @return 同一时刻的值，不存在的key不在其中。
+     */
+    Map<String, Object> getMany(String... keys);
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.persist;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Process;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import hobby.wei.c.framework.AbsApp;
+import hobby.wei.c.tools.ICache;
+
+/**
+ * 借助{@link SharedPreferencesProvider}的通知机制({@link ContentResolver#notifyChange(Uri, ContentObserver)})
+ * 实现的{@link ICache.InvalidationChannel}, 使各进程中同名的{@link ICache}保持一致。需要在Manifest中声明
+ * {@link SharedPreferencesProvider}.
+ * <p>
+ * 通知的Uri形如{@code content://com.xxx.MPSPREF/~cache/cacheName/pid/keyHash/version}, 其中version是发送方
+ * 进程内递增的序号，用于丢弃重复的通知；本进程发出的通知被忽略。回调在Binder线程中进行，不占用主线程。
+ * <p>
+ * 用法示例：
+ * <pre><code>
+ * ICache&lt;String, Xxx&gt; cache = new ICache.Builder&lt;String, Xxx&gt;(20)
+ *          .name("xxx")
+ *          .invalidationChannel(CacheInvalidationChannel.get())
+ *          .build(delegate);
+ * </code></pre>
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class CacheInvalidationChannel implements ICache.InvalidationChannel {
+    private static CacheInvalidationChannel sInstance;
+
+    public static synchronized CacheInvalidationChannel get() {
+        if (sInstance == null) sInstance = new CacheInvalidationChannel(AbsApp.get().getContentResolver());
+        return sInstance;
+    }
+
+    private final ContentResolver mResolver;
+    private final int mPid = Process.myPid();
+    /**
+     * 以启动时间为起点，使重启后复用了同一个pid的进程发出的序号仍然更大。
+     */
+    private final AtomicLong mVersion = new AtomicLong(System.currentTimeMillis() * 1000);
+    private final Map<Listener, Observer> mObservers = new ConcurrentHashMap<>();
+
+    private CacheInvalidationChannel(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    @Override
+    public void publish(String cacheName, int keyHash) {
+        mResolver.notifyChange(SharedPreferencesProvider.makeCacheInvalidationUri(cacheName, mPid, keyHash,
+                mVersion.incrementAndGet()), null, false);
+    }
+
+    @Override
+    public void subscribe(String cacheName, Listener listener) {
+        final Observer observer = new Observer(listener);
+        if (mObservers.put(listener, observer) != null) return;
+        mResolver.registerContentObserver(SharedPreferencesProvider.getUri4CacheInvalidation(cacheName), true, observer);
+    }
+
+    @Override
+    public void unsubscribe(String cacheName, Listener listener) {
+        final Observer observer = mObservers.remove(listener);
+        if (observer != null) mResolver.unregisterContentObserver(observer);
+    }
+
+    private class Observer extends ContentObserver {
+        private final Listener mListener;
+        /**
+         * 各发送方进程最后一条通知的序号。同一个Observer收到的通知是有序的，不同Observer之间则不一定，因此分别记录。
+         */
+        private final Map<Integer, Long> mLastVersions = new HashMap<>();
+
+        Observer(Listener listener) {
+            // 为null则在Binder线程中回调。
+            super(null);
+            mListener = listener;
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            final long[] message = SharedPreferencesProvider.parseCacheInvalidation(uri);
+            if (message == null) return;
+            if (accept((int) message[0], message[2])) mListener.onInvalidate((int) message[1]);
+        }
+
+        /**
+         * @return 是否为其它进程发出的新通知。
+         */
+        private synchronized boolean accept(int pid, long version) {
+            if (pid == mPid) return false;
+            final Long last = mLastVersions.get(pid);
+            if (last != null && version <= last) return false;
+            mLastVersions.put(pid, version);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.persist;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * {@link SharedPreferencesProvider}中一个文件的版本号及最近的变更记录，
+ * 用于{@link MultiProcesSharedPreferences}的本地副本发现并补上漏掉的变更。
+ * <p>
+ * 每次提交版本号加1, 并在环形缓冲区中记下该次变更的key. 副本只需取回自己的版本之后变更过的key的当前值；
+ * 落后太多（记录已被覆盖）或中间有清空操作时，则取回全部。
+ * <p>
+ * 本对象同时是该文件的写锁：修改文件和{@link #append}应在同一个synchronized块中，读取快照时也一样，
+ * 以保证取到的值与版本号一致。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+final class ChangeLog {
+    static final int CAPACITY = 64;
+
+    private final long[] mVersions = new long[CAPACITY];
+    /**
+     * 元素为null表示该次变更包含清空操作。
+     */
+    private final String[][] mKeys = new String[CAPACITY][];
+    private long mVersion;
+
+    synchronized long version() {
+        return mVersion;
+    }
+
+    /**
+     * @param cleared 本次变更是否包含清空操作。
+     * @return 新的版本号。
+     */
+    synchronized long append(Collection<String> keys, boolean cleared) {
+        final long version = ++mVersion;
+        final int i = (int) (version % CAPACITY);
+        mVersions[i] = version;
+        mKeys[i] = cleared ? null : keys.toArray(new String[keys.size()]);
+        return version;
+    }
+
+    /**
+     * @return 版本号since之后变更过的key. 无法增量同步（记录已被覆盖或包含清空操作）时返回null.
+     */
+    synchronized Set<String> keysSince(long since) {
+        if (since > mVersion || since < 0) return null;
+        final Set<String> keys = new HashSet<>();
+        for (long v = since + 1; v <= mVersion; v++) {
+            final int i = (int) (v % CAPACITY);
+            if (mVersions[i] != v || mKeys[i] == null) return null;
+            for (String key : mKeys[i]) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+}
@@ -5,9 +5,17 @@ import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 
 import java.lang.ref.WeakReference;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import hobby.wei.c.tools.Background;
 
 import static hobby.wei.c.utils.Assist.requireNonEmpty;
 import static hobby.wei.c.utils.Assist.requireNotNull;
@@ -19,9 +27,12 @@ import static hobby.wei.c.utils.Assist.requireNotNull;
  */
 public class Keeper {
     protected static final String KEEP_XML_DEF = "keeper";
-    private static final Map<String, WeakReference<Keeper>> sName2KeeperMap = new HashMap<>();
+    /**
+     * 无锁读取（{@link KeeperPreloader}会在后台线程创建），创建时才加锁。
+     */
+    private static final Map<String, WeakReference<Keeper>> sName2KeeperMap = new ConcurrentHashMap<>();
 
-    private static Keeper get(Context context, String keepXml, boolean multiProcess) {
+    private static Keeper get(Context context, String keepXml, SPrefHelper helper) {
         final String keepXmlLC = requireNonEmpty(keepXml).toLowerCase();
         WeakReference<Keeper> ref = sName2KeeperMap.get(keepXmlLC);
         Keeper instance = ref == null ? null : ref.get();
@@ -30,7 +41,7 @@ public class Keeper {
                 ref = sName2KeeperMap.get(keepXmlLC);
                 instance = ref == null ? null : ref.get();
                 if (instance == null) {
-                    instance = new Keeper(context, keepXml, multiProcess);
+                    instance = new Keeper(context, keepXml, helper);
                     sName2KeeperMap.put(keepXmlLC, new WeakReference<>(instance));
                 }
             }
@@ -40,11 +51,59 @@ public class Keeper {
 
     private final String mKeepXml;
     private final SharedPreferences mSPref;
+    private volatile KeeperWriter mWriter;
 
-    private Keeper(Context context, String keepXml, boolean multiProcess) {
+    private Keeper(Context context, String keepXml, SPrefHelper helper) {
         mKeepXml = keepXml;
-        mSPref = multiProcess ? SPrefHelper.multiProcess().getSPref(context, mKeepXml) :
-                SPrefHelper.def().getSPref(context, mKeepXml);
+        mSPref = helper.getSPref(context, mKeepXml);
+    }
+
+    private KeeperWriter writer() {
+        if (mWriter == null) {
+            synchronized (this) {
+                if (mWriter == null) mWriter = new KeeperWriter(mSPref);
+            }
+        }
+        return mWriter;
+    }
+
+    /**
+     * @return 没有异步写入等待提交的值则返回{@link KeeperWriter#NONE}.
+     */
+    private Object pending(String key) {
+        final KeeperWriter writer = mWriter;
+        return writer == null ? KeeperWriter.NONE : writer.lookup(key);
+    }
+
+    /**
+     * 同步写入。有异步写入时经由{@link KeeperWriter#write(String, Object)}, 以免被同一个key的异步写入覆盖。
+     *
+     * @param value null表示移除。
+     */
+    private Keeper keep(String key, Object value) {
+        requireNonEmpty(key);
+        final KeeperWriter writer = mWriter;
+        if (writer != null) {
+            writer.write(key, value);
+        } else {
+            final Editor editor = edit();
+            SharedPreferencesProvider.putValue(editor, key, value);
+            editor.apply();
+        }
+        return this;
+    }
+
+    /**
+     * 在{@link Background#executor()}中执行，线程池已满则在当前线程执行。
+     */
+    private static <T> Future<T> submit(Callable<T> callable) {
+        final FutureTask<T> task = new FutureTask<>(callable);
+        try {
+            Background.executor().execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+        return task;
     }
 
     public String getKeepXml() {
@@ -59,6 +118,13 @@ public class Keeper {
         return mSPref.edit();
     }
 
+    /**
+     * 确保文件已加载：各实现都在首次读取时加载，加载期间的其它读取等待同一次加载完成。见{@link KeeperPreloader}.
+     */
+    void load() {
+        mSPref.contains(KEEP_XML_DEF);
+    }
+
     public static Builder.User get(Context context, String keepXml) {
         return new Builder.User(context, keepXml);
     }
@@ -102,7 +168,7 @@ public class Keeper {
     public static class Builder {
         private final Context mContext;
         String mKeepXml;
-        boolean mMultiProcess = false;
+        SPrefHelper mHelper = SPrefHelper.def();
 
         private Builder(Context context, String keepXml) {
             mContext = requireNotNull(context);
@@ -110,7 +176,7 @@ public class Keeper {
         }
 
         public Keeper ok() {
-            return get(mContext, mKeepXml, mMultiProcess);
+            return get(mContext, mKeepXml, mHelper);
         }
 
         public <T extends Wrapper> T bind(T wrapper) {
@@ -123,7 +189,25 @@ public class Keeper {
             }
 
             public Builder multiProcess() {
-                mMultiProcess = true;
+                mHelper = SPrefHelper.multiProcess();
+                return this;
+            }
+
+            /**
+             * @param mmap 是否使用内存映射文件（{@link SPrefHelper#mmap()}）代替{@link SharedPreferencesProvider},
+             *             读写都不经过IPC. 两者的数据不互通，已有数据的不要随意切换。
+             */
+            public Builder multiProcess(boolean mmap) {
+                mHelper = mmap ? SPrefHelper.mmap() : SPrefHelper.multiProcess();
+                return this;
+            }
+
+            /**
+             * 单进程，以二进制格式（{@link SPrefHelper#binary()}）代替XML文件：加载更快，每次写入只追加修改的部分。
+             * 首次使用时导入原XML文件中的数据。
+             */
+            public Builder binary() {
+                mHelper = SPrefHelper.binary();
                 return this;
             }
         }
@@ -159,9 +243,17 @@ public class Keeper {
         }
     }
 
+    /**
+     * 异步写入，见{@link KeeperWriter}. 之后的读取（包括同步的）能立即读到。
+     *
+     * @return 所在批次的{@link Editor#commit()}结果。
+     */
+    public Future<Boolean> keepIntAsync(String key, int value) {
+        return writer().put(requireNonEmpty(key), value);
+    }
+
     public Keeper keepInt(String key, int value) {
-        edit().putInt(requireNonEmpty(key), value).apply();
-        return this;
+        return keep(key, value);
     }
 
     public int readInt(String key) {
@@ -169,12 +261,27 @@ public class Keeper {
     }
 
     public int readInt(String key, int defaultValue) {
-        return mSPref.getInt(requireNonEmpty(key), defaultValue);
+        final Object pending = pending(requireNonEmpty(key));
+        if (pending != KeeperWriter.NONE) return pending != null ? (Integer) pending : defaultValue;
+        return mSPref.getInt(key, defaultValue);
+    }
+
+    public Future<Integer> readIntAsync(final String key, final int defaultValue) {
+        requireNonEmpty(key);
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return readInt(key, defaultValue);
+            }
+        });
+    }
+
+    public Future<Boolean> keepBooleanAsync(String key, boolean value) {
+        return writer().put(requireNonEmpty(key), value);
     }
 
     public Keeper keepBoolean(String key, boolean value) {
-        edit().putBoolean(requireNonEmpty(key), value).apply();
-        return this;
+        return keep(key, value);
     }
 
     public boolean readBoolean(String key) {
@@ -182,12 +289,27 @@ public class Keeper {
     }
 
     public boolean readBoolean(String key, boolean defaultValue) {
-        return mSPref.getBoolean(requireNonEmpty(key), defaultValue);
+        final Object pending = pending(requireNonEmpty(key));
+        if (pending != KeeperWriter.NONE) return pending != null ? (Boolean) pending : defaultValue;
+        return mSPref.getBoolean(key, defaultValue);
+    }
+
+    public Future<Boolean> readBooleanAsync(final String key, final boolean defaultValue) {
+        requireNonEmpty(key);
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return readBoolean(key, defaultValue);
+            }
+        });
+    }
+
+    public Future<Boolean> keepFloatAsync(String key, float value) {
+        return writer().put(requireNonEmpty(key), value);
     }
 
     public Keeper keepFloat(String key, float value) {
-        edit().putFloat(requireNonEmpty(key), value).apply();
-        return this;
+        return keep(key, value);
     }
 
     public float readFloat(String key) {
@@ -195,12 +317,27 @@ public class Keeper {
     }
 
     public float readFloat(String key, float defaultValue) {
-        return mSPref.getFloat(requireNonEmpty(key), defaultValue);
+        final Object pending = pending(requireNonEmpty(key));
+        if (pending != KeeperWriter.NONE) return pending != null ? (Float) pending : defaultValue;
+        return mSPref.getFloat(key, defaultValue);
+    }
+
+    public Future<Float> readFloatAsync(final String key, final float defaultValue) {
+        requireNonEmpty(key);
+        return submit(new Callable<Float>() {
+            @Override
+            public Float call() {
+                return readFloat(key, defaultValue);
+            }
+        });
+    }
+
+    public Future<Boolean> keepLongAsync(String key, long value) {
+        return writer().put(requireNonEmpty(key), value);
     }
 
     public Keeper keepLong(String key, long value) {
-        edit().putLong(requireNonEmpty(key), value).apply();
-        return this;
+        return keep(key, value);
     }
 
     public long readLong(String key) {
@@ -208,12 +345,27 @@ public class Keeper {
     }
 
     public long readLong(String key, long defaultValue) {
-        return mSPref.getLong(requireNonEmpty(key), defaultValue);
+        final Object pending = pending(requireNonEmpty(key));
+        if (pending != KeeperWriter.NONE) return pending != null ? (Long) pending : defaultValue;
+        return mSPref.getLong(key, defaultValue);
+    }
+
+    public Future<Long> readLongAsync(final String key, final long defaultValue) {
+        requireNonEmpty(key);
+        return submit(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return readLong(key, defaultValue);
+            }
+        });
+    }
+
+    public Future<Boolean> keepStringAsync(String key, String value) {
+        return writer().put(requireNonEmpty(key), value);
     }
 
     public Keeper keepString(String key, String value) {
-        edit().putString(requireNonEmpty(key), value).apply();
-        return this;
+        return keep(key, value);
     }
 
     public String readString(String key) {
@@ -221,15 +373,143 @@ public class Keeper {
     }
 
     public String readString(String key, String defaultValue) {
-        return mSPref.getString(requireNonEmpty(key), defaultValue);
+        final Object pending = pending(requireNonEmpty(key));
+        if (pending != KeeperWriter.NONE) return pending != null ? (String) pending : defaultValue;
+        return mSPref.getString(key, defaultValue);
+    }
+
+    public Future<String> readStringAsync(final String key, final String defaultValue) {
+        requireNonEmpty(key);
+        return submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return readString(key, defaultValue);
+            }
+        });
     }
 
     public Keeper remove(String key) {
-        edit().remove(requireNonEmpty(key)).apply();
-        return this;
+        return keep(key, null);
+    }
+
+    public Future<Boolean> removeAsync(String key) {
+        return writer().put(requireNonEmpty(key), null);
     }
 
     public boolean contains(String key) {
-        return mSPref.contains(requireNonEmpty(key));
+        final Object pending = pending(requireNonEmpty(key));
+        if (pending != KeeperWriter.NONE) return pending != null;
+        return mSPref.contains(key);
+    }
+
+    /**
+     * 立即提交{@code keepXxxAsync()}等待写入的值，不等待完成。
+     */
+    public void flushPending() {
+        final KeeperWriter writer = mWriter;
+        if (writer == null) return;
+        submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                writer.flush();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 一次读取多个key, 结果是同一时刻的值。多进程时只读取一次副本（冷启动时只有一次IPC）, 二进制格式时只解码这些key.
+     */
+    public Values readMany(String... keys) {
+        for (String key : keys) {
+            requireNonEmpty(key);
+        }
+        final Map<String, Object> values;
+        if (mSPref instanceof BulkReader) {
+            values = ((BulkReader) mSPref).getMany(keys);
+        } else {
+            final Map<String, ?> all = mSPref.getAll();
+            values = new HashMap<>();
+            for (String key : keys) {
+                final Object value = all.get(key);
+                if (value != null) values.put(key, value);
+            }
+        }
+        if (mWriter != null) {
+            for (String key : keys) {
+                final Object pending = pending(key);
+                if (pending == KeeperWriter.NONE) continue;
+                if (pending != null) values.put(key, pending);
+                else values.remove(key);
+            }
+        }
+        return new Values(values);
+    }
+
+    /**
+     * {@link #readMany(String...)}的结果，读取方法与{@link Keeper}的相同。
+     */
+    public static class Values {
+        private final Map<String, Object> mValues;
+
+        private Values(Map<String, Object> values) {
+            mValues = values;
+        }
+
+        public int readInt(String key) {
+            return readInt(key, -1);
+        }
+
+        public int readInt(String key, int defaultValue) {
+            final Integer value = (Integer) mValues.get(key);
+            return value != null ? value : defaultValue;
+        }
+
+        public boolean readBoolean(String key) {
+            return readBoolean(key, false);
+        }
+
+        public boolean readBoolean(String key, boolean defaultValue) {
+            final Boolean value = (Boolean) mValues.get(key);
+            return value != null ? value : defaultValue;
+        }
+
+        public float readFloat(String key) {
+            return readFloat(key, -1);
+        }
+
+        public float readFloat(String key, float defaultValue) {
+            final Float value = (Float) mValues.get(key);
+            return value != null ? value : defaultValue;
+        }
+
+        public long readLong(String key) {
+            return readLong(key, -1);
+        }
+
+        public long readLong(String key, long defaultValue) {
+            final Long value = (Long) mValues.get(key);
+            return value != null ? value : defaultValue;
+        }
+
+        public String readString(String key) {
+            return readString(key, null);
+        }
+
+        public String readString(String key, String defaultValue) {
+            final String value = (String) mValues.get(key);
+            return value != null ? value : defaultValue;
+        }
+
+        public boolean contains(String key) {
+            return mValues.containsKey(key);
+        }
+
+        /**
+         * @return 不可修改。
+         */
+        public Map<String, ?> asMap() {
+            return Collections.unmodifiableMap(mValues);
+        }
     }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.persist;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import hobby.wei.c.tools.Background;
+
+/**
+ * 启动时预加载{@link Keeper}: 在{@link Background#executor()}中并行打开并加载声明的文件，
+ * 通常在{@code AbsApp.onPreloadKeepers()}中调用。
+ * <p>
+ * 加载完成之前的访问（包括不经过本类的{@code Keeper.get(...).ok()}）会等待同一次加载完成，而不会重复加载：
+ * 各实现在加载期间都持有同一把锁，见{@link Keeper#load()}. 也可以等待返回的{@link Future}.
+ * <p>
+ * 预加载的{@link Keeper}在进程存活期间一直被持有，以免在用到之前被回收，因此只应声明很快就会用到的文件。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public final class KeeperPreloader {
+    private static final Map<String, Future<Keeper>> sLoads = new HashMap<>();
+
+    private KeeperPreloader() {
+    }
+
+    /**
+     * @param builder 之后不要再修改。同一文件重复声明的返回同一个{@link Future}.
+     */
+    public static Future<Keeper> preload(final Keeper.Builder builder) {
+        final String keepXmlLC = builder.mKeepXml.toLowerCase();
+        final FutureTask<Keeper> task;
+        synchronized (sLoads) {
+            final Future<Keeper> loading = sLoads.get(keepXmlLC);
+            if (loading != null) return loading;
+            task = new FutureTask<>(new Callable<Keeper>() {
+                @Override
+                public Keeper call() {
+                    final Keeper keeper = builder.ok();
+                    keeper.load();
+                    return keeper;
+                }
+            });
+            sLoads.put(keepXmlLC, task);
+        }
+        try {
+            Background.executor().execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+        return task;
+    }
+}
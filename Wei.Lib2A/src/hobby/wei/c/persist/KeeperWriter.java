@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.persist;
+
+import android.content.SharedPreferences;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import hobby.wei.c.tools.Background;
+
+/**
+ * {@link Keeper}的异步写入队列，每个文件一个。
+ * <p>
+ * 第一次写入之后的{@link #WINDOW_MILLIS}内，同一个key的多次写入只保留最后一次，之后在后台线程以一个
+ * {@link SharedPreferences.Editor}一次提交（多进程时只有一次IPC）。同一批的写入共用一个{@link Future}, 其值为
+ * {@link SharedPreferences.Editor#commit()}的结果。各批按顺序提交。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+final class KeeperWriter {
+    static final long WINDOW_MILLIS = 50;
+    /**
+     * {@link #lookup(String)}的返回值，表示没有等待写入的值。
+     */
+    static final Object NONE = new Object();
+
+    private final SharedPreferences mSPref;
+    /**
+     * 等待写入的批次，在本对象的锁内读写。
+     */
+    private Batch mPending;
+    /**
+     * 正在提交的批次，在本对象的锁内读写。
+     */
+    private Batch mWriting;
+    /**
+     * 保证同时只有一个批次在提交，也就保证了同一个key的写入顺序。
+     */
+    private final Object mCommitLock = new Object();
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                Background.executor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                flush();
+            }
+        }
+    };
+
+    KeeperWriter(SharedPreferences spref) {
+        mSPref = spref;
+    }
+
+    /**
+     * @param value null表示移除。
+     */
+    Future<Boolean> put(String key, Object value) {
+        final boolean first;
+        final Future<Boolean> future;
+        synchronized (this) {
+            first = mPending == null;
+            if (first) mPending = new Batch();
+            mPending.mValues.put(key, value);
+            future = mPending.mTask;
+        }
+        if (first) {
+            try {
+                Background.scheduler().schedule(mFlushTask, WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                mFlushTask.run();
+            }
+        }
+        return future;
+    }
+
+    /**
+     * 同步写入（{@link SharedPreferences.Editor#apply()}），取代同一个key等待写入或正在提交的值。
+     * 若正在提交的批次中有该key, 则等它提交完再写入，以免之后被它覆盖；其它情况不等待。
+     *
+     * @param value null表示移除。
+     */
+    void write(String key, Object value) {
+        final boolean writing;
+        synchronized (this) {
+            if (mPending != null) mPending.mValues.remove(key);
+            writing = mWriting != null && mWriting.mValues.containsKey(key);
+        }
+        if (!writing) {
+            apply(key, value);
+            return;
+        }
+        synchronized (mCommitLock) {
+            // 此时那一批已经提交完，lookup()不会再返回其中的值。
+            apply(key, value);
+        }
+    }
+
+    /**
+     * 读取时调用，以便读到尚未提交的值。
+     *
+     * @return 没有等待写入或正在提交的值则返回{@link #NONE}; null表示将被移除。
+     */
+    synchronized Object lookup(String key) {
+        if (mPending != null && mPending.mValues.containsKey(key)) return mPending.mValues.get(key);
+        if (mWriting != null && mWriting.mValues.containsKey(key)) return mWriting.mValues.get(key);
+        return NONE;
+    }
+
+    /**
+     * 立即提交等待写入的值。
+     */
+    void flush() {
+        synchronized (mCommitLock) {
+            final Batch batch;
+            synchronized (this) {
+                batch = mPending;
+                if (batch == null) return;
+                mPending = null;
+                mWriting = batch;
+            }
+            try {
+                batch.mTask.run();
+            } finally {
+                synchronized (this) {
+                    mWriting = null;
+                }
+            }
+        }
+    }
+
+    private class Batch {
+        /**
+         * 值为null表示移除。取出提交之后不再修改。
+         */
+        final Map<String, Object> mValues = new LinkedHashMap<>();
+        final FutureTask<Boolean> mTask = new FutureTask<>(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return commit(mValues);
+            }
+        });
+    }
+
+    private void apply(String key, Object value) {
+        final SharedPreferences.Editor editor = mSPref.edit();
+        SharedPreferencesProvider.putValue(editor, key, value);
+        editor.apply();
+    }
+
+    private boolean commit(Map<String, Object> values) {
+        final SharedPreferences.Editor editor = mSPref.edit();
+        for (Map.Entry<String, Object> e : values.entrySet()) {
+            SharedPreferencesProvider.putValue(editor, e.getKey(), e.getValue());
+        }
+        return editor.commit();
+    }
+}
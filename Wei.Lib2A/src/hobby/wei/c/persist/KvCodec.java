@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.persist;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * {@link MmapStore}和{@link BinaryStore}共用的键值编码。
+ * <p>
+ * 记录：长度(int), 其后所有字节的CRC32(int), 类型(byte), key, 值。字符串为UTF-8字节数(int)加字节。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+final class KvCodec {
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final byte TYPE_INT = 1;
+    static final byte TYPE_LONG = 2;
+    static final byte TYPE_FLOAT = 3;
+    static final byte TYPE_BOOL = 4;
+    static final byte TYPE_STRING = 5;
+    static final byte TYPE_STR_SET = 6;
+    static final byte TYPE_REMOVE = 7;
+    static final byte TYPE_CLEAR = 8;
+
+    private KvCodec() {
+    }
+
+    static void writeRecord(DataOutputStream out, byte type, String key, Object value) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        final DataOutputStream body = new DataOutputStream(bytes);
+        body.writeByte(type);
+        writeString(body, key);
+        writeValue(body, type, value);
+        body.flush();
+        final CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt(bytes.size());
+        out.writeInt((int) crc.getValue());
+        bytes.writeTo(out);
+    }
+
+    static void writeValue(DataOutputStream out, byte type, Object value) throws IOException {
+        switch (type) {
+            case TYPE_INT:
+                out.writeInt((Integer) value);
+                break;
+            case TYPE_LONG:
+                out.writeLong((Long) value);
+                break;
+            case TYPE_FLOAT:
+                out.writeFloat((Float) value);
+                break;
+            case TYPE_BOOL:
+                out.writeBoolean((Boolean) value);
+                break;
+            case TYPE_STRING:
+                writeString(out, (String) value);
+                break;
+            case TYPE_STR_SET:
+                final Collection<?> set = (Collection<?>) value;
+                out.writeInt(set.size());
+                for (Object s : set) {
+                    writeString(out, (String) s);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @return {@link #TYPE_REMOVE}和{@link #TYPE_CLEAR}返回null.
+     */
+    static Object readValue(ByteBuffer in, byte type) {
+        switch (type) {
+            case TYPE_INT:
+                return in.getInt();
+            case TYPE_LONG:
+                return in.getLong();
+            case TYPE_FLOAT:
+                return in.getFloat();
+            case TYPE_BOOL:
+                return in.get() != 0;
+            case TYPE_STRING:
+                return readString(in);
+            case TYPE_STR_SET:
+                final int size = in.getInt();
+                final Set<String> set = new HashSet<>();
+                for (int i = 0; i < size; i++) {
+                    set.add(readString(in));
+                }
+                return Collections.unmodifiableSet(set);
+            default:
+                return null;
+        }
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        final byte[] bytes = s.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        final int length = in.getInt();
+        final String s = new String(in.array(), in.arrayOffset() + in.position(), length, UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    /**
+     * 校验bytes中[from, to)的记录，把每条记录体的{偏移, 长度}放入records.
+     *
+     * @return 完整且校验通过的记录的末尾，遇到不完整或校验失败的记录即停止。
+     */
+    static int scan(byte[] bytes, int from, int to, List<int[]> records) {
+        final CRC32 crc = new CRC32();
+        int pos = from;
+        while (to - pos >= 8) {
+            final ByteBuffer in = ByteBuffer.wrap(bytes, pos, 8);
+            final int length = in.getInt();
+            final int checksum = in.getInt();
+            if (length <= 0 || length > to - pos - 8) break;
+            crc.reset();
+            crc.update(bytes, pos + 8, length);
+            if ((int) crc.getValue() != checksum) break;
+            records.add(new int[]{pos + 8, length});
+            pos += 8 + length;
+        }
+        return pos;
+    }
+
+    /**
+     * 把{@link #scan(byte[], int, int, List)}得到的记录应用到values, 同时记下变化的key.
+     *
+     * @throws RuntimeException 记录内容与类型不符。
+     */
+    static void applyRecords(byte[] bytes, List<int[]> records, Map<String, Object> values, List<String> changed) {
+        for (int[] r : records) {
+            final ByteBuffer body = ByteBuffer.wrap(bytes, r[0], r[1]).slice();
+            final byte type = body.get();
+            final String key = readString(body);
+            if (type == TYPE_CLEAR) {
+                changed.addAll(values.keySet());
+                values.clear();
+                continue;
+            }
+            if (apply(values, key, readValue(body, type))) changed.add(key);
+        }
+    }
+
+    /**
+     * @return 是否有变化。
+     */
+    static boolean apply(Map<String, Object> values, String key, Object value) {
+        if (value == null) return values.remove(key) != null;
+        return !equals(values.put(key, value), value);
+    }
+
+    static byte typeOf(Object value) {
+        if (value == null) return TYPE_REMOVE;
+        if (value instanceof Integer) return TYPE_INT;
+        if (value instanceof Long) return TYPE_LONG;
+        if (value instanceof Float) return TYPE_FLOAT;
+        if (value instanceof Boolean) return TYPE_BOOL;
+        if (value instanceof String) return TYPE_STRING;
+        if (value instanceof Set) return TYPE_STR_SET;
+        throw new IllegalArgumentException("不支持的类型：" + value.getClass());
+    }
+
+    static boolean equals(Object a, Object b) {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.persist;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Observable;
+import android.os.Handler;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import hobby.wei.c.tools.Background;
+
+/**
+ * 多进程的{@link SharedPreferences}, 数据存放在内存映射文件中（见{@link MmapStore}），
+ * 不经过{@link SharedPreferencesProvider}: 读取都在内存中完成，写入只是追加记录，没有binder调用。
+ * 通过{@link SPrefHelper#mmap()}或{@code Keeper.Builder.multiProcess(true)}使用。
+ * <p>
+ * {@link Editor#apply()}不等待写入磁盘；{@link Editor#commit()}在返回前写入磁盘。两者对其它进程都是立即可见的。
+ * <p>
+ * 本进程的修改立即通知监听器；其它进程的修改在下次读取时，或注册了监听器时由后台每秒检查一次，发现后通知。
+ * 监听器都在主线程中回调。
+ * <p>
+ * 与{@link MultiProcesSharedPreferences}的数据不互通，切换时需自行迁移。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class MmapSharedPreferences implements SharedPreferences, BulkReader {
+    private static final boolean DEBUG = false;
+    private static final String TAG = "MmapSharedPreferences";
+    private static final String DIR = "mmap_prefs";
+    private static final long POLL_INTERVAL_MILLIS = 1000;
+
+    private static final Map<String, WeakReference<MmapSharedPreferences>> sName2SprefMap = new HashMap<>();
+
+    private final MmapStore mStore;
+    private final MyObservable mObservable = new MyObservable();
+    private final Handler mMainHandler;
+    private ScheduledFuture<?> mPoller;
+    private boolean mCompacting;
+
+    public static MmapSharedPreferences getInstance(Context context, String name) {
+        final String nameLC = name.toLowerCase();
+        synchronized (MmapSharedPreferences.class) {
+            final WeakReference<MmapSharedPreferences> ref = sName2SprefMap.get(nameLC);
+            MmapSharedPreferences spref = ref == null ? null : ref.get();
+            if (spref == null) {
+                // 同一进程中同一文件只能有一个MmapStore, 文件锁是按进程持有的。
+                spref = new MmapSharedPreferences(context, nameLC);
+                sName2SprefMap.put(nameLC, new WeakReference<>(spref));
+            }
+            return spref;
+        }
+    }
+
+    private MmapSharedPreferences(Context context, String name) {
+        context = context.getApplicationContext();
+        try {
+            mStore = new MmapStore(new File(new File(context.getFilesDir(), DIR), name));
+        } catch (IOException e) {
+            throw new IllegalStateException("无法打开：" + name, e);
+        }
+        mMainHandler = new Handler(context.getMainLooper());
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        final Integer value = (Integer) get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        final Float value = (Float) get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        final Long value = (Long) get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        final Boolean value = (Boolean) get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        final String value = (String) get(key);
+        return value != null ? value : defValue;
+    }
+
+    /**
+     * @return 不可修改。
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        final Set<String> value = (Set<String>) get(key);
+        return value != null ? value : defValues;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        refresh();
+        return mStore.getAll();
+    }
+
+    @Override
+    public boolean contains(String key) {
+        refresh();
+        return mStore.contains(key);
+    }
+
+    @Override
+    public Map<String, Object> getMany(String... keys) {
+        refresh();
+        return mStore.getMany(keys);
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        mObservable.registerObserver(listener);
+        synchronized (this) {
+            if (mPoller == null) {
+                mPoller = Background.scheduler().scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        refresh();
+                    }
+                }, POLL_INTERVAL_MILLIS, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        mObservable.unregisterObserver(listener);
+        synchronized (this) {
+            if (mObservable.countObservers() <= 0 && mPoller != null) {
+                mPoller.cancel(false);
+                mPoller = null;
+            }
+        }
+    }
+
+    @Override
+    public Editor edit() {
+        return new MyEditor(this);
+    }
+
+    private Object get(String key) {
+        refresh();
+        return mStore.get(key);
+    }
+
+    private void refresh() {
+        notifyChanged(mStore.refreshIfChanged());
+    }
+
+    private void notifyChanged(final List<String> keys) {
+        if (keys.isEmpty() || mObservable.countObservers() <= 0) return;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (String key : keys) {
+                    mObservable.notifyChanged(MmapSharedPreferences.this, key);
+                }
+            }
+        });
+    }
+
+    private boolean write(boolean clear, Map<String, Object> modified, boolean force) {
+        final List<String> changed;
+        try {
+            changed = mStore.write(clear, modified, force);
+        } catch (IOException e) {
+            Log.e(TAG, "[write]" + mStore.file(), e);
+            return false;
+        }
+        notifyChanged(changed);
+        if (mStore.needsCompaction()) compactInBackground();
+        return true;
+    }
+
+    private void compactInBackground() {
+        synchronized (this) {
+            if (mCompacting) return;
+            mCompacting = true;
+        }
+        try {
+            Background.executor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mStore.compact();
+                    } catch (IOException e) {
+                        Log.e(TAG, "[compact]" + mStore.file(), e);
+                    } finally {
+                        synchronized (MmapSharedPreferences.this) {
+                            mCompacting = false;
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 下次写入时再试。
+            synchronized (this) {
+                mCompacting = false;
+            }
+        }
+    }
+
+    public static class MyEditor implements Editor {
+        private final MmapSharedPreferences mSPref;
+        /**
+         * 值为null表示移除。
+         */
+        private final Map<String, Object> mModified = new LinkedHashMap<>();
+        private boolean mClearFlag;
+
+        private MyEditor(MmapSharedPreferences spref) {
+            mSPref = spref;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            return put(key, value);
+        }
+
+        /**
+         * @param value 为null等同于{@link #remove(String)}.
+         */
+        @Override
+        public Editor putString(String key, String value) {
+            return put(key, value);
+        }
+
+        /**
+         * @param values 为null等同于{@link #remove(String)}.
+         */
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            return put(key, values == null ? null : Collections.unmodifiableSet(new HashSet<>(values)));
+        }
+
+        @Override
+        public Editor remove(String key) {
+            return put(key, null);
+        }
+
+        @Override
+        public Editor clear() {
+            mClearFlag = true;
+            return this;
+        }
+
+        /**
+         * 返回前写入磁盘。
+         */
+        @Override
+        public boolean commit() {
+            final boolean success = mSPref.write(mClearFlag, mModified, true);
+            if (DEBUG) Log.d(TAG, "[commit]success:" + success);
+            return success;
+        }
+
+        @Override
+        public void apply() {
+            mSPref.write(mClearFlag, mModified, false);
+        }
+
+        private Editor put(String key, Object value) {
+            checkEmpty(key);
+            mModified.put(key, value);
+            return this;
+        }
+    }
+
+    private static class MyObservable extends Observable<OnSharedPreferenceChangeListener> {
+        public int countObservers() {
+            synchronized (mObservers) {
+                return mObservers.size();
+            }
+        }
+
+        public void notifyChanged(SharedPreferences spref, String key) {
+            synchronized (mObservers) {
+                for (int i = mObservers.size() - 1; i >= 0; i--) {
+                    mObservers.get(i).onSharedPreferenceChanged(spref, key);
+                }
+            }
+        }
+    }
+
+    private static void checkEmpty(String key) {
+        if (key == null || key.length() == 0) throw new IllegalArgumentException("parameter should not be null");
+    }
+}
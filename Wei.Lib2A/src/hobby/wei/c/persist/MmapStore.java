@@ -0,0 +1,530 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.persist;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static hobby.wei.c.persist.KvCodec.TYPE_CLEAR;
+import static hobby.wei.c.persist.KvCodec.apply;
+import static hobby.wei.c.persist.KvCodec.applyRecords;
+import static hobby.wei.c.persist.KvCodec.scan;
+import static hobby.wei.c.persist.KvCodec.typeOf;
+import static hobby.wei.c.persist.KvCodec.writeRecord;
+
+/**
+ * 基于内存映射文件的多进程键值存储，{@link MmapSharedPreferences}的实现。
+ * <p>
+ * 文件由头部和只追加的记录日志组成。每条记录是一次放入、移除或清空，带有类型和CRC32（见{@link KvCodec}）.
+ * 每个进程在内存中保存全部的值，读取不需要IPC, 也不需要锁：头部的序号（seqlock）在写入期间为奇数，
+ * 读取方只需比较序号即可知道是否有其它进程写入过，有则读取新追加的记录；读取前后序号不一致则重试。
+ * 映射内存的普通读写在进程之间没有可见性顺序的保证（如ARM上可能读到新的序号和旧的日志末尾），
+ * 因此头部另有序号、代数和日志末尾三者的校验值，由一次8字节的写入更新，读取方校验不符也重试。
+ * <p>
+ * 写入方之间通过{@link FileChannel#lock()}跨进程互斥（同一进程内另有synchronized, 因为文件锁是按进程持有的），
+ * 写入只是把记录复制到映射的内存中，不需要等待磁盘。记录数远多于有效的key数时，在后台压缩：
+ * 先把全部的值写入旁路文件，再原地重写日志，因此压缩期间进程被杀也能恢复。
+ * <p>
+ * 文件只增长不缩短，以免其它进程访问已映射但被截断的区域。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+final class MmapStore {
+    private static final int MAGIC = 0x574d4b56; // "WMKV"
+    private static final int FORMAT_VERSION = 1;
+    private static final int OFFSET_SEQ = 8;
+    private static final int OFFSET_GENERATION = 16;
+    private static final int OFFSET_END = 24;
+    /**
+     * 非0表示正在以旁路文件原地重写日志。
+     */
+    private static final int OFFSET_COMPACTING = 32;
+    /**
+     * 序号、代数和日志末尾的校验值，见{@link #check(long, long, long)}.
+     */
+    private static final int OFFSET_CHECK = 40;
+    static final int HEADER_SIZE = 64;
+    private static final int INITIAL_SIZE = 16 * 1024;
+    /**
+     * 记录数超过有效key数的这个倍数（且不少于{@link #COMPACT_MIN_RECORDS}）时需要压缩。
+     */
+    private static final int COMPACT_RATIO = 4;
+    private static final int COMPACT_MIN_RECORDS = 256;
+    private static final int SPIN_LIMIT = 1000;
+    private static final String COMPACT_SUFFIX = ".compact";
+
+    private final File mFile;
+    private final File mCompactFile;
+    private final RandomAccessFile mRaf;
+    private final FileChannel mChannel;
+    private final Map<String, Object> mValues = new ConcurrentHashMap<>();
+    private volatile MappedByteBuffer mBuffer;
+    /**
+     * 已读取到的序号、代数和日志末尾，在本对象的锁内修改。
+     */
+    private volatile long mSeq;
+    private long mGeneration;
+    private int mEnd;
+    /**
+     * 当前代数中已读取的记录数。
+     */
+    private int mRecords;
+
+    MmapStore(File file) throws IOException {
+        mFile = file;
+        mCompactFile = new File(file.getPath() + COMPACT_SUFFIX);
+        final File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) throw new IOException("无法创建目录：" + parent);
+        mRaf = new RandomAccessFile(file, "rw");
+        mChannel = mRaf.getChannel();
+        synchronized (this) {
+            final FileLock lock = mChannel.lock();
+            try {
+                if (mChannel.size() < HEADER_SIZE) {
+                    initialize();
+                } else {
+                    mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, mChannel.size());
+                    if (mBuffer.getInt(0) != MAGIC || mBuffer.getInt(4) != FORMAT_VERSION) initialize();
+                    else repair();
+                }
+            } finally {
+                lock.release();
+            }
+            refresh();
+        }
+    }
+
+    File file() {
+        return mFile;
+    }
+
+    /**
+     * 读取之前调用，其它进程写入过则先读取新的记录。
+     *
+     * @return 因其它进程的写入而变化的key, 没有则为空列表。
+     */
+    List<String> refreshIfChanged() {
+        final MappedByteBuffer buffer = mBuffer;
+        if (buffer.getLong(OFFSET_SEQ) == mSeq) return Collections.emptyList();
+        synchronized (this) {
+            return refresh();
+        }
+    }
+
+    Object get(String key) {
+        return mValues.get(key);
+    }
+
+    boolean contains(String key) {
+        return mValues.containsKey(key);
+    }
+
+    /**
+     * @return 同一时刻的值，不存在的key不在其中。
+     */
+    synchronized Map<String, Object> getMany(String... keys) {
+        final Map<String, Object> result = new HashMap<>();
+        for (String key : keys) {
+            final Object value = mValues.get(key);
+            if (value != null) result.put(key, value);
+        }
+        return result;
+    }
+
+    /**
+     * @return 副本。
+     */
+    Map<String, Object> getAll() {
+        return new HashMap<>(mValues);
+    }
+
+    /**
+     * 追加一次提交的全部修改。值为null表示移除。
+     *
+     * @param force 是否等待写入磁盘。
+     * @return 变化的key, 包括期间读取到的其它进程的修改。
+     */
+    synchronized List<String> write(boolean clear, Map<String, Object> modified, boolean force) throws IOException {
+        final FileLock lock = lockFile();
+        try {
+            final Set<String> changed = new LinkedHashSet<>(refresh());
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            int records = 0;
+            if (clear) {
+                writeRecord(out, TYPE_CLEAR, "", null);
+                records++;
+            }
+            for (Map.Entry<String, Object> e : modified.entrySet()) {
+                writeRecord(out, typeOf(e.getValue()), e.getKey(), e.getValue());
+                records++;
+            }
+            out.flush();
+            if (records > 0) {
+                if ((long) mEnd + bytes.size() > mBuffer.capacity()) {
+                    // 放不下，直接以新的值重写。修改先应用在副本上，重写失败时mValues保持不变。
+                    final Map<String, Object> values = clear ? new HashMap<String, Object>() : new HashMap<String, Object>(mValues);
+                    for (Map.Entry<String, Object> e : modified.entrySet()) {
+                        apply(values, e.getKey(), e.getValue());
+                    }
+                    compactLocked(values);
+                } else {
+                    append(bytes.toByteArray());
+                    mRecords += records;
+                }
+            }
+            // 已写入文件，才发布到mValues.
+            if (clear) {
+                changed.addAll(mValues.keySet());
+                mValues.clear();
+            }
+            for (Map.Entry<String, Object> e : modified.entrySet()) {
+                if (apply(mValues, e.getKey(), e.getValue())) changed.add(e.getKey());
+            }
+            if (records > 0 && force) mBuffer.force();
+            return new ArrayList<>(changed);
+        } finally {
+            lock.release();
+        }
+    }
+
+    boolean needsCompaction() {
+        return mRecords > COMPACT_MIN_RECORDS && mRecords > mValues.size() * COMPACT_RATIO;
+    }
+
+    /**
+     * 以当前的值重写日志，通常在后台线程调用。
+     */
+    synchronized void compact() throws IOException {
+        final FileLock lock = lockFile();
+        try {
+            refresh();
+            if (needsCompaction()) compactLocked(mValues);
+        } finally {
+            lock.release();
+        }
+    }
+
+    void close() throws IOException {
+        mRaf.close();
+    }
+
+    /**
+     * 获取文件锁，之后映射覆盖整个文件，且{@link #refresh()}不会遇到奇数的序号，见{@link #repair()}.
+     */
+    private FileLock lockFile() throws IOException {
+        final FileLock lock = mChannel.lock();
+        try {
+            repair();
+        } catch (IOException | RuntimeException e) {
+            lock.release();
+            throw e;
+        }
+        return lock;
+    }
+
+    /**
+     * 持有文件锁时调用：其它进程扩大了文件则重新映射，以免按旧的大小写入或截短文件；
+     * 上一个写入方未完成就被杀死了则恢复；校验值与头部不符（如被杀死在更新校验值之前）则更新。
+     */
+    private void repair() throws IOException {
+        if (mChannel.size() > mBuffer.capacity()) remap();
+        final MappedByteBuffer buffer = mBuffer;
+        final long seq = buffer.getLong(OFFSET_SEQ);
+        if ((seq & 1) != 0) recover();
+        else if (buffer.getLong(OFFSET_CHECK) != check(seq, buffer.getLong(OFFSET_GENERATION),
+                buffer.getLong(OFFSET_END))) publish(buffer, seq);
+    }
+
+    /**
+     * 在本对象的锁内调用，不必持有文件锁（seqlock）。
+     */
+    private List<String> refresh() {
+        int spins = 0;
+        while (true) {
+            final MappedByteBuffer buffer = mBuffer;
+            final long seq = buffer.getLong(OFFSET_SEQ);
+            if (seq == mSeq) return Collections.emptyList();
+            if ((seq & 1) != 0) {
+                spins = backoff(spins);
+                continue;
+            }
+            final long generation = buffer.getLong(OFFSET_GENERATION);
+            final long end = buffer.getLong(OFFSET_END);
+            if (end < HEADER_SIZE || end > Integer.MAX_VALUE) {
+                if (buffer.getLong(OFFSET_SEQ) == seq) throw new IllegalStateException("文件已损坏：" + mFile);
+                continue;
+            }
+            if (end > buffer.capacity()) {
+                if (fileSize() > buffer.capacity()) {
+                    // 其它进程扩大了文件。
+                    remap();
+                } else if (buffer.getLong(OFFSET_SEQ) == seq) {
+                    throw new IllegalStateException("文件已损坏：" + mFile);
+                }
+                continue;
+            }
+            final int from = generation == mGeneration && mEnd <= end ? mEnd : HEADER_SIZE;
+            final byte[] bytes = new byte[(int) end - from];
+            final ByteBuffer dup = buffer.duplicate();
+            dup.position(from);
+            dup.get(bytes);
+            if (buffer.getLong(OFFSET_SEQ) != seq) continue;
+            if (buffer.getLong(OFFSET_CHECK) != check(seq, generation, end)) {
+                // 代数或日志末尾是旧的（或校验值尚未可见），重试。
+                spins = backoff(spins);
+                continue;
+            }
+            final Map<String, Object> values = from == HEADER_SIZE ? new HashMap<String, Object>() : null;
+            final List<String> changed = new ArrayList<>();
+            final int records = parse(bytes, values != null ? values : mValues, changed);
+            if (records < 0) {
+                // 序号一致但记录不完整：写入方的内存写入尚未全部可见，重试；一直如此则说明文件已损坏。
+                if (++spins > SPIN_LIMIT) throw new IllegalStateException("文件已损坏：" + mFile);
+                continue;
+            }
+            if (values != null) {
+                changed.clear();
+                for (Map.Entry<String, Object> e : mValues.entrySet()) {
+                    if (!KvCodec.equals(e.getValue(), values.get(e.getKey()))) changed.add(e.getKey());
+                }
+                for (String key : values.keySet()) {
+                    if (!mValues.containsKey(key)) changed.add(key);
+                }
+                mValues.keySet().retainAll(values.keySet());
+                mValues.putAll(values);
+                mRecords = records;
+            } else {
+                mRecords += records;
+            }
+            mGeneration = generation;
+            mEnd = (int) end;
+            mSeq = seq;
+            return changed;
+        }
+    }
+
+    /**
+     * 等待写入方完成：先让出线程，次数过多则{@link #waitForWriter()}.
+     *
+     * @return 新的次数。
+     */
+    private int backoff(int spins) {
+        if (++spins > SPIN_LIMIT) {
+            waitForWriter();
+            return 0;
+        }
+        Thread.yield();
+        return spins;
+    }
+
+    /**
+     * 写入方长时间未完成，可能已被杀死：获取文件锁（等待活着的写入方完成），仍未完成则恢复。
+     */
+    private void waitForWriter() {
+        try {
+            lockFile().release();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 持有文件锁时调用。序号为奇数说明写入方未完成就被杀死了：追加的记录在日志末尾更新之前都不生效，
+     * 只需结束写入；压缩到一半的，以旁路文件重写。
+     */
+    private void recover() throws IOException {
+        final byte[] snapshot = mBuffer.getInt(OFFSET_COMPACTING) != 0 ? readCompactFile() : null;
+        if (snapshot != null) {
+            final Map<String, Object> values = new HashMap<>();
+            if (parse(snapshot, values, new ArrayList<String>()) >= 0) {
+                rewrite(snapshot);
+                mCompactFile.delete();
+                // 使下次refresh()重新读取全部。
+                mSeq = -1;
+                return;
+            }
+        }
+        publish(mBuffer, mBuffer.getLong(OFFSET_SEQ) + 1);
+    }
+
+    private void initialize() throws IOException {
+        mRaf.setLength(Math.max(INITIAL_SIZE, mChannel.size()));
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, mChannel.size());
+        mBuffer.putInt(0, MAGIC);
+        mBuffer.putInt(4, FORMAT_VERSION);
+        mBuffer.putLong(OFFSET_GENERATION, mBuffer.getLong(OFFSET_GENERATION) + 1);
+        mBuffer.putLong(OFFSET_END, HEADER_SIZE);
+        // 保持为偶数，并且与任何进程已读到的都不同。
+        publish(mBuffer, (mBuffer.getLong(OFFSET_SEQ) | 1) + 1);
+    }
+
+    private void append(byte[] bytes) {
+        final MappedByteBuffer buffer = mBuffer;
+        final long seq = buffer.getLong(OFFSET_SEQ);
+        buffer.putLong(OFFSET_SEQ, seq + 1);
+        final ByteBuffer dup = buffer.duplicate();
+        dup.position(mEnd);
+        dup.put(bytes);
+        mEnd += bytes.length;
+        buffer.putLong(OFFSET_END, mEnd);
+        publish(buffer, seq + 2);
+        mSeq = seq + 2;
+    }
+
+    /**
+     * 写入偶数的序号，结束写入，然后更新校验值。
+     */
+    private static void publish(MappedByteBuffer buffer, long seq) {
+        buffer.putLong(OFFSET_SEQ, seq);
+        buffer.putLong(OFFSET_CHECK, check(seq, buffer.getLong(OFFSET_GENERATION), buffer.getLong(OFFSET_END)));
+    }
+
+    private static long check(long seq, long generation, long end) {
+        long h = seq * 0x9E3779B97F4A7C15L;
+        h = (h ^ generation) * 0xC2B2AE3D27D4EB4FL;
+        h = (h ^ end) * 0x165667B19E3779F9L;
+        return h ^ (h >>> 32);
+    }
+
+    /**
+     * 持有文件锁时调用，以values重写日志，values须已包含其它进程的修改。
+     */
+    private void compactLocked(Map<String, Object> values) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        for (Map.Entry<String, Object> e : values.entrySet()) {
+            writeRecord(out, typeOf(e.getValue()), e.getKey(), e.getValue());
+        }
+        out.flush();
+        final byte[] snapshot = bytes.toByteArray();
+        final FileOutputStream side = new FileOutputStream(mCompactFile);
+        try {
+            side.write(snapshot);
+            side.getFD().sync();
+        } finally {
+            side.close();
+        }
+        rewrite(snapshot);
+        mRecords = values.size();
+        mCompactFile.delete();
+    }
+
+    /**
+     * 持有文件锁时调用：以snapshot替换整个日志，代数加1, 必要时扩大文件。
+     */
+    private void rewrite(byte[] snapshot) throws IOException {
+        // 留出同样大小的空间给之后的追加。
+        final long needed = HEADER_SIZE + (long) snapshot.length * 2;
+        if (needed > Integer.MAX_VALUE) throw new IOException("数据过大：" + mFile);
+        // 以文件的实际大小为准，绝不截短（其它进程可能已映射了更大的区域）。
+        final long current = mChannel.size();
+        if (needed > current) {
+            long size = Math.max(current, INITIAL_SIZE);
+            while (size < needed) size <<= 1;
+            mRaf.setLength(Math.min(size, Integer.MAX_VALUE));
+        }
+        if (mChannel.size() > mBuffer.capacity()) remap();
+        final MappedByteBuffer buffer = mBuffer;
+        long seq = buffer.getLong(OFFSET_SEQ);
+        if ((seq & 1) == 0) buffer.putLong(OFFSET_SEQ, ++seq);
+        buffer.putInt(OFFSET_COMPACTING, 1);
+        final ByteBuffer dup = buffer.duplicate();
+        dup.position(HEADER_SIZE);
+        dup.put(snapshot);
+        mGeneration = buffer.getLong(OFFSET_GENERATION) + 1;
+        mEnd = HEADER_SIZE + snapshot.length;
+        buffer.putLong(OFFSET_GENERATION, mGeneration);
+        buffer.putLong(OFFSET_END, mEnd);
+        buffer.putInt(OFFSET_COMPACTING, 0);
+        publish(buffer, seq + 1);
+        mSeq = seq + 1;
+    }
+
+    private long fileSize() {
+        try {
+            return mChannel.size();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void remap() {
+        try {
+            mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, mChannel.size());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private byte[] readCompactFile() {
+        final long length = mCompactFile.length();
+        if (!mCompactFile.isFile() || length > Integer.MAX_VALUE) return null;
+        try {
+            final byte[] bytes = new byte[(int) length];
+            final FileInputStream in = new FileInputStream(mCompactFile);
+            try {
+                int n = 0;
+                while (n < bytes.length) {
+                    final int r = in.read(bytes, n, bytes.length - n);
+                    if (r < 0) return null;
+                    n += r;
+                }
+            } finally {
+                in.close();
+            }
+            return bytes;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 解析并应用到values, 同时记下变化的key.
+     *
+     * @return 记录数，不完整或校验失败时返回-1.
+     */
+    private static int parse(byte[] bytes, Map<String, Object> values, List<String> changed) {
+        // 先校验全部，再应用，以免重试时重复应用。
+        final List<int[]> records = new ArrayList<>();
+        if (scan(bytes, 0, bytes.length, records) != bytes.length) return -1;
+        try {
+            applyRecords(bytes, records, values, changed);
+        } catch (RuntimeException e) {
+            return -1;
+        }
+        return records.size();
+    }
+}
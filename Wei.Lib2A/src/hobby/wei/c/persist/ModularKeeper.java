@@ -16,9 +16,11 @@
 
 package hobby.wei.c.persist;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.Future;
 
 import hobby.wei.c.framework.AbsApp;
 import hobby.wei.c.tools.ICache;
@@ -31,8 +33,14 @@ public class ModularKeeper extends Keeper.Wrapper {
     private static final String KEEPER_META = "modular-meta";
     private static final String KEY_META = "meta";
 
-    private static final ICache<Tuple, ModularKeeper> sCache = new ICache.Impl.SyncGet<>(5,
-            new ICache.Delegate<Tuple, ModularKeeper>() {
+    private static final ICache<Tuple, ModularKeeper> sCache = new ICache.Builder<Tuple, ModularKeeper>(5)
+            .tagger(new ICache.Tagger<Tuple>() {
+                @Override
+                public Collection<?> tagsOf(Tuple key) {
+                    return Collections.singleton(key.userId);
+                }
+            })
+            .buildSyncGet(new ICache.Delegate<Tuple, ModularKeeper>() {
                 @Override
                 public ModularKeeper load(Tuple key) {
                     final String module = key.clear ? key.module + "_c" : key.module;
@@ -107,6 +115,14 @@ public class ModularKeeper extends Keeper.Wrapper {
         return (K) sCache.get(new Tuple<>(userId, module, clear, creator));
     }
 
+    /**
+     * 在后台预加载该用户的module及其元数据，见{@link KeeperPreloader}.
+     */
+    public static Future<Keeper> preload(String userId, String module) {
+        KeeperPreloader.preload(getMetaBuilder(userId));
+        return KeeperPreloader.preload(getModule(userId, module));
+    }
+
     private static Keeper.Builder getModule(String userId, String module) {
         return get(AbsApp.get().getApplicationContext(), KEEPER_XML + "-" + module)
                 .withUser(userId)
@@ -127,10 +143,20 @@ public class ModularKeeper extends Keeper.Wrapper {
     }
 
     private static Keeper getMeta(String userId) {
+        return getMetaBuilder(userId).ok();
+    }
+
+    private static Keeper.Builder getMetaBuilder(String userId) {
         return get(AbsApp.get().getApplicationContext(), KEEPER_META)
                 .withUser(userId)
-                .multiProcess()
-                .ok();
+                .multiProcess();
+    }
+
+    /**
+     * 释放该用户的所有已缓存的实例（不影响已存储的数据），如在退出登录之后。
+     */
+    public static void evict(String userId) {
+        sCache.invalidateTag(userId);
     }
 
     public static void clear(String userId) {
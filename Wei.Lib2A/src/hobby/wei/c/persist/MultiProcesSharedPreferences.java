@@ -17,38 +17,49 @@
 package hobby.wei.c.persist;
 
 import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.database.ContentObserver;
-import android.database.Cursor;
 import android.database.Observable;
 import android.net.Uri;
+import android.os.Bundle;
 import android.os.Handler;
 import android.util.Log;
 
 import java.lang.ref.WeakReference;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import hobby.wei.c.tools.LruCache;
-
 /**
+ * 在本进程中保存文件的完整副本，第一次读取时通过一次IPC取回全部的值，之后的读取都不再需要IPC.
+ * <p>
+ * 副本带有{@link SharedPreferencesProvider}端的文件版本号（见{@link ChangeLog}）。任何进程提交之后，
+ * 变更通知都带有新的版本号，副本据此取回自己的版本之后变更过的key（增量同步），中间漏掉的通知也一并补上。
+ *
  * @author Wei.Chou(weichou2010@gmail.com) 2015/9/2
  */
-public class MultiProcesSharedPreferences implements SharedPreferences {
+public class MultiProcesSharedPreferences implements SharedPreferences, BulkReader {
     private static final boolean DEBUG = false;
     private static final String TAG = DEBUG ? "SYN-0000001" : "";
 
     private static final Map<String, WeakReference<MultiProcesSharedPreferences>> sName2MpspMap = new HashMap<>();
     private final MyObservable mObservable = new MyObservable();
     private final ContentObserver mContentObserver;
+    private final Handler mMainHandler;
     private final Context mContext;
     private final String mName;
-    private final Cache mCache;
+    /**
+     * 副本的修改都在本锁内进行，读取不需要锁。
+     */
+    private final Object mSyncLock = new Object();
+    /**
+     * 第一次读取之前为null.
+     */
+    private volatile Replica mReplica;
 
     public static MultiProcesSharedPreferences getInstance(Context context, String name) {
         final String nameLC = name.toLowerCase();
@@ -71,205 +82,87 @@ public class MultiProcesSharedPreferences implements SharedPreferences {
     private MultiProcesSharedPreferences(Context context, String name) {
         mContext = context.getApplicationContext();
         mName = name;
-        mContentObserver = new MyContentObserver(this, new Handler(mContext.getMainLooper()));
-        mCache = new Cache();
+        mMainHandler = new Handler(mContext.getMainLooper());
+        // 不指定Handler, 在binder线程中同步副本，不占用主线程。
+        mContentObserver = new MyContentObserver(this, mContext.getContentResolver());
     }
 
     @Override
     public int getInt(String key, int defValue) {
-        final Integer value = mCache.getInt(key);
-        if (value != null) return value;
-        final Cursor cursor = mContext.getContentResolver().query(SharedPreferencesProvider.getUri4GetInt(mName),
-                new String[]{key}, null, new String[]{Integer.toString(defValue)}, null);
-        if (cursor != null) {
-            try {
-                if (cursor.moveToNext()) {
-                    return cursor.getInt(0);
-                }
-            } finally {
-                cursor.close();
-            }
-        }
-        return defValue;
+        final Integer value = (Integer) values().get(key);
+        return value != null ? value : defValue;
     }
 
     @Override
     public float getFloat(String key, float defValue) {
-        final Float value = mCache.getFloat(key);
-        if (value != null) return value;
-        final Cursor cursor = mContext.getContentResolver().query(SharedPreferencesProvider.getUri4GetFloat(mName),
-                new String[]{key}, null, new String[]{Float.toString(defValue)}, null);
-        if (cursor != null) {
-            try {
-                if (cursor.moveToNext()) {
-                    return cursor.getFloat(0);
-                }
-            } finally {
-                cursor.close();
-            }
-        }
-        return defValue;
+        final Float value = (Float) values().get(key);
+        return value != null ? value : defValue;
     }
 
     @Override
     public long getLong(String key, long defValue) {
-        final Long value = mCache.getLong(key);
-        if (value != null) return value;
-        final Cursor cursor = mContext.getContentResolver().query(SharedPreferencesProvider.getUri4GetLong(mName),
-                new String[]{key}, null, new String[]{Long.toString(defValue)}, null);
-        if (cursor != null) {
-            try {
-                if (cursor.moveToNext()) {
-                    return cursor.getLong(0);
-                }
-            } finally {
-                cursor.close();
-            }
-        }
-        return defValue;
+        final Long value = (Long) values().get(key);
+        return value != null ? value : defValue;
     }
 
     @Override
     public boolean getBoolean(String key, boolean defValue) {
-        final Boolean value = mCache.getBoolean(key);
-        if (value != null) return value;
-        final Cursor cursor = mContext.getContentResolver().query(SharedPreferencesProvider.getUri4GetBoolean(mName),
-                new String[]{key}, null, new String[]{Boolean.toString(defValue)}, null);
-        if (cursor != null) {
-            try {
-                if (cursor.moveToNext()) {
-                    return parseBoolean(cursor.getBlob(0));
-                }
-            } finally {
-                cursor.close();
-            }
-        }
-        return defValue;
+        final Boolean value = (Boolean) values().get(key);
+        return value != null ? value : defValue;
     }
 
     @Override
     public String getString(String key, String defValue) {
-        final String value = mCache.getString(key);
-        if (value != null) return value;
-        final Cursor cursor = mContext.getContentResolver().query(SharedPreferencesProvider.getUri4GetString(mName),
-                new String[]{key}, null, new String[]{defValue}, null);
-        if (cursor != null) {
-            try {
-                if (cursor.moveToNext()) {
-                    return cursor.getString(0);
-                }
-            } finally {
-                cursor.close();
-            }
-        }
-        return defValue;
+        final String value = (String) values().get(key);
+        return value != null ? value : defValue;
     }
 
+    /**
+     * @return 不可修改。
+     */
+    @SuppressWarnings("unchecked")
     @Override
     public Set<String> getStringSet(String key, Set<String> defValues) {
-        final Set<String> value = mCache.getStringSet(key);
-        if (value != null) return value;
-        final Cursor cursor = mContext.getContentResolver().query(SharedPreferencesProvider.getUri4GetStringSet(mName),
-                new String[]{key}, null, null, null);
-        if (cursor != null) {
-            try {
-                final Set<String> set = new HashSet<String>();
-                while (cursor.moveToNext()) {
-                    if (DEBUG) Log.i(TAG, "[getStringSet]string:" + cursor.getString(0));
-                    set.add(cursor.getString(0));
-                }
-                return set;
-            } finally {
-                cursor.close();
-            }
-        }
-        return defValues;
+        final Set<String> value = (Set<String>) values().get(key);
+        return value != null ? value : defValues;
     }
 
     @Override
     public Map<String, ?> getAll() {
-        final Map<String, Object> map = new HashMap<String, Object>();
-        final Cursor cursor = mContext.getContentResolver().query(SharedPreferencesProvider.getUri4GetAll(mName), null, null, null, null);
-        if (cursor != null) {
-            try {
-                while (cursor.moveToNext()) {
-                    final String key = cursor.getString(0);
-                    switch (cursor.getType(1)) {
-                        case Cursor.FIELD_TYPE_NULL:
-                            if (DEBUG) Log.i(TAG, "[getAll]FIELD_TYPE_NULL:" + null);
-                            map.put(key, null);
-                            break;
-                        case Cursor.FIELD_TYPE_INTEGER:
-                            if (DEBUG) Log.i(TAG, "[getAll]FIELD_TYPE_INTEGER:" + cursor.getInt(1));
-                            map.put(key, cursor.getInt(1));
-                            break;
-                        case Cursor.FIELD_TYPE_FLOAT:
-                            if (DEBUG) Log.i(TAG, "[getAll]FIELD_TYPE_FLOAT:" + cursor.getFloat(1));
-                            map.put(key, cursor.getFloat(1));
-                            break;
-                        case Cursor.FIELD_TYPE_STRING:
-                            if (DEBUG) Log.i(TAG, "[getAll]FIELD_TYPE_STRING:" + cursor.getString(1));
-                            map.put(key, cursor.getString(1));
-                            break;
-                        case Cursor.FIELD_TYPE_BLOB:
-                            if (DEBUG) Log.i(TAG, "[getAll]FIELD_TYPE_BLOB:" + cursor.getBlob(1));
-                            final byte[] blob = cursor.getBlob(1);
-                            if (blob.length == 1) {    //用来表示boolean
-                                map.put(key, parseBoolean(blob));
-                                if (DEBUG) Log.i(TAG, "[getAll]FIELD_TYPE_BLOB, boolean:" + map.get(key));
-                            } else {    //用来表示StringSet类型
-                                if (Arrays.equals(blob, SharedPreferencesProvider.FLAG_STRING_SET)) {
-                                    map.put(key, getStringSet(key, new HashSet<String>())); //defValue一个没元素的对象至少可以表示类型
-                                    if (DEBUG) Log.i(TAG, "[getAll]FIELD_TYPE_BLOB, stringSet:" + map.get(key));
-                                }
-                            }
-                            break;
-                        default:
-                            break;
-                    }
-                }
-            } finally {
-                cursor.close();
-            }
-        }
-        return map;
+        return new HashMap<>(values());
     }
 
     @Override
     public boolean contains(String key) {
-        if (mCache.contains(key)) return true;
-        final Cursor cursor = mContext.getContentResolver().query(SharedPreferencesProvider.getUri4GetContains(mName),
-                new String[]{key}, null, null, null);
-        if (cursor != null) {
-            try {
-                if (cursor.moveToNext()) {
-                    return parseBoolean(cursor.getBlob(0));
-                }
-            } finally {
-                cursor.close();
-            }
-        }
-        return false;
+        return values().containsKey(key);
+    }
+
+    /**
+     * 从同一个副本中读取多个key, 副本未加载时只需一次{@link SharedPreferencesProvider}调用。
+     *
+     * @return 不存在的key不在其中。
+     */
+    @Override
+    public Map<String, Object> getMany(String... keys) {
+        final Map<String, Object> values = values();
+        final Map<String, Object> result = new HashMap<>();
+        for (String key : keys) {
+            final Object value = values.get(key);
+            if (value != null) result.put(key, value);
+        }
+        return result;
     }
 
     @Override
     public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        // 确保已经开始监听变更。
+        values();
         mObservable.registerObserver(listener);
-        if (mObservable.countObservers() == 1) {
-            mContext.getContentResolver().registerContentObserver(
-                    SharedPreferencesProvider.getUri4NotifyObserver(mName), true, mContentObserver);
-            if (DEBUG) Log.i(TAG, "[regstOnShrdPrfrceChgeLiser]Uri4NotifyObserver:" +
-                    SharedPreferencesProvider.getUri4NotifyObserver(mName));
-        }
     }
 
     @Override
     public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
         mObservable.unregisterObserver(listener);
-        if (mObservable.countObservers() <= 0) {
-            mContext.getContentResolver().unregisterContentObserver(mContentObserver);
-            if (DEBUG) Log.i(TAG, "[unregisterContentObserver]");
-        }
     }
 
     @Override
@@ -277,6 +170,76 @@ public class MultiProcesSharedPreferences implements SharedPreferences {
         return new MyEditor(this);
     }
 
+    /**
+     * @return 副本中的值，第一次调用时加载。不可修改。
+     */
+    private Map<String, Object> values() {
+        Replica replica = mReplica;
+        if (replica == null) {
+            synchronized (mSyncLock) {
+                if (mReplica == null) {
+                    // 先监听再加载，之间的变更不会漏掉。
+                    mContext.getContentResolver().registerContentObserver(
+                            SharedPreferencesProvider.getUri4NotifyObserver(mName), true, mContentObserver);
+                    sync();
+                }
+                replica = mReplica;
+            }
+        }
+        return replica == null ? Collections.<String, Object>emptyMap() : replica.mValues;
+    }
+
+    /**
+     * 取回副本的版本之后变更过的值，未加载过或无法增量同步时取回全部。在{@link #mSyncLock}内调用。
+     */
+    private void sync() {
+        final Replica replica = mReplica;
+        final Bundle request = new Bundle();
+        request.putLong(SharedPreferencesProvider.EPOCH, replica == null ? 0 : replica.mEpoch);
+        request.putLong(SharedPreferencesProvider.VERSION, replica == null ? -1 : replica.mVersion);
+        final Bundle result = mContext.getContentResolver().call(SharedPreferencesProvider.getUri4Batch(mName),
+                SharedPreferencesProvider.SYNC, mName, request);
+        if (result == null) return;
+        final boolean full = replica == null || result.getBoolean(SharedPreferencesProvider.FULL);
+        final Map<String, Object> values = full ? new HashMap<String, Object>() : new HashMap<>(replica.mValues);
+        final Bundle changed = result.getBundle(SharedPreferencesProvider.VALUE);
+        for (String key : changed.keySet()) {
+            values.put(key, SharedPreferencesProvider.getValue(changed, key));
+        }
+        for (String key : result.getStringArrayList(SharedPreferencesProvider.REMOVED)) {
+            values.remove(key);
+        }
+        mReplica = new Replica(result.getLong(SharedPreferencesProvider.EPOCH),
+                result.getLong(SharedPreferencesProvider.VERSION), values);
+        if (DEBUG) Log.d(TAG, "[sync]full:" + full + ", version:" + mReplica.mVersion + ", changed:" + changed.size());
+    }
+
+    private void onChange(Uri uri) {
+        final long[] epoch$version = SharedPreferencesProvider.parseNotifyVersion(uri);
+        synchronized (mSyncLock) {
+            final Replica replica = mReplica;
+            // 本进程自己提交的，在提交时已经更新过副本，版本号不会更大。
+            if (replica != null && (epoch$version == null || epoch$version[0] != replica.mEpoch
+                    || epoch$version[1] > replica.mVersion)) {
+                sync();
+            }
+        }
+        if (mObservable.countObservers() <= 0) return;
+        final String key = SharedPreferencesProvider.parseNotifyNameAndKey(uri)[1];
+        //SharedPreferencesProvider.NOTIFY_CLEAR类型没有key, NOTIFY_BATCH类型的key在参数中
+        final List<String> keys = key != null ? Collections.singletonList(key)
+                : SharedPreferencesProvider.parseNotifyBatchKeys(uri);
+        if (keys.isEmpty()) return;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (String k : keys) {
+                    mObservable.notifyChanged(MultiProcesSharedPreferences.this, k);
+                }
+            }
+        });
+    }
+
     public static class MyEditor implements Editor {
         private final MultiProcesSharedPreferences mSPref;
         private Map<String, Integer> mS2IMap;
@@ -375,284 +338,108 @@ public class MultiProcesSharedPreferences implements SharedPreferences {
 
         @Override
         public boolean commit() {
-            final boolean bclear = sendClearOrRemove(true);
-            final boolean bint = sendInts(true);
-            final boolean bfloat = sendFloats(true);
-            final boolean blong = sendLongs(true);
-            final boolean bbool = sendBooleans(true);
-            final boolean bstring = sendStrings(true);
-            final boolean bstrset = sendStringSets(true);
-            if (DEBUG) Log.d(TAG, "[commit]success:" + (bclear && bint && bfloat && blong && bbool && bstring && bstrset));
-            return bclear && bint && bfloat && blong && bbool && bstring && bstrset;
+            final boolean success = send(true);
+            if (DEBUG) Log.d(TAG, "[commit]success:" + success);
+            return success;
         }
 
         @Override
         public void apply() {
-            sendClearOrRemove(false);
-            sendInts(false);
-            sendFloats(false);
-            sendLongs(false);
-            sendBooleans(false);
-            sendStrings(false);
-            sendStringSets(false);
+            send(false);
         }
 
-        private boolean sendClearOrRemove(boolean commit) {
-            boolean success = true;
-            final ContentResolver contentResolver = mSPref.mContext.getContentResolver();
-            final ContentValues contentValues = new ContentValues();
-            if (mClearFlag) {
-                mSPref.mCache.clear();
-                final Uri uri = SharedPreferencesProvider.getUri4Clear(mSPref.mName);
-                success &= 0 < contentResolver.update(uri, contentValues, commit ? SharedPreferencesProvider.COMMIT :
-                        SharedPreferencesProvider.APPLY, null);
-                if (DEBUG) Log.d(TAG, "[sendClearOrRemove]CLEAR, success:" + success);
-            } else if (mRmvSet != null) {
-                final Uri uri = SharedPreferencesProvider.getUri4Remove(mSPref.mName);
-                for (String key : mRmvSet) {
-                    mSPref.mCache.remove(key);
-                    contentValues.clear();
-                    contentValues.put(key, (String) null);
-                    success &= 0 < contentResolver.update(uri, contentValues, commit ? SharedPreferencesProvider.COMMIT :
-                            SharedPreferencesProvider.APPLY, null);
-                    if (DEBUG) Log.d(TAG, "[sendClearOrRemove]REMOVE, success:" + success);
-                }
-            }
-            return success;
-        }
-
-        private boolean sendInts(boolean commit) {
-            //没有待发送的也应该返回成功
-            boolean success = true;
+        /**
+         * 整个事务（清空、移除和各类型的放入）通过一次IPC提交，在{@link SharedPreferencesProvider}端
+         * 只做一次{@link Editor#commit()}(或apply), 并且只发出一次变更通知。
+         */
+        private boolean send(boolean commit) {
+            Bundle ints = null, floats = null, longs = null, booleans = null, strings = null;
             if (mS2IMap != null) {
-                final ContentResolver contentResolver = mSPref.mContext.getContentResolver();
-                final Uri uri = SharedPreferencesProvider.getUri4PutInt(mSPref.mName);
-                final ContentValues contentValues = new ContentValues();
+                ints = new Bundle();
                 for (Map.Entry<String, Integer> entry : mS2IMap.entrySet()) {
-                    mSPref.mCache.putInt(entry.getKey(), entry.getValue());
-                    contentValues.clear();
-                    contentValues.put(entry.getKey(), entry.getValue());
-                    //不要if(), 否则后面的update不执行
-                    success &= 0 < contentResolver.update(uri, contentValues, commit ? SharedPreferencesProvider.COMMIT :
-                            SharedPreferencesProvider.APPLY, null);
-                    if (DEBUG) Log.d(TAG, "[sendInts]success:" + success);
+                    ints.putInt(entry.getKey(), entry.getValue());
                 }
             }
-            return success;
-        }
-
-        private boolean sendFloats(boolean commit) {
-            boolean success = true;
             if (mS2FMap != null) {
-                final ContentResolver contentResolver = mSPref.mContext.getContentResolver();
-                final Uri uri = SharedPreferencesProvider.getUri4PutFloat(mSPref.mName);
-                final ContentValues contentValues = new ContentValues();
+                floats = new Bundle();
                 for (Map.Entry<String, Float> entry : mS2FMap.entrySet()) {
-                    mSPref.mCache.putFloat(entry.getKey(), entry.getValue());
-                    contentValues.clear();
-                    contentValues.put(entry.getKey(), entry.getValue());
-                    success &= 0 < contentResolver.update(uri, contentValues, commit ? SharedPreferencesProvider.COMMIT :
-                            SharedPreferencesProvider.APPLY, null);
-                    if (DEBUG) Log.d(TAG, "[sendFloats]success:" + success);
+                    floats.putFloat(entry.getKey(), entry.getValue());
                 }
             }
-            return success;
-        }
-
-        private boolean sendLongs(boolean commit) {
-            boolean success = true;
             if (mS2LMap != null) {
-                final ContentResolver contentResolver = mSPref.mContext.getContentResolver();
-                final Uri uri = SharedPreferencesProvider.getUri4PutLong(mSPref.mName);
-                final ContentValues contentValues = new ContentValues();
+                longs = new Bundle();
                 for (Map.Entry<String, Long> entry : mS2LMap.entrySet()) {
-                    mSPref.mCache.putLong(entry.getKey(), entry.getValue());
-                    contentValues.clear();
-                    contentValues.put(entry.getKey(), entry.getValue());
-                    success &= 0 < contentResolver.update(uri, contentValues, commit ? SharedPreferencesProvider.COMMIT :
-                            SharedPreferencesProvider.APPLY, null);
-                    if (DEBUG) Log.d(TAG, "[sendLongs]success:" + success);
+                    longs.putLong(entry.getKey(), entry.getValue());
                 }
             }
-            return success;
-        }
-
-        private boolean sendBooleans(boolean commit) {
-            boolean success = true;
             if (mS2BMap != null) {
-                final ContentResolver contentResolver = mSPref.mContext.getContentResolver();
-                final Uri uri = SharedPreferencesProvider.getUri4PutBoolean(mSPref.mName);
-                final ContentValues contentValues = new ContentValues();
+                booleans = new Bundle();
                 for (Map.Entry<String, Boolean> entry : mS2BMap.entrySet()) {
-                    mSPref.mCache.putBoolean(entry.getKey(), entry.getValue());
-                    contentValues.clear();
-                    contentValues.put(entry.getKey(), entry.getValue());
-                    success &= 0 < contentResolver.update(uri, contentValues, commit ? SharedPreferencesProvider.COMMIT :
-                            SharedPreferencesProvider.APPLY, null);
-                    if (DEBUG) Log.d(TAG, "[sendBooleans]success:" + success);
+                    booleans.putBoolean(entry.getKey(), entry.getValue());
                 }
             }
-            return success;
-        }
-
-        private boolean sendStrings(boolean commit) {
-            boolean success = true;
             if (mS2SMap != null) {
-                final ContentResolver contentResolver = mSPref.mContext.getContentResolver();
-                final Uri uri = SharedPreferencesProvider.getUri4PutString(mSPref.mName);
-                final ContentValues contentValues = new ContentValues();
+                strings = new Bundle();
                 for (Map.Entry<String, String> entry : mS2SMap.entrySet()) {
-                    mSPref.mCache.putString(entry.getKey(), entry.getValue());
-                    contentValues.clear();
-                    contentValues.put(entry.getKey(), entry.getValue());
-                    success &= 0 < contentResolver.update(uri, contentValues, commit ? SharedPreferencesProvider.COMMIT :
-                            SharedPreferencesProvider.APPLY, null);
-                    if (DEBUG) Log.d(TAG, "[sendStrings]success:" + success);
+                    strings.putString(entry.getKey(), entry.getValue());
                 }
             }
-            return success;
+            // 提交和更新副本之间不能插入同步，否则副本的版本号与值不一致。
+            synchronized (mSPref.mSyncLock) {
+                final Bundle result = mSPref.mContext.getContentResolver().call(
+                        SharedPreferencesProvider.getUri4Batch(mSPref.mName),
+                        commit ? SharedPreferencesProvider.COMMIT : SharedPreferencesProvider.APPLY, mSPref.mName,
+                        SharedPreferencesProvider.makeBatch(mClearFlag, mRmvSet, ints, floats, longs, booleans, strings, mS2EMap));
+                final boolean success = SharedPreferencesProvider.isBatchSuccess(result);
+                final Replica replica = mSPref.mReplica;
+                // 失败的提交已被撤销，副本不变。
+                if (success && replica != null) {
+                    if (result.getLong(SharedPreferencesProvider.EPOCH) == replica.mEpoch
+                            && result.getLong(SharedPreferencesProvider.PREV_VERSION) == replica.mVersion) {
+                        mSPref.mReplica = new Replica(replica.mEpoch, result.getLong(SharedPreferencesProvider.VERSION),
+                                applyTo(replica.mValues));
+                    } else {
+                        // 副本已经落后于其它进程的提交。
+                        mSPref.sync();
+                    }
+                }
+                return success;
+            }
         }
 
-        private boolean sendStringSets(boolean commit) {
-            boolean success = true;
+        private Map<String, Object> applyTo(Map<String, Object> values) {
+            final Map<String, Object> result = mClearFlag ? new HashMap<String, Object>() : new HashMap<>(values);
+            if (!mClearFlag && mRmvSet != null) {
+                for (String key : mRmvSet) {
+                    result.remove(key);
+                }
+            }
+            if (mS2IMap != null) result.putAll(mS2IMap);
+            if (mS2FMap != null) result.putAll(mS2FMap);
+            if (mS2LMap != null) result.putAll(mS2LMap);
+            if (mS2BMap != null) result.putAll(mS2BMap);
+            if (mS2SMap != null) result.putAll(mS2SMap);
             if (mS2EMap != null) {
-                final ContentResolver contentResolver = mSPref.mContext.getContentResolver();
-                final Uri uri = SharedPreferencesProvider.getUri4PutStringSet(mSPref.mName);
-                final ContentValues contentValues = new ContentValues();
                 for (Map.Entry<String, Set<String>> entry : mS2EMap.entrySet()) {
-                    mSPref.mCache.putStringSet(entry.getKey(), entry.getValue());
-                    contentValues.clear();
-                    final String key = entry.getKey();
-                    int count = 0;
-                    for (String value : entry.getValue()) {
-                        contentValues.put(key + (count++ == 0 ? "" : count), value);
-                    }
-                    success &= 0 < contentResolver.update(uri, contentValues, commit ? SharedPreferencesProvider.COMMIT :
-                            SharedPreferencesProvider.APPLY, null);
-                    if (DEBUG) Log.d(TAG, "[sendStringSets]success:" + success);
+                    result.put(entry.getKey(), Collections.unmodifiableSet(new HashSet<>(entry.getValue())));
                 }
             }
-            return success;
+            return result;
         }
     }
 
-    private static class Cache implements Editor {
-        private LruCache<String, Integer> mS2IMap;
-        private LruCache<String, Float> mS2FMap;
-        private LruCache<String, Long> mS2LMap;
-        private LruCache<String, Boolean> mS2BMap;
-        private LruCache<String, String> mS2SMap;
-        private LruCache<String, Set<String>> mS2EMap;
+    /**
+     * 文件在某个版本的完整内容，不可修改，整体替换。
+     */
+    private static final class Replica {
+        final long mEpoch;
+        final long mVersion;
+        final Map<String, Object> mValues;
 
-        @Override
-        public Editor putInt(String key, int value) {
-            if (mS2IMap == null) mS2IMap = new LruCache<>(5);
-            mS2IMap.put(key, value);
-            return this;
-        }
-
-        @Override
-        public Editor putFloat(String key, float value) {
-            if (mS2FMap == null) mS2FMap = new LruCache<>(5);
-            mS2FMap.put(key, value);
-            return this;
-        }
-
-        @Override
-        public Editor putLong(String key, long value) {
-            if (mS2LMap == null) mS2LMap = new LruCache<>(5);
-            mS2LMap.put(key, value);
-            return this;
-        }
-
-        @Override
-        public Editor putBoolean(String key, boolean value) {
-            if (mS2BMap == null) mS2BMap = new LruCache<>(5);
-            mS2BMap.put(key, value);
-            return this;
-        }
-
-        @Override
-        public Editor putString(String key, String value) {
-            if (DEBUG) Log.d(TAG, "[Cache.putString]key:" + key + ", value:" + value);
-            if (mS2SMap == null) mS2SMap = new LruCache<>(5);
-            mS2SMap.put(key, value);
-            return this;
-        }
-
-        @Override
-        public Editor putStringSet(String key, Set<String> values) {
-            if (values.isEmpty()) remove(key);
-            else {
-                if (mS2EMap == null) mS2EMap = new LruCache<>(5);
-                mS2EMap.put(key, values);
-            }
-            return this;
-        }
-
-        @Override
-        public Editor remove(String key) {
-            checkEmpty(key);
-            if (mS2IMap != null) mS2IMap.remove(key);
-            if (mS2FMap != null) mS2FMap.remove(key);
-            if (mS2LMap != null) mS2LMap.remove(key);
-            if (mS2BMap != null) mS2BMap.remove(key);
-            if (mS2SMap != null) mS2SMap.remove(key);
-            if (mS2EMap != null) mS2EMap.remove(key);
-            return this;
-        }
-
-        @Override
-        public Editor clear() {
-            if (mS2IMap != null) mS2IMap.evictAll();
-            if (mS2FMap != null) mS2FMap.evictAll();
-            if (mS2LMap != null) mS2LMap.evictAll();
-            if (mS2BMap != null) mS2BMap.evictAll();
-            if (mS2SMap != null) mS2SMap.evictAll();
-            if (mS2EMap != null) mS2EMap.evictAll();
-            return this;
-        }
-
-        @Override
-        public boolean commit() {
-            return false;
-        }
-
-        @Override
-        public void apply() {
-        }
-
-        public Integer getInt(String key) {
-            return mS2IMap == null ? null : mS2IMap.get(key);
-        }
-
-        public Float getFloat(String key) {
-            return mS2FMap == null ? null : mS2FMap.get(key);
-        }
-
-        public Long getLong(String key) {
-            return mS2LMap == null ? null : mS2LMap.get(key);
-        }
-
-        public Boolean getBoolean(String key) {
-            return mS2BMap == null ? null : mS2BMap.get(key);
-        }
-
-        public String getString(String key) {
-            return mS2SMap == null ? null : mS2SMap.get(key);
-        }
-
-        public Set<String> getStringSet(String key) {
-            return mS2EMap == null ? null : mS2EMap.get(key);
-        }
-
-        public boolean contains(String key) {
-            return (mS2IMap != null && mS2IMap.snapshot().containsKey(key))
-                    || (mS2FMap != null && mS2FMap.snapshot().containsKey(key))
-                    || (mS2LMap != null && mS2LMap.snapshot().containsKey(key))
-                    || (mS2BMap != null && mS2BMap.snapshot().containsKey(key))
-                    || (mS2SMap != null && mS2SMap.snapshot().containsKey(key))
-                    || (mS2EMap != null && mS2EMap.snapshot().containsKey(key));
+        Replica(long epoch, long version, Map<String, Object> values) {
+            mEpoch = epoch;
+            mVersion = version;
+            mValues = Collections.unmodifiableMap(values);
         }
     }
 
@@ -672,30 +459,25 @@ public class MultiProcesSharedPreferences implements SharedPreferences {
 
     private static class MyContentObserver extends ContentObserver {
         private final WeakReference<MultiProcesSharedPreferences> mSPrefRef;
+        private final ContentResolver mResolver;
 
-        MyContentObserver(MultiProcesSharedPreferences spref, Handler handler) {
-            super(handler);
+        MyContentObserver(MultiProcesSharedPreferences spref, ContentResolver resolver) {
+            super(null);
             mSPrefRef = new WeakReference<>(spref);
+            mResolver = resolver;
         }
 
         public void onChange(boolean selfChange, Uri uri) {
             if (DEBUG) Log.d(TAG, "[onChange]selfChange:" + selfChange + ", uri:" + uri);
-            final String[] name$key = SharedPreferencesProvider.parseNotifyNameAndKey(uri);
-            if (DEBUG) Log.d(TAG, "[onChange]name:" + name$key[0] + ", key:" + name$key[1]);
             final MultiProcesSharedPreferences spref = mSPrefRef.get();
             if (spref != null) {
-                final String key = name$key[1];
-                if (key != null) {  //SharedPreferencesProvider.NOTIFY_CLEAR类型没有key
-                    spref.mObservable.notifyChanged(spref, key);
-                }
+                spref.onChange(uri);
+            } else {
+                mResolver.unregisterContentObserver(this);
             }
         }
     }
 
-    private static boolean parseBoolean(byte[] blob) {
-        return Arrays.equals(blob, SharedPreferencesProvider.FLAG_BOOL_TRUE);
-    }
-
     private static void checkEmpty(Object obj) {
         if (obj == null || obj instanceof CharSequence && ((CharSequence) obj).length() == 0)
             throw new IllegalArgumentException("parameter should not be null");
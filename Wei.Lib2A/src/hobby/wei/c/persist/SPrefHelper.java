@@ -33,6 +33,8 @@ import android.os.Build;
 public class SPrefHelper {
 	private static final SPrefHelper sSPrefHelper = new SPrefHelper();
 	private static final SPrefHelper sMultiProcess = new MultiProcess();
+	private static final SPrefHelper sMmap = new Mmap();
+	private static final SPrefHelper sBinary = new Binary();
 	private final List<SharedPreferences> mSpRef = new LinkedList<SharedPreferences>();
 	private final Map<String, SharedPreferences> mSpMap = new HashMap<String, SharedPreferences>();
 
@@ -47,6 +49,21 @@ public class SPrefHelper {
 		return sMultiProcess;
 	}
 
+	/**
+	 * 同{@link #multiProcess()}, 但数据存放在内存映射文件中，读写都不经过IPC, 见{@link MmapSharedPreferences}.
+	 * 两者的数据不互通。
+	 */
+	public static SPrefHelper mmap() {
+		return sMmap;
+	}
+
+	/**
+	 * 同{@link #def()}, 但以二进制格式代替XML文件，见{@link BinarySharedPreferences}. 首次打开时导入同名XML文件中的数据。
+	 */
+	public static SPrefHelper binary() {
+		return sBinary;
+	}
+
 	public SharedPreferences getSPref(Context context, String fileName) {
 		return getSPrefInner(context, replace$(fileName));
 	}
@@ -146,4 +163,24 @@ public class SPrefHelper {
 			return MultiProcesSharedPreferences.getInstance(context, fileName);
 		}
 	}
+
+	private static class Mmap extends SPrefHelper {
+		private Mmap() {
+		}
+
+		@Override
+		protected SharedPreferences getSPrefInner(Context context, String fileName) {
+			return MmapSharedPreferences.getInstance(context, fileName);
+		}
+	}
+
+	private static class Binary extends SPrefHelper {
+		private Binary() {
+		}
+
+		@Override
+		protected SharedPreferences getSPrefInner(Context context, String fileName) {
+			return BinarySharedPreferences.getInstance(context, fileName);
+		}
+	}
 }
@@ -16,7 +16,6 @@
 
 package hobby.wei.c.persist;
 
-import android.annotation.SuppressLint;
 import android.content.ContentProvider;
 import android.content.ContentResolver;
 import android.content.ContentValues;
@@ -29,10 +28,14 @@ import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.net.Uri;
 import android.os.Binder;
+import android.os.Bundle;
 import android.text.TextUtils;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -58,10 +61,21 @@ public class SharedPreferencesProvider extends ContentProvider {
     private static final String REPLACEMENT         = SEP + "%s";
 
     private static final String KEY                 = "key";
-    private static final String VALUE               = "value";
+    /**也是{@link #call(String, String, Bundle)}返回的Bundle中结果的key**/
+    static final String VALUE                       = "value";
 
     public static final String APPLY                = "apply";
     public static final String COMMIT               = "commit";
+    /**{@link #call(String, String, Bundle)}的method, 用于同步{@link MultiProcesSharedPreferences}的本地副本**/
+    public static final String SYNC                 = "sync";
+
+    /**以下用于通知Uri的参数和{@link #call(String, String, Bundle)}的Bundle**/
+    static final String EPOCH                       = "epoch";
+    static final String VERSION                     = "version";
+    static final String PREV_VERSION                = "prev";
+    static final String FULL                        = "full";
+    static final String REMOVED                     = "removed";
+
     public static final byte[] FLAG_STRING_SET      = "flag_string_set".getBytes();
     public static final byte[] FLAG_BOOL_TRUE       = new byte[]{1};
     public static final byte[] FLAG_BOOL_FALSE      = new byte[]{0};
@@ -80,6 +94,10 @@ public class SharedPreferencesProvider extends ContentProvider {
     private static final String sRemove             = "r";
     private static final String sClear              = "c";
     private static final String sClearKey4Notify    = "N";
+    /**一次提交多个key的变更**/
+    private static final String sBatch              = "t";
+    /**以不能作为文件名开头的字符开头，避免与文件名冲突**/
+    private static final String sCacheInvalidate    = "~cache";
 
     private static final String sInt                = "i";
     private static final String sFloat              = "f";
@@ -118,9 +136,21 @@ public class SharedPreferencesProvider extends ContentProvider {
 
     public static final int NOTIFY_REMOVE           = 22;
     public static final int NOTIFY_CLEAR            = 23;
+    /**e.g: content://com.xxx.MPSPREF/~cache/cacheName/pid/keyHash/version**/
+    public static final int NOTIFY_CACHE_INVALIDATE = 24;
+    /**e.g: content://com.xxx.MPSPREF/fileName/N/t?key=k1&key=k2&c=1**/
+    public static final int NOTIFY_BATCH            = 25;
 
     private static final UriMatcher sUriMatcher     = new UriMatcher(UriMatcher.NO_MATCH);
 
+    /**本进程启动以来的标识，版本号只在同一个epoch内可比较**/
+    private final long mEpoch                       = System.currentTimeMillis();
+    private final Map<String, ChangeLog> mLogs      = new HashMap<>();
+    private final Map<String, WriteAggregator> mAggregators = new HashMap<>();
+
+    /**apply的写入在这段时间内合并为一次，见{@link #setWriteWindow(long)}**/
+    private static volatile long sWriteWindowMillis = 20;
+
     static {
         sUriMatcher.addURI(AUTHORITY, sPut + SEP + sInt + SEP + NODE_TEXT, PUT_INT);
         sUriMatcher.addURI(AUTHORITY, sPut + SEP + sFloat + SEP + NODE_TEXT, PUT_FLOAT);
@@ -152,6 +182,17 @@ public class SharedPreferencesProvider extends ContentProvider {
         sUriMatcher.addURI(AUTHORITY, NODE_TEXT + SEP + NODE_TEXT + SEP + sRemove, NOTIFY_REMOVE);
         //NODE_TEXT + SEP + sClearKey4Notify + SEP + sClear无法通过匹配
         sUriMatcher.addURI(AUTHORITY, NODE_TEXT + SEP + NODE_TEXT + SEP + sClear, NOTIFY_CLEAR);
+        sUriMatcher.addURI(AUTHORITY, NODE_TEXT + SEP + NODE_TEXT + SEP + sBatch, NOTIFY_BATCH);
+        sUriMatcher.addURI(AUTHORITY, sCacheInvalidate + SEP + NODE_TEXT + SEP + NODE_TEXT + SEP + NODE_TEXT
+                + SEP + NODE_TEXT, NOTIFY_CACHE_INVALIDATE);
+    }
+
+    /**
+     * 设置apply的写入合并窗口：多个进程在这段时间内的写入合并为一次{@link Editor#apply()}.
+     * 不大于0则每次都立即apply. 值的变更和通知不受影响，都是立即的。
+     */
+    public static void setWriteWindow(long millis) {
+        sWriteWindowMillis = millis;
     }
 
     public static Uri getUri4PutInt(String name) {
@@ -218,11 +259,84 @@ public class SharedPreferencesProvider extends ContentProvider {
         return makeUri(sClear, null, name);
     }
 
+    /**
+     * 用于{@link ContentResolver#call(Uri, String, String, Bundle)}, 见{@link #makeBatch}.
+     */
+    public static Uri getUri4Batch(String name) {
+        return makeUri(sBatch, null, name);
+    }
+
+    /**
+     * 把一个{@link Editor}事务的全部修改打包，通过一次{@link ContentResolver#call(Uri, String, String, Bundle)}
+     * 提交：method为{@link #COMMIT}或{@link #APPLY}, arg为文件名。
+     * 各类型的值分别存放在以类型标识为key的子{@link Bundle}中。
+     *
+     * @param clear   是否先清空，为true时忽略removes.
+     * @param removes 可为null.
+     * @param strSets 可为null.
+     */
+    public static Bundle makeBatch(boolean clear, Set<String> removes, Bundle ints, Bundle floats, Bundle longs,
+                                   Bundle booleans, Bundle strings, Map<String, Set<String>> strSets) {
+        final Bundle batch = new Bundle();
+        batch.putBoolean(sClear, clear);
+        if (removes != null && !clear) batch.putStringArrayList(sRemove, new ArrayList<>(removes));
+        batch.putBundle(sInt, ints);
+        batch.putBundle(sFloat, floats);
+        batch.putBundle(sLong, longs);
+        batch.putBundle(sBool, booleans);
+        batch.putBundle(sString, strings);
+        if (strSets != null) {
+            final Bundle bundle = new Bundle();
+            for (Map.Entry<String, Set<String>> entry : strSets.entrySet()) {
+                bundle.putStringArrayList(entry.getKey(), new ArrayList<>(entry.getValue()));
+            }
+            batch.putBundle(sStrSet, bundle);
+        }
+        return batch;
+    }
+
+    /**
+     * @return {@link #call(String, String, Bundle)}的结果是否成功。
+     */
+    public static boolean isBatchSuccess(Bundle result) {
+        return result != null && result.getBoolean(VALUE);
+    }
+
     public static Uri getUri4NotifyObserver(String name) {
         if (TextUtils.isEmpty(name)) throw newException4NullName();
         return Uri.parse(String.format(URI_NOTIFY_OBSERVER, name));
     }
 
+    /**
+     * 用于监听名为cacheName的缓存的跨进程作废通知，见{@link CacheInvalidationChannel}.
+     */
+    public static Uri getUri4CacheInvalidation(String cacheName) {
+        if (TextUtils.isEmpty(cacheName)) throw newException4NullName();
+        return new Uri.Builder().scheme(ContentResolver.SCHEME_CONTENT).authority(AUTHORITY)
+                .appendPath(sCacheInvalidate).appendPath(cacheName).build();
+    }
+
+    /** e.g: content://com.xxx.MPSPREF/~cache/cacheName/pid/keyHash/version **/
+    public static Uri makeCacheInvalidationUri(String cacheName, int pid, int keyHash, long version) {
+        return getUri4CacheInvalidation(cacheName).buildUpon().appendPath(String.valueOf(pid))
+                .appendPath(String.valueOf(keyHash)).appendPath(String.valueOf(version)).build();
+    }
+
+    /**
+     * @return long[0]为pid, long[1]为keyHash, long[2]为version. 不是作废通知则返回null.
+     */
+    public static long[] parseCacheInvalidation(Uri uri) {
+        if (sUriMatcher.match(uri) != NOTIFY_CACHE_INVALIDATE) return null;
+        final List<String> list = uri.getPathSegments();
+        final int n = list.size();
+        try {
+            return new long[]{Long.parseLong(list.get(n - 3)), Long.parseLong(list.get(n - 2)),
+                    Long.parseLong(list.get(n - 1))};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     private static Uri makeUri(String action, String type, String name) {
         if (TextUtils.isEmpty(name)) throw newException4NullName();
         return Uri.parse(type == null ? String.format(URI_FORMAT_2S, action, name) :
@@ -234,6 +348,28 @@ public class SharedPreferencesProvider extends ContentProvider {
         return Uri.parse(String.format(URI_FORMAT_3S, name, key, actionOrType));
     }
 
+    /**
+     * 通知Uri都带有文件的epoch和版本号，见{@link ChangeLog}.
+     */
+    private Uri withVersion(Uri uri, long version) {
+        return uri.buildUpon().appendQueryParameter(EPOCH, String.valueOf(mEpoch))
+                .appendQueryParameter(VERSION, String.valueOf(version)).build();
+    }
+
+    /**
+     * @return long[0]为epoch, long[1]为该次变更之后文件的版本号。不带版本号的返回null.
+     */
+    public static long[] parseNotifyVersion(Uri uri) {
+        final String epoch = uri.getQueryParameter(EPOCH);
+        final String version = uri.getQueryParameter(VERSION);
+        if (epoch == null || version == null) return null;
+        try {
+            return new long[]{Long.parseLong(epoch), Long.parseLong(version)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     public static int parseNotifyType(Uri uri) {
         return sUriMatcher.match(uri);
     }
@@ -258,12 +394,30 @@ public class SharedPreferencesProvider extends ContentProvider {
             case NOTIFY_REMOVE:
                 return new String[]{list.get(list.size() - 3), list.get(list.size() - 2)};
             case NOTIFY_CLEAR:
+            case NOTIFY_BATCH:
                 return new String[]{list.get(list.size() - 3), null};
             default:
                 throw newException4IllegalUri();
         }
     }
 
+    /**
+     * 解析{@link #NOTIFY_BATCH}类型的通知中值有变化的key.
+     *
+     * @return 其它类型的通知返回空列表。
+     */
+    public static List<String> parseNotifyBatchKeys(Uri uri) {
+        if (sUriMatcher.match(uri) != NOTIFY_BATCH) return Collections.emptyList();
+        return uri.getQueryParameters(KEY);
+    }
+
+    /**
+     * @return {@link #NOTIFY_BATCH}类型的通知是否包含清空操作。
+     */
+    public static boolean parseNotifyBatchCleared(Uri uri) {
+        return sUriMatcher.match(uri) == NOTIFY_BATCH && uri.getQueryParameter(sClear) != null;
+    }
+
     @Override
     public boolean onCreate() {
         return false;
@@ -279,50 +433,57 @@ public class SharedPreferencesProvider extends ContentProvider {
         checkPermission();
         //不可能为null, 前面已经作了检查
         final String name = uri.getLastPathSegment();
-        final SharedPreferences spref = getContext().getSharedPreferences(name, Context.MODE_PRIVATE);
+        final ChangeLog log = log(name);
+        synchronized (log) {
+            return query(uri, aggregator(name, log).values(), projection, selectionArgs);
+        }
+    }
+
+    /**
+     * @param map 包括尚未写入磁盘的值，见{@link WriteAggregator}.
+     */
+    @SuppressWarnings("unchecked")
+    private Cursor query(Uri uri, Map<String, ?> map, String[] projection, String[] selectionArgs) {
         final MatrixCursor cursor = new MatrixCursor(new String[]{VALUE});
         switch (sUriMatcher.match(uri)) {
             case GET_INT:
-                cursor.addRow(new Object[]{spref.getInt(projection[0], Integer.valueOf(selectionArgs[0]))});
+                cursor.addRow(new Object[]{(Integer) valueOr(map, projection[0], Integer.valueOf(selectionArgs[0]))});
                 break;
             case GET_FLOAT:
-                cursor.addRow(new Object[]{spref.getFloat(projection[0], Float.valueOf(selectionArgs[0]))});
+                cursor.addRow(new Object[]{(Float) valueOr(map, projection[0], Float.valueOf(selectionArgs[0]))});
                 break;
             case GET_LONG:
-                cursor.addRow(new Object[]{spref.getLong(projection[0], Long.valueOf(selectionArgs[0]))});
+                cursor.addRow(new Object[]{(Long) valueOr(map, projection[0], Long.valueOf(selectionArgs[0]))});
                 break;
             case GET_BOOL:
-                cursor.addRow(new Object[]{spref.getBoolean(projection[0], Boolean.valueOf(selectionArgs[0])) ?
+                cursor.addRow(new Object[]{(Boolean) valueOr(map, projection[0], Boolean.valueOf(selectionArgs[0])) ?
                         FLAG_BOOL_TRUE : FLAG_BOOL_FALSE});
                 break;
             case GET_STRING:
-                cursor.addRow(new Object[]{spref.getString(projection[0], selectionArgs[0])});
+                cursor.addRow(new Object[]{(String) valueOr(map, projection[0], selectionArgs[0])});
                 break;
             case GET_STR_SET:
-                final Set<String> set = spref.getStringSet(projection[0], Collections.<String>emptySet());
+                final Set<String> set = (Set<String>) valueOr(map, projection[0], Collections.<String>emptySet());
                 for (String s : set) {
                     cursor.addRow(new Object[]{s});
                 }
                 break;
             case GET_ALL:
                 final MatrixCursor cursorAll = new MatrixCursor(new String[]{KEY, VALUE});
-                final Map<String, ?> map = spref.getAll();
-                if (map != null) {
-                    final Set<? extends Map.Entry<String, ?>> entries = map.entrySet();
-                    for (Map.Entry<String, ?> entry : entries) {
-                        final Object value = entry.getValue();
-                        if (value instanceof Set) {  //StringSet
-                            cursorAll.addRow(new Object[]{entry.getKey(), FLAG_STRING_SET});
-                        } else if (value instanceof Boolean) {
-                            cursorAll.addRow(new Object[]{entry.getKey(), (Boolean) value ? FLAG_BOOL_TRUE : FLAG_BOOL_FALSE});
-                        } else {
-                            cursorAll.addRow(new Object[]{entry.getKey(), value});
-                        }
+                final Set<? extends Map.Entry<String, ?>> entries = map.entrySet();
+                for (Map.Entry<String, ?> entry : entries) {
+                    final Object value = entry.getValue();
+                    if (value instanceof Set) {  //StringSet
+                        cursorAll.addRow(new Object[]{entry.getKey(), FLAG_STRING_SET});
+                    } else if (value instanceof Boolean) {
+                        cursorAll.addRow(new Object[]{entry.getKey(), (Boolean) value ? FLAG_BOOL_TRUE : FLAG_BOOL_FALSE});
+                    } else {
+                        cursorAll.addRow(new Object[]{entry.getKey(), value});
                     }
                 }
                 return cursorAll;
             case GET_CONTAINS:
-                cursor.addRow(new Object[]{spref.contains(projection[0]) ? FLAG_BOOL_TRUE : FLAG_BOOL_FALSE});
+                cursor.addRow(new Object[]{map.containsKey(projection[0]) ? FLAG_BOOL_TRUE : FLAG_BOOL_FALSE});
                 break;
             default:
                 throw newException4UnsupportedOperation();
@@ -330,178 +491,272 @@ public class SharedPreferencesProvider extends ContentProvider {
         return cursor;
     }
 
-    @SuppressLint("CommitPrefEdits")
     @Override
     public int update(final Uri uri, ContentValues values, String commitOrApply, String[] selectionArgs) {
         checkPermission();
         //不可能为null, 前面已经作了检查
         final String name = uri.getLastPathSegment();
-        final SharedPreferences spref = getContext().getSharedPreferences(name, Context.MODE_PRIVATE);
-        final Editor editor = spref.edit();
-        Uri uri4Notify = null;
+        final ChangeLog log = log(name);
+        synchronized (log) {
+            return update(uri, name, log, values, commitOrApply);
+        }
+    }
+
+    /**
+     * 单个key的修改，与{@link #commit}一样经由{@link WriteAggregator}: 以内存中的值判断是否有变化，apply的合并写入。
+     */
+    private int update(final Uri uri, String name, ChangeLog log, ContentValues values, String commitOrApply) {
+        final int match = sUriMatcher.match(uri);
+        final String type;
         String key = null;
-        boolean keyNotEmpty = false;
-        boolean valueChanged = false;
-        switch (sUriMatcher.match(uri)) {
+        Object value = null;
+        switch (match) {
             case PUT_INT:
-                for (String k : values.keySet()) {
-                    key = k;
-                    if (keyNotEmpty = !TextUtils.isEmpty(key)) {
-                        final int newValue = values.getAsInteger(key);
-                        valueChanged = newValue != spref.getInt(key, getNotEqualWith(0, newValue));
-                        editor.putInt(key, newValue);
-                    }
-                    break;
-                }
-                if (keyNotEmpty) {
-                    endPut(editor, commitOrApply);
-                    if (valueChanged) uri4Notify = makeNotifyUri(sInt, name, key);
-                }
+                type = sInt;
+                if ((key = firstKey(values)) != null) value = values.getAsInteger(key);
                 break;
             case PUT_FLOAT:
-                for (String k : values.keySet()) {
-                    key = k;
-                    if (keyNotEmpty = !TextUtils.isEmpty(key)) {
-                        final Float newValue = values.getAsFloat(key);
-                        valueChanged = !equals(newValue, spref.getFloat(key, getNotEqualWith(0f, newValue)));
-                        editor.putFloat(key, newValue);
-                    }
-                    break;
-                }
-                if (keyNotEmpty) {
-                    endPut(editor, commitOrApply);
-                    if (valueChanged) uri4Notify = makeNotifyUri(sFloat, name, key);
-                }
+                type = sFloat;
+                if ((key = firstKey(values)) != null) value = values.getAsFloat(key);
                 break;
             case PUT_LONG:
-                for (String k : values.keySet()) {
-                    key = k;
-                    if (keyNotEmpty = !TextUtils.isEmpty(key)) {
-                        final long newValue = values.getAsLong(key);
-                        valueChanged = newValue != spref.getLong(key, getNotEqualWith(0, newValue));
-                        editor.putLong(key, newValue);
-                    }
-                    break;
-                }
-                if (keyNotEmpty) {
-                    endPut(editor, commitOrApply);
-                    if (valueChanged) uri4Notify = makeNotifyUri(sLong, name, key);
-                }
+                type = sLong;
+                if ((key = firstKey(values)) != null) value = values.getAsLong(key);
                 break;
             case PUT_BOOL:
-                for (String k : values.keySet()) {
-                    key = k;
-                    if (keyNotEmpty = !TextUtils.isEmpty(key)) {
-                        final boolean newValue = values.getAsBoolean(key);
-                        valueChanged = newValue ^ spref.getBoolean(key, getNotEqualWith(false, newValue));
-                        editor.putBoolean(key, newValue);
-                    }
-                    break;
-                }
-                if (keyNotEmpty) {
-                    endPut(editor, commitOrApply);
-                    if (valueChanged) uri4Notify = makeNotifyUri(sBool, name, key);
-                }
+                type = sBool;
+                if ((key = firstKey(values)) != null) value = values.getAsBoolean(key);
                 break;
             case PUT_STRING:
-                for (String k : values.keySet()) {
-                    key = k;
-                    if (keyNotEmpty = !TextUtils.isEmpty(key)) {
-                        final String newValue = values.getAsString(key);
-                        valueChanged = !equals(newValue, spref.getString(key, getNotEqualWith(null, newValue)));
-                        editor.putString(key, newValue);
-                    }
-                    break;
-                }
-                if (keyNotEmpty) {
-                    endPut(editor, commitOrApply);
-                    if (valueChanged) uri4Notify = makeNotifyUri(sString, name, key);
-                }
+                type = sString;
+                if ((key = firstKey(values)) != null) value = values.getAsString(key);
                 break;
             case PUT_STR_SET:
+                type = sStrSet;
                 final Set<String> newValue = new HashSet<String>();
                 for (String k : values.keySet()) {
                     //HashMap的key可以为null, 即HashSet的element可以为null, 同时也是[无序的]
                     if (!TextUtils.isEmpty(k) && (key == null || k.length() < key.length())) {
                         key = k;
-                        keyNotEmpty = true;
                     }
                     newValue.add(values.getAsString(k)); //注意是小k
                 }
-                if (keyNotEmpty) {
-                    valueChanged = !equals(newValue, spref.getStringSet(key, getNotEqualWith(null, newValue)));
-                    editor.putStringSet(key, newValue);
-                    endPut(editor, commitOrApply);
-                    if (valueChanged) uri4Notify = makeNotifyUri(sStrSet, name, key);
-                }
+                value = newValue;
                 break;
             case REMOVE:
-                for (String k : values.keySet()) {
-                    key = k;
-                    if (keyNotEmpty = !TextUtils.isEmpty(key)) {
-                        valueChanged = true;
-                        editor.remove(key);
-                    }
-                    break;
-                }
-                if (keyNotEmpty) {
-                    endPut(editor, commitOrApply);
-                    if (valueChanged) uri4Notify = makeNotifyUri(sRemove, name, key);
-                }
+                type = sRemove;
+                key = firstKey(values);
                 break;
             case CLEAR:
-                valueChanged = keyNotEmpty = true;
-                editor.clear();
-                endPut(editor, commitOrApply);
-                uri4Notify = makeNotifyUri(sClear, name, sClearKey4Notify);
+                type = sClear;
                 break;
             default:
                 throw newException4UnsupportedOperation();
         }
-        if (valueChanged) getContext().getContentResolver().notifyChange(uri4Notify, null);
-        return keyNotEmpty ? 1 : 0;
+        final boolean clear = match == CLEAR;
+        if (!clear && key == null) return 0;
+        final Set<String> changed = put(aggregator(name, log), clear,
+                clear ? Collections.<String, Object>emptyMap() : Collections.singletonMap(key, value), commitOrApply);
+        if (changed == null) return 0;
+        if (clear) {
+            getContext().getContentResolver().notifyChange(withVersion(makeNotifyUri(sClear, name, sClearKey4Notify),
+                    log.append(Collections.<String>emptySet(), true)), null);
+        } else if (!changed.isEmpty()) {
+            getContext().getContentResolver().notifyChange(withVersion(makeNotifyUri(type, name, key),
+                    log.append(changed, false)), null);
+        }
+        return 1;
     }
 
+    /**
+     * @param method {@link #COMMIT}、{@link #APPLY}或{@link #SYNC}.
+     * @param name   文件名。
+     */
     @Override
-    public Uri insert(Uri uri, ContentValues values) {
-        throw newException4UnsupportedOperation();
+    public Bundle call(String method, String name, Bundle extras) {
+        if (!COMMIT.equals(method) && !APPLY.equals(method) && !SYNC.equals(method)) {
+            return super.call(method, name, extras);
+        }
+        checkPermission();
+        if (TextUtils.isEmpty(name)) throw newException4NullName();
+        final ChangeLog log = log(name);
+        synchronized (log) {
+            return SYNC.equals(method) ? sync(name, log, extras) : commit(method, name, log, extras);
+        }
     }
 
-    @Override
-    public int delete(Uri uri, String selection, String[] selectionArgs) {
-        throw newException4UnsupportedOperation();
+    /**
+     * 应用{@link #makeBatch}打包的一个事务：只做一次{@link Editor#commit()}(apply的还会与其它写入合并), 并且只发出一次
+     * {@link #NOTIFY_BATCH}类型的通知，包含所有值有变化的key.
+     *
+     * @return 是否成功，以及本次提交前后的版本号（没有变化时相同）。
+     */
+    private Bundle commit(String method, String name, ChangeLog log, Bundle batch) {
+        final boolean clear = batch.getBoolean(sClear);
+        // 值为null表示移除，先移除再放入，与Editor一致。
+        final Map<String, Object> modified = new LinkedHashMap<>();
+        if (!clear) {
+            final List<String> removes = batch.getStringArrayList(sRemove);
+            if (removes != null) {
+                for (String key : removes) {
+                    if (!TextUtils.isEmpty(key)) modified.put(key, null);
+                }
+            }
+        }
+        for (String type : new String[]{sInt, sFloat, sLong, sBool, sString}) {
+            final Bundle bundle = batch.getBundle(type);
+            if (bundle == null) continue;
+            for (String key : bundle.keySet()) {
+                if (!TextUtils.isEmpty(key)) modified.put(key, bundle.get(key));
+            }
+        }
+        final Bundle bundle = batch.getBundle(sStrSet);
+        if (bundle != null) {
+            for (String key : bundle.keySet()) {
+                if (!TextUtils.isEmpty(key)) modified.put(key, new HashSet<>(bundle.getStringArrayList(key)));
+            }
+        }
+        // 清空之后，放入的值都算作变化。
+        final Set<String> changed = put(aggregator(name, log), clear, modified, method);
+        final boolean success = changed != null;
+        final Bundle result = new Bundle();
+        result.putBoolean(VALUE, success);
+        result.putLong(EPOCH, mEpoch);
+        result.putLong(PREV_VERSION, log.version());
+        if (success && (clear || !changed.isEmpty())) {
+            final Uri.Builder builder = makeNotifyUri(sBatch, name, sClearKey4Notify).buildUpon();
+            for (String key : changed) {
+                builder.appendQueryParameter(KEY, key);
+            }
+            if (clear) builder.appendQueryParameter(sClear, "1");
+            getContext().getContentResolver().notifyChange(withVersion(builder.build(), log.append(changed, clear)), null);
+        }
+        result.putLong(VERSION, log.version());
+        return result;
     }
 
-    private void endPut(Editor editor, String action) {
-        if (action.equalsIgnoreCase(APPLY)) {
-            editor.apply();
-        } else {
-            editor.commit();
+    /**
+     * 供本地副本同步：请求中带有副本的epoch和版本号，返回之后变更过的key的当前值。
+     * epoch不符、版本号为负或无法增量同步时返回全部的值（即GET_ALL）。
+     *
+     * @return 当前的epoch、版本号，是否为全部的值，值（{@link #putValue}）以及已不存在的key.
+     */
+    private Bundle sync(String name, ChangeLog log, Bundle request) {
+        final Map<String, ?> all = aggregator(name, log).values();
+        final Set<String> keys = request.getLong(EPOCH) != mEpoch ? null : log.keysSince(request.getLong(VERSION, -1));
+        final Bundle values = new Bundle();
+        final ArrayList<String> removed = new ArrayList<>();
+        for (String key : keys == null ? all.keySet() : keys) {
+            final Object value = all.get(key);
+            if (value == null) removed.add(key);
+            else putValue(values, key, value);
+        }
+        final Bundle result = new Bundle();
+        result.putLong(EPOCH, mEpoch);
+        result.putLong(VERSION, log.version());
+        result.putBoolean(FULL, keys == null);
+        result.putBundle(VALUE, values);
+        result.putStringArrayList(REMOVED, removed);
+        return result;
+    }
+
+    private ChangeLog log(String name) {
+        synchronized (mLogs) {
+            ChangeLog log = mLogs.get(name);
+            if (log == null) mLogs.put(name, log = new ChangeLog());
+            return log;
         }
     }
 
-    private static int getNotEqualWith(int result, int notEqual) {
-        return result == notEqual ? ++result : result;
+    /**
+     * 在log的锁内调用，第一次调用时加载文件。
+     */
+    private WriteAggregator aggregator(String name, ChangeLog log) {
+        synchronized (mAggregators) {
+            WriteAggregator aggregator = mAggregators.get(name);
+            if (aggregator == null) {
+                aggregator = new WriteAggregator(getContext().getSharedPreferences(name, Context.MODE_PRIVATE), log);
+                mAggregators.put(name, aggregator);
+            }
+            return aggregator;
+        }
     }
 
-    private static float getNotEqualWith(Float result, Float notEqual) {
-        return equals(result, notEqual) ? ++result : result;
+    /**
+     * 按值的类型放入bundle, StringSet以{@link ArrayList}存放。
+     */
+    @SuppressWarnings("unchecked")
+    static void putValue(Bundle bundle, String key, Object value) {
+        if (value instanceof Integer) bundle.putInt(key, (Integer) value);
+        else if (value instanceof Long) bundle.putLong(key, (Long) value);
+        else if (value instanceof Float) bundle.putFloat(key, (Float) value);
+        else if (value instanceof Boolean) bundle.putBoolean(key, (Boolean) value);
+        else if (value instanceof String) bundle.putString(key, (String) value);
+        else if (value instanceof Set) bundle.putStringArrayList(key, new ArrayList<>((Set<String>) value));
     }
 
-    private static long getNotEqualWith(long result, long notEqual) {
-        return result == notEqual ? ++result : result;
+    /**
+     * 按值的类型放入editor, 值为null表示移除。
+     */
+    @SuppressWarnings("unchecked")
+    static void putValue(Editor editor, String key, Object value) {
+        if (value == null) editor.remove(key);
+        else if (value instanceof Integer) editor.putInt(key, (Integer) value);
+        else if (value instanceof Long) editor.putLong(key, (Long) value);
+        else if (value instanceof Float) editor.putFloat(key, (Float) value);
+        else if (value instanceof Boolean) editor.putBoolean(key, (Boolean) value);
+        else if (value instanceof String) editor.putString(key, (String) value);
+        else if (value instanceof Set) editor.putStringSet(key, (Set<String>) value);
+        else throw new IllegalArgumentException("不支持的类型：" + value.getClass());
     }
 
-    private static boolean getNotEqualWith(boolean result, boolean notEqual) {
-        return !notEqual;
+    /**
+     * {@link #putValue}的逆操作，StringSet还原为不可修改的{@link Set}.
+     */
+    @SuppressWarnings("unchecked")
+    static Object getValue(Bundle bundle, String key) {
+        final Object value = bundle.get(key);
+        if (value instanceof ArrayList) return Collections.unmodifiableSet(new HashSet<>((ArrayList<String>) value));
+        return value;
     }
 
-    private static String getNotEqualWith(String result, String notEqual) {
-        return equals(result, notEqual) ? result == null ? "" : null : result;
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw newException4UnsupportedOperation();
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw newException4UnsupportedOperation();
+    }
+
+    /**
+     * apply的在写入窗口之后合并写入，commit的连同等待中的立即写入。
+     *
+     * @return 值有变化的key; commit失败时修改已撤销，返回null.
+     */
+    private static Set<String> put(WriteAggregator aggregator, boolean clear, Map<String, ?> modified, String action) {
+        if (action.equalsIgnoreCase(APPLY)) {
+            final Set<String> changed = aggregator.write(clear, modified);
+            aggregator.scheduleFlush(sWriteWindowMillis);
+            return changed;
+        }
+        return aggregator.commit(clear, modified, sWriteWindowMillis);
+    }
+
+    /**
+     * @return 第一个key, 为空则返回null.
+     */
+    private static String firstKey(ContentValues values) {
+        for (String key : values.keySet()) {
+            return TextUtils.isEmpty(key) ? null : key;
+        }
+        return null;
     }
 
-    private static Set<String> getNotEqualWith(Set<String> result, Set<String> notEqual) {
-        return equals(result, notEqual) ? result == null ? Collections.<String>emptySet() : null : result;
+    private static Object valueOr(Map<String, ?> map, String key, Object defValue) {
+        final Object value = map.get(key);
+        return value != null ? value : defValue;
     }
 
     /**
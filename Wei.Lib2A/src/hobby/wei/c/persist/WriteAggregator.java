@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.persist;
+
+import android.content.SharedPreferences;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import hobby.wei.c.tools.Background;
+
+/**
+ * {@link SharedPreferencesProvider}端每个文件的写入合并器。
+ * <p>
+ * 持有文件全部的值（加载时从{@link SharedPreferences#getAll()}复制一次），之后的修改都先作用于这里，
+ * 据此判断哪些key有变化，不必再读取{@link SharedPreferences}; 读取（包括同步副本）也以这里为准。
+ * 修改同时放入待写队列：apply的在一个短暂的窗口之后合并为一次{@link SharedPreferences.Editor#apply()},
+ * commit的连同之前等待的一起立即{@link SharedPreferences.Editor#commit()}. 因此多个进程密集写入时，
+ * 磁盘只需写一次。commit失败时撤销该次的修改，之前等待的放回待写队列稍后重试，读取到的不会有未写入的值。
+ * <p>
+ * 所有方法都须在构造时传入的锁内调用（即该文件的{@link ChangeLog}）。文件只能经由{@link SharedPreferencesProvider}修改，
+ * 这与{@link MultiProcesSharedPreferences}的副本的要求是一样的。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+final class WriteAggregator {
+    private final SharedPreferences mSPref;
+    private final Object mLock;
+    private final Map<String, Object> mValues;
+    /**
+     * 等待写入磁盘的修改，值为null表示移除。
+     */
+    private final Map<String, Object> mPending = new LinkedHashMap<>();
+    private boolean mPendingClear;
+    private boolean mScheduled;
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mLock) {
+                mScheduled = false;
+                flush(false);
+            }
+        }
+    };
+
+    WriteAggregator(SharedPreferences spref, Object lock) {
+        mSPref = spref;
+        mLock = lock;
+        mValues = new HashMap<String, Object>(spref.getAll());
+    }
+
+    /**
+     * @return 当前全部的值，包括尚未写入磁盘的。不可修改。
+     */
+    Map<String, Object> values() {
+        return Collections.unmodifiableMap(mValues);
+    }
+
+    /**
+     * 修改内存中的值，有变化的放入待写队列。
+     *
+     * @param modified 值为null表示移除。
+     * @return 值有变化的key, 清空时放入的都算作变化。
+     */
+    Set<String> write(boolean clear, Map<String, ?> modified) {
+        if (clear) {
+            mValues.clear();
+            mPending.clear();
+            mPendingClear = true;
+        }
+        final Set<String> changed = new HashSet<>();
+        for (Map.Entry<String, ?> e : modified.entrySet()) {
+            final String key = e.getKey();
+            final Object value = e.getValue();
+            if (value == null ? mValues.remove(key) != null
+                    : !SharedPreferencesProvider.equals(mValues.put(key, value), value)) {
+                changed.add(key);
+                mPending.put(key, value);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 修改内存中的值，连同待写队列立即{@link SharedPreferences.Editor#commit()}.
+     * 失败时撤销本次的修改，待写队列恢复原样并加上撤销的key（{@link SharedPreferences}的内存中可能已是失败的值），
+     * 在retryDelayMillis之后重新写入。
+     *
+     * @param modified 值为null表示移除。
+     * @return 值有变化的key, 清空时放入的都算作变化；写入失败返回null.
+     */
+    Set<String> commit(boolean clear, Map<String, ?> modified, long retryDelayMillis) {
+        final Map<String, Object> pending = new LinkedHashMap<>(mPending);
+        final boolean pendingClear = mPendingClear;
+        final Map<String, Object> previous;
+        if (clear) {
+            previous = new HashMap<>(mValues);
+        } else {
+            previous = new HashMap<>();
+            for (String key : modified.keySet()) {
+                previous.put(key, mValues.get(key));
+            }
+        }
+        final Set<String> changed = write(clear, modified);
+        if (flush(true)) return changed;
+        if (clear) mValues.clear();
+        for (Map.Entry<String, Object> e : previous.entrySet()) {
+            if (e.getValue() == null) mValues.remove(e.getKey());
+            else mValues.put(e.getKey(), e.getValue());
+        }
+        mPending.clear();
+        if (clear) {
+            mPending.putAll(mValues);
+            mPendingClear = true;
+        } else {
+            mPending.putAll(pending);
+            mPendingClear = pendingClear;
+            for (String key : changed) {
+                mPending.put(key, mValues.get(key));
+            }
+        }
+        scheduleFlush(retryDelayMillis);
+        return null;
+    }
+
+    /**
+     * 把待写队列中的修改以一个{@link SharedPreferences.Editor}写入。
+     *
+     * @param commit 是否等待写入磁盘（{@link SharedPreferences.Editor#commit()}）.
+     * @return commit的结果，apply总是返回true.
+     */
+    boolean flush(boolean commit) {
+        if (!mPendingClear && mPending.isEmpty()) return true;
+        final SharedPreferences.Editor editor = mSPref.edit();
+        if (mPendingClear) editor.clear();
+        for (Map.Entry<String, Object> e : mPending.entrySet()) {
+            SharedPreferencesProvider.putValue(editor, e.getKey(), e.getValue());
+        }
+        mPending.clear();
+        mPendingClear = false;
+        if (commit) return editor.commit();
+        editor.apply();
+        return true;
+    }
+
+    /**
+     * @param delayMillis 不大于0则立即{@link #flush(boolean) flush(false)}.
+     */
+    void scheduleFlush(long delayMillis) {
+        if (delayMillis <= 0) {
+            flush(false);
+            return;
+        }
+        if (mScheduled) return;
+        mScheduled = true;
+        try {
+            Background.scheduler().schedule(mFlushTask, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            mScheduled = false;
+            flush(false);
+        }
+    }
+}
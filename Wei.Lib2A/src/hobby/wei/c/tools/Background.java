@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 本库内部共用的后台线程池（如缓存的异步加载、刷新等），避免各处各自创建线程。
+ * <p>
+ * 线程数和队列长度都是有限的，队列满了之后再提交会抛出
+ * {@link java.util.concurrent.RejectedExecutionException}，由调用方决定如何处理。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public final class Background {
+    private static final int POOL_SIZE = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int QUEUE_CAPACITY = 128;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static volatile ExecutorService sExecutor;
+    private static volatile ScheduledExecutorService sScheduler;
+
+    private Background() {
+    }
+
+    public static ExecutorService executor() {
+        if (sExecutor == null) {
+            synchronized (Background.class) {
+                if (sExecutor == null) {
+                    final ThreadPoolExecutor executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE,
+                            KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY), new Factory("wei-bg-"));
+                    executor.allowCoreThreadTimeOut(true);
+                    sExecutor = executor;
+                }
+            }
+        }
+        return sExecutor;
+    }
+
+    /**
+     * 单线程的定时任务调度器，任务应当很短，耗时的工作请转交给{@link #executor()}.
+     */
+    public static ScheduledExecutorService scheduler() {
+        if (sScheduler == null) {
+            synchronized (Background.class) {
+                if (sScheduler == null) {
+                    sScheduler = new ScheduledThreadPoolExecutor(1, new Factory("wei-timer-"));
+                }
+            }
+        }
+        return sScheduler;
+    }
+
+    private static class Factory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+        private final String mPrefix;
+
+        Factory(String prefix) {
+            mPrefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, mPrefix + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
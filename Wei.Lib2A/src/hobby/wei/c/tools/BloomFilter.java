@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 布隆过滤器，每个元素约占10 bit, 使用7个哈希函数，容量内的误判率约为1%.
+ * <p>
+ * {@link #mightContain(Object)}无锁，可与写操作并发；{@link #put(Object)}和{@link #clear()}须由调用方串行化。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+final class BloomFilter {
+    private static final int BITS_PER_ELEMENT = 10;
+    private static final int HASHES = 7;
+
+    private final AtomicLongArray mBits;
+    private final int mMask;
+    private final int mCapacity;
+    private int mCount;
+
+    /**
+     * @param capacity 预期的元素数，超出后误判率上升，见{@link #isFull()}.
+     */
+    BloomFilter(int capacity) {
+        mCapacity = Math.max(1, capacity);
+        final int words = StripedCounter.ceilingPowerOfTwo(Math.max(1, (int) Math.min(
+                (long) mCapacity * BITS_PER_ELEMENT / 64, 1 << 24)));
+        mBits = new AtomicLongArray(words);
+        mMask = (words << 6) - 1;
+    }
+
+    boolean mightContain(Object element) {
+        final int h1 = spread(element.hashCode());
+        final int h2 = (h1 >>> 16) | (h1 << 16) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            final int bit = (h1 + i * h2) & mMask;
+            if ((mBits.get(bit >>> 6) & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    void put(Object element) {
+        final int h1 = spread(element.hashCode());
+        final int h2 = (h1 >>> 16) | (h1 << 16) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            final int bit = (h1 + i * h2) & mMask;
+            mBits.set(bit >>> 6, mBits.get(bit >>> 6) | (1L << bit));
+        }
+        mCount++;
+    }
+
+    /**
+     * 元素不能单独删除，放入的次数超过容量后应{@link #clear()}并重新放入仍然有效的元素。
+     */
+    boolean isFull() {
+        return mCount >= mCapacity;
+    }
+
+    void clear() {
+        for (int i = 0; i < mBits.length(); i++) {
+            mBits.set(i, 0);
+        }
+        mCount = 0;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
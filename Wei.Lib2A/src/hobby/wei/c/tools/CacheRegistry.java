@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内所有存活的缓存的登记处，用于在调试界面或基准测试中导出所有缓存的统计数据。
+ * <p>
+ * {@link LruCache}、{@link ConcurrentLruCache}在创建时自动登记；{@link ICache.Impl}以自身代替其内部的{@link LruCache}.
+ * 以弱引用持有，不影响缓存被回收。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public final class CacheRegistry {
+    /**
+     * 可以按比例收缩的缓存，用于内存不足时释放内存，见{@link #trimAll(float)}.
+     */
+    public interface Trimmable {
+        /**
+         * @param keepRatio 保留当前占用的比例，取值[0, 1], 0表示全部清空。
+         */
+        void trim(float keepRatio);
+    }
+
+    /**
+     * 可以保存快照以便下次启动时预热的缓存，见{@link #saveSnapshots()}.
+     */
+    public interface Snapshottable {
+        void saveSnapshot() throws IOException;
+    }
+
+    private static final Set<Entry> sEntries = Collections.newSetFromMap(new ConcurrentHashMap<Entry, Boolean>());
+    private static final ReferenceQueue<CacheStats.Provider> sQueue = new ReferenceQueue<>();
+
+    private CacheRegistry() {
+    }
+
+    /**
+     * @param name 用于在统计数据中区分各个缓存，为null则使用类名。
+     */
+    public static void register(CacheStats.Provider cache, String name) {
+        expunge();
+        sEntries.add(new Entry(cache, name != null ? name : nameOf(cache), sQueue));
+    }
+
+    public static void unregister(CacheStats.Provider cache) {
+        expunge();
+        for (Entry entry : sEntries) {
+            if (entry.get() == cache) sEntries.remove(entry);
+        }
+    }
+
+    /**
+     * 所有存活的缓存。
+     */
+    public static List<CacheStats.Provider> caches() {
+        expunge();
+        final List<CacheStats.Provider> list = new ArrayList<>(sEntries.size());
+        for (Entry entry : sEntries) {
+            final CacheStats.Provider cache = entry.get();
+            if (cache != null) list.add(cache);
+        }
+        return list;
+    }
+
+    /**
+     * 所有存活的缓存的统计数据。
+     */
+    public static List<CacheStats> snapshot() {
+        expunge();
+        final List<CacheStats> list = new ArrayList<>(sEntries.size());
+        for (Entry entry : sEntries) {
+            final CacheStats.Provider cache = entry.get();
+            if (cache != null) list.add(cache.stats().named(entry.name));
+        }
+        return list;
+    }
+
+    /**
+     * 收缩所有已登记且实现了{@link Trimmable}的缓存。
+     *
+     * @param keepRatio 见{@link Trimmable#trim(float)}.
+     */
+    public static void trimAll(float keepRatio) {
+        if (keepRatio >= 1) return;
+        for (CacheStats.Provider cache : caches()) {
+            if (cache instanceof Trimmable) ((Trimmable) cache).trim(keepRatio);
+        }
+    }
+
+    /**
+     * 保存所有已登记且实现了{@link Snapshottable}的缓存的快照，某个缓存失败不影响其它的。应在后台线程调用。
+     *
+     * @return 失败的数量。
+     */
+    public static int saveSnapshots() {
+        int failures = 0;
+        for (CacheStats.Provider cache : caches()) {
+            if (cache instanceof Snapshottable) {
+                try {
+                    ((Snapshottable) cache).saveSnapshot();
+                } catch (IOException | RuntimeException e) {
+                    failures++;
+                }
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * 每个缓存一行，可直接输出到日志或调试界面。
+     */
+    public static String dump() {
+        final StringBuilder sb = new StringBuilder();
+        for (CacheStats stats : snapshot()) {
+            sb.append(stats).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void expunge() {
+        Object ref;
+        while ((ref = sQueue.poll()) != null) {
+            sEntries.remove(ref);
+        }
+    }
+
+    private static String nameOf(Object cache) {
+        Class<?> clazz = cache.getClass();
+        // 匿名子类使用父类的名字。
+        while (clazz.isAnonymousClass()) clazz = clazz.getSuperclass();
+        return clazz.getSimpleName() + '@' + Integer.toHexString(System.identityHashCode(cache));
+    }
+
+    private static final class Entry extends WeakReference<CacheStats.Provider> {
+        final String name;
+
+        Entry(CacheStats.Provider cache, String name, ReferenceQueue<CacheStats.Provider> queue) {
+            super(cache, queue);
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * {@link ICache.Impl}的快照文件，用于在下次启动时预热缓存，见{@link ICache.Builder#snapshot}.
+ * <p>
+ * 格式：魔数、格式版本、调用方指定的版本、条目数，之后依次为各条目的key和value(均为长度+字节)，
+ * 最后是之前所有字节的CRC32. 条目按从最久未访问到最近访问排列，按顺序放回即可恢复访问顺序。
+ * 写入临时文件后再改名，因此不会读到写了一半的文件；版本不符或校验失败的文件直接丢弃。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+final class CacheSnapshot {
+    private static final int MAGIC = 0x57534e50; // "WSNP"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private CacheSnapshot() {
+    }
+
+    /**
+     * @param entries 从最久未访问到最近访问排列。
+     */
+    static <K, V> void save(File file, int version, List<Map.Entry<K, V>> entries,
+                            DiskLruCache.Codec<K> keyCodec, DiskLruCache.Codec<V> valueCodec) throws IOException {
+        final List<byte[]> encoded = new ArrayList<>(entries.size() * 2);
+        for (Map.Entry<K, V> e : entries) {
+            final byte[] key = keyCodec.encode(e.getKey());
+            final byte[] value = valueCodec.encode(e.getValue());
+            // 无法编码的条目跳过。
+            if (key == null || value == null) continue;
+            encoded.add(key);
+            encoded.add(value);
+        }
+        final File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) throw new IOException("无法创建目录：" + parent);
+        final File tmp = new File(file.getPath() + TMP_SUFFIX);
+        final CRC32 crc = new CRC32();
+        final BufferedOutputStream raw = new BufferedOutputStream(new FileOutputStream(tmp));
+        final DataOutputStream out = new DataOutputStream(new CheckedOutputStream(raw, crc));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(version);
+            out.writeInt(encoded.size() / 2);
+            for (byte[] bytes : encoded) {
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.flush();
+            // 不计入校验和。
+            new DataOutputStream(raw).writeLong(crc.getValue());
+            raw.flush();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("无法写入：" + file);
+        }
+    }
+
+    /**
+     * @return 从最久未访问到最近访问排列，文件不存在、版本不符或已损坏时返回空列表（并删除该文件）。
+     */
+    static <K, V> List<Map.Entry<K, V>> restore(File file, int version,
+                                                DiskLruCache.Codec<K> keyCodec, DiskLruCache.Codec<V> valueCodec) {
+        final long length = file.length();
+        if (length < HEADER_SIZE + 8 || length > Integer.MAX_VALUE) {
+            file.delete();
+            return Collections.emptyList();
+        }
+        try {
+            final byte[] data;
+            final InputStream in = new FileInputStream(file);
+            try {
+                // 先只读头部，版本不符的不必读完整个文件。
+                final byte[] header = new byte[HEADER_SIZE];
+                readFully(in, header, 0, HEADER_SIZE);
+                final DataInputStream h = new DataInputStream(new ByteArrayInputStream(header));
+                if (h.readInt() != MAGIC || h.readInt() != FORMAT_VERSION || h.readInt() != version) {
+                    throw new IOException("版本不符");
+                }
+                data = new byte[(int) length];
+                System.arraycopy(header, 0, data, 0, HEADER_SIZE);
+                readFully(in, data, HEADER_SIZE, data.length - HEADER_SIZE);
+            } finally {
+                in.close();
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length - 8);
+            final DataInputStream din = new DataInputStream(new ByteArrayInputStream(data));
+            din.skipBytes(data.length - 8);
+            if (din.readLong() != crc.getValue()) throw new IOException("校验失败");
+
+            final DataInputStream body = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 8));
+            body.skipBytes(HEADER_SIZE - 4);
+            final int count = body.readInt();
+            final List<Map.Entry<K, V>> entries = new ArrayList<>(Math.max(0, Math.min(count, 1 << 16)));
+            for (int i = 0; i < count; i++) {
+                final K key = keyCodec.decode(readBytes(body));
+                final V value = valueCodec.decode(readBytes(body));
+                if (key != null && value != null) entries.add(new AbstractMap.SimpleImmutableEntry<>(key, value));
+            }
+            return entries;
+        } catch (IOException | RuntimeException e) {
+            file.delete();
+            return Collections.emptyList();
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0 || length > in.available()) throw new IOException("长度错误");
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            final int n = in.read(buffer, offset, length);
+            if (n < 0) throw new IOException("文件不完整");
+            offset += n;
+            length -= n;
+        }
+    }
+}
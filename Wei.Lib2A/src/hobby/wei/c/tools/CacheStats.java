@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.util.Locale;
+
+/**
+ * 缓存统计数据在某一时刻的不可变快照，由{@link StatsRecorder#snapshot}生成。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public final class CacheStats {
+    /**
+     * 可以提供统计数据的缓存，如{@link LruCache}、{@link ICache.Impl}.
+     */
+    public interface Provider {
+        CacheStats stats();
+    }
+
+    /**
+     * 条目被淘汰的原因。
+     */
+    public enum Cause {
+        /**
+         * 超出容量。
+         */
+        SIZE,
+        /**
+         * 过期。
+         */
+        EXPIRED,
+        /**
+         * 被显式地移除，如{@link LruCache#remove(Object)}、{@link LruCache#evictAll()}、{@link ICache#dirty(Object)}.
+         */
+        EXPLICIT
+    }
+
+    /**
+     * 加载耗时直方图的桶数。第i个桶统计耗时小于{@link #latencyBucketBound(int)}的加载，最后一个桶不设上限。
+     */
+    public static final int LATENCY_BUCKETS = 24;
+    /**
+     * 第一个桶的上限为2^10纳秒(约1微秒)，之后逐个翻倍，倒数第二个桶的上限约为8.6秒。
+     */
+    private static final int LATENCY_BASE_SHIFT = 10;
+
+    public final String name;
+    public final int size, maxSize;
+    public final long hitCount, missCount;
+    public final long loadSuccessCount, loadFailureCount, totalLoadTimeNanos;
+    /**
+     * 最近一段时间（见{@link StatsRecorder}）内的命中率，没有访问时为{@link Double#NaN}.
+     */
+    public final double recentHitRate;
+    private final long[] mEvictions;
+    private final long[] mLatency;
+
+    CacheStats(String name, int size, int maxSize, long hitCount, long missCount,
+               long loadSuccessCount, long loadFailureCount, long totalLoadTimeNanos,
+               double recentHitRate, long[] evictions, long[] latency) {
+        this.name = name;
+        this.size = size;
+        this.maxSize = maxSize;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTimeNanos = totalLoadTimeNanos;
+        this.recentHitRate = recentHitRate;
+        mEvictions = evictions;
+        mLatency = latency;
+    }
+
+    /**
+     * 同一份数据，换一个名字。
+     */
+    public CacheStats named(String name) {
+        return new CacheStats(name, size, maxSize, hitCount, missCount, loadSuccessCount, loadFailureCount,
+                totalLoadTimeNanos, recentHitRate, mEvictions, mLatency);
+    }
+
+    public long requestCount() {
+        return hitCount + missCount;
+    }
+
+    /**
+     * 自创建以来的命中率，没有访问时为1.
+     */
+    public double hitRate() {
+        final long requests = requestCount();
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    public long evictionCount(Cause cause) {
+        return mEvictions[cause.ordinal()];
+    }
+
+    public long evictionCount() {
+        long sum = 0;
+        for (long n : mEvictions) sum += n;
+        return sum;
+    }
+
+    public double averageLoadPenaltyNanos() {
+        final long loads = loadSuccessCount + loadFailureCount;
+        return loads == 0 ? 0.0 : (double) totalLoadTimeNanos / loads;
+    }
+
+    public long latencyBucketCount(int bucket) {
+        return mLatency[bucket];
+    }
+
+    /**
+     * @return 第bucket个桶的上限（纳秒，不含），最后一个桶为{@link Long#MAX_VALUE}.
+     */
+    public static long latencyBucketBound(int bucket) {
+        return bucket >= LATENCY_BUCKETS - 1 ? Long.MAX_VALUE : 1L << (bucket + LATENCY_BASE_SHIFT);
+    }
+
+    static int latencyBucketOf(long nanos) {
+        final int bucket = 64 - Long.numberOfLeadingZeros(nanos >>> LATENCY_BASE_SHIFT);
+        return Math.min(bucket, LATENCY_BUCKETS - 1);
+    }
+
+    /**
+     * 加载耗时的分位数，按直方图估算，返回所在桶的上限（纳秒）。
+     *
+     * @param percentile 取值(0, 1], 如0.99.
+     * @return 没有加载时为0.
+     */
+    public long loadLatencyPercentile(double percentile) {
+        long total = 0;
+        for (long n : mLatency) total += n;
+        if (total == 0) return 0;
+        final long target = (long) Math.ceil(total * percentile);
+        long count = 0;
+        for (int i = 0; i < mLatency.length; i++) {
+            count += mLatency[i];
+            if (count >= target) return latencyBucketBound(i);
+        }
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s[size=%d/%d, hits=%d, misses=%d, hitRate=%.1f%%, recent=%.1f%%, "
+                        + "loads=%d, failures=%d, avgLoad=%.2fms, p99=%.2fms, evictions(size=%d, expired=%d, explicit=%d)]",
+                name, size, maxSize, hitCount, missCount, hitRate() * 100, recentHitRate * 100,
+                loadSuccessCount, loadFailureCount, averageLoadPenaltyNanos() / 1e6, loadLatencyPercentile(0.99) / 1e6,
+                evictionCount(Cause.SIZE), evictionCount(Cause.EXPIRED), evictionCount(Cause.EXPLICIT));
+    }
+}
@@ -0,0 +1,541 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 与{@link LruCache}有相同的公开方法和回调({@link #create}、{@link #sizeOf}、{@link #entryRemoved})，
+ * 但命中时不需要获取任何全局锁的并发版本。
+ * <p>
+ * 实现策略：
+ * <ul>
+ * <li>数据存放在{@link ConcurrentHashMap}里，{@link #get}命中时只是一次无锁的读；</li>
+ * <li>LRU顺序由一个侵入式的双向链表维护，仅在{@link #mEvictionLock}下修改；</li>
+ * <li>命中时，把被访问的节点记入按线程分散的有损环形缓冲区(满了就直接丢弃本次记录)，
+ * 当缓冲区积累到一定数量时，由恰好{@code tryLock()}成功的那个线程批量回放到LRU链表里；</li>
+ * <li>写操作({@link #put}、{@link #remove}及淘汰)较少，仍然在锁内进行，并在此之前回放缓冲区。</li>
+ * </ul>
+ * 因此LRU顺序是近似的：被丢弃的访问记录不会提升节点的位置。对于热点数据，这几乎没有影响。
+ * <p>
+ * 本类同样不允许null作为key或value. 创建时自动登记到{@link CacheRegistry}.
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class ConcurrentLruCache<K, V> implements CacheStats.Provider, CacheRegistry.Trimmable {
+    private static final int READ_BUFFER_STRIPES = StripedCounter.ceilingPowerOfTwo(
+            Runtime.getRuntime().availableProcessors() * 2);
+    /**
+     * 每个缓冲区的容量，须为2的幂。
+     */
+    private static final int READ_BUFFER_SIZE = 32;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    /**
+     * 缓冲区积累到这个数量时尝试回放。
+     */
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = READ_BUFFER_SIZE / 2;
+
+    private final ConcurrentHashMap<K, Node<K, V>> map;
+    private final ReentrantLock mEvictionLock = new ReentrantLock();
+    /**
+     * 链表的哨兵节点。head.next为最久未被访问的节点，head.prev为最近被访问的。
+     */
+    private final Node<K, V> head;
+    private final ReadBuffer<K, V>[] mReadBuffers;
+
+    /**
+     * Size of this cache in units. Not necessarily the number of elements.
+     */
+    private int size;
+    private volatile int maxSize;
+
+    private int putCount;
+    private int createCount;
+    private final StatsRecorder stats = new StatsRecorder();
+
+    /**
+     * @param maxSize for caches that do not override {@link #sizeOf}, this is
+     *                the maximum number of entries in the cache. For all other caches,
+     *                this is the maximum sum of the sizes of the entries in this cache.
+     */
+    public ConcurrentLruCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+        this.map = new ConcurrentHashMap<K, Node<K, V>>(16, 0.75f, READ_BUFFER_STRIPES);
+        this.head = new Node<K, V>(null, null, 0);
+        head.prev = head.next = head;
+        mReadBuffers = ReadBuffer.newArray(READ_BUFFER_STRIPES);
+        for (int i = 0; i < mReadBuffers.length; i++) {
+            mReadBuffers[i] = new ReadBuffer<K, V>();
+        }
+        CacheRegistry.register(this, null);
+    }
+
+    /**
+     * Sets the size of the cache.
+     *
+     * @param maxSize The new maximum size.
+     */
+    public void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Returns the value for {@code key} if it exists in the cache or can be
+     * created by {@code #create}. If a value was returned, it is moved to the
+     * head of the queue (asynchronously, see the class comment). This returns null if a
+     * value is not cached and cannot be created.
+     */
+    public final V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        final Node<K, V> node = map.get(key);
+        if (node != null) {
+            final V value = node.value;
+            stats.recordHit();
+            afterRead(node);
+            return value;
+        }
+        stats.recordMiss();
+
+        /*
+         * 同LruCache：create()可能很耗时，期间可能有其它线程放入了同一个key的值，
+         * 这时保留已有的值，并释放新创建的。
+         */
+        final V createdValue = create(key);
+        if (createdValue == null) {
+            return null;
+        }
+
+        V mapValue = null;
+        List<Node<K, V>> evicted;
+        mEvictionLock.lock();
+        try {
+            drainReadBuffers();
+            createCount++;
+            final Node<K, V> prior = map.get(key);
+            if (prior != null) {
+                mapValue = prior.value;
+                moveToTail(prior);
+                evicted = null;
+            } else {
+                final Node<K, V> created = new Node<K, V>(key, createdValue, safeSizeOf(key, createdValue));
+                map.put(key, created);
+                linkLast(created);
+                size += created.size;
+                evicted = evictOverflow(maxSize, CacheStats.Cause.SIZE);
+            }
+        } finally {
+            mEvictionLock.unlock();
+        }
+
+        if (mapValue != null) {
+            entryRemoved(false, key, createdValue, mapValue);
+            return mapValue;
+        } else {
+            notifyEvicted(evicted);
+            return createdValue;
+        }
+    }
+
+    /**
+     * Caches {@code value} for {@code key}. The value is moved to the head of
+     * the queue.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    public final V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+
+        V previous = null;
+        List<Node<K, V>> evicted;
+        mEvictionLock.lock();
+        try {
+            drainReadBuffers();
+            putCount++;
+            final int newSize = safeSizeOf(key, value);
+            final Node<K, V> node = map.get(key);
+            if (node != null) {
+                previous = node.value;
+                size += newSize - node.size;
+                node.size = newSize;
+                node.value = value;
+                moveToTail(node);
+            } else {
+                final Node<K, V> added = new Node<K, V>(key, value, newSize);
+                map.put(key, added);
+                linkLast(added);
+                size += newSize;
+            }
+            evicted = evictOverflow(maxSize, CacheStats.Cause.SIZE);
+        } finally {
+            mEvictionLock.unlock();
+        }
+
+        if (previous != null) {
+            entryRemoved(false, key, previous, value);
+        }
+        notifyEvicted(evicted);
+        return previous;
+    }
+
+    /**
+     * Remove the eldest entries until the total of remaining entries is at or
+     * below the requested size.
+     *
+     * @param maxSize the maximum size of the cache before returning. May be -1
+     *                to evict even 0-sized elements.
+     */
+    public void trimToSize(int maxSize) {
+        trimToSize(maxSize, CacheStats.Cause.SIZE);
+    }
+
+    /**
+     * @param cause 用于统计。
+     */
+    private void trimToSize(int maxSize, CacheStats.Cause cause) {
+        List<Node<K, V>> evicted;
+        mEvictionLock.lock();
+        try {
+            drainReadBuffers();
+            evicted = evictOverflow(maxSize, cause);
+        } finally {
+            mEvictionLock.unlock();
+        }
+        notifyEvicted(evicted);
+    }
+
+    /**
+     * Removes the entry for {@code key} if it exists.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    public final V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        V previous = null;
+        mEvictionLock.lock();
+        try {
+            final Node<K, V> node = map.remove(key);
+            if (node != null) {
+                previous = node.value;
+                unlink(node);
+                size -= node.size;
+            }
+        } finally {
+            mEvictionLock.unlock();
+        }
+
+        if (previous != null) {
+            stats.recordEviction(CacheStats.Cause.EXPLICIT);
+            entryRemoved(false, key, previous, null);
+        }
+        return previous;
+    }
+
+    /**
+     * @see LruCache#entryRemoved(boolean, Object, Object, Object)
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+    }
+
+    /**
+     * 注意：本方法可能被多个线程针对同一个key同时调用。
+     *
+     * @see LruCache#create(Object)
+     */
+    protected V create(K key) {
+        return null;
+    }
+
+    private int safeSizeOf(K key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    /**
+     * 在锁内被调用，应尽量轻量。
+     *
+     * @see LruCache#sizeOf(Object, Object)
+     */
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    @Override
+    public void trim(float keepRatio) {
+        if (keepRatio <= 0) {
+            trimToSize(-1);
+        } else if (keepRatio < 1) {
+            trimToSize((int) (size() * keepRatio));
+        }
+    }
+
+    /**
+     * Clear the cache, calling {@link #entryRemoved} on each removed entry.
+     */
+    public final void evictAll() {
+        trimToSize(-1, CacheStats.Cause.EXPLICIT); // -1 will evict 0-sized elements
+    }
+
+    /**
+     * For caches that do not override {@link #sizeOf}, this returns the number
+     * of entries in the cache. For all other caches, this returns the sum of
+     * the sizes of the entries in this cache.
+     */
+    public final int size() {
+        mEvictionLock.lock();
+        try {
+            return size;
+        } finally {
+            mEvictionLock.unlock();
+        }
+    }
+
+    public final int maxSize() {
+        return maxSize;
+    }
+
+    public final int hitCount() {
+        return (int) stats.hitCount();
+    }
+
+    public final int missCount() {
+        return (int) stats.missCount();
+    }
+
+    public final int createCount() {
+        mEvictionLock.lock();
+        try {
+            return createCount;
+        } finally {
+            mEvictionLock.unlock();
+        }
+    }
+
+    public final int putCount() {
+        mEvictionLock.lock();
+        try {
+            return putCount;
+        } finally {
+            mEvictionLock.unlock();
+        }
+    }
+
+    public final int evictionCount() {
+        return (int) stats.evictionCount(CacheStats.Cause.SIZE);
+    }
+
+    @Override
+    public CacheStats stats() {
+        final int size;
+        mEvictionLock.lock();
+        try {
+            size = this.size;
+        } finally {
+            mEvictionLock.unlock();
+        }
+        return stats.snapshot("ConcurrentLruCache", size, maxSize);
+    }
+
+    /**
+     * Returns a copy of the current contents of the cache, ordered from least
+     * recently accessed to most recently accessed.
+     */
+    public final Map<K, V> snapshot() {
+        final Map<K, V> copy = new LinkedHashMap<K, V>();
+        mEvictionLock.lock();
+        try {
+            drainReadBuffers();
+            for (Node<K, V> node = head.next; node != head; node = node.next) {
+                copy.put(node.key, node.value);
+            }
+        } finally {
+            mEvictionLock.unlock();
+        }
+        return copy;
+    }
+
+    @Override
+    public final String toString() {
+        final long hits = stats.hitCount();
+        final long accesses = hits + stats.missCount();
+        final long hitPercent = accesses != 0 ? (100 * hits / accesses) : 0;
+        return String.format("ConcurrentLruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                maxSize, hits, accesses - hits, hitPercent);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void afterRead(Node<K, V> node) {
+        final ReadBuffer<K, V> buffer = mReadBuffers[StripedCounter.probe(READ_BUFFER_STRIPES - 1)];
+        final long pending = buffer.offer(node);
+        if (pending >= READ_BUFFER_DRAIN_THRESHOLD && mEvictionLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                mEvictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 须持有{@link #mEvictionLock}.
+     */
+    private void drainReadBuffers() {
+        for (ReadBuffer<K, V> buffer : mReadBuffers) {
+            buffer.drainTo(this);
+        }
+    }
+
+    /**
+     * 须持有{@link #mEvictionLock}. 返回被淘汰的节点，以便在锁外回调{@link #entryRemoved}.
+     */
+    private List<Node<K, V>> evictOverflow(int maxSize, CacheStats.Cause cause) {
+        List<Node<K, V>> evicted = null;
+        while (true) {
+            if (size < 0 || (map.isEmpty() && size != 0)) {
+                throw new IllegalStateException(getClass().getName()
+                        + ".sizeOf() is reporting inconsistent results!");
+            }
+            if (size <= maxSize) {
+                break;
+            }
+            final Node<K, V> eldest = head.next;
+            if (eldest == head) {
+                break;
+            }
+            unlink(eldest);
+            map.remove(eldest.key, eldest);
+            size -= eldest.size;
+            stats.recordEviction(cause);
+            if (evicted == null) evicted = new ArrayList<Node<K, V>>(2);
+            evicted.add(eldest);
+        }
+        return evicted;
+    }
+
+    private void notifyEvicted(List<Node<K, V>> evicted) {
+        if (evicted != null) {
+            for (Node<K, V> node : evicted) {
+                entryRemoved(true, node.key, node.value, null);
+            }
+        }
+    }
+
+    private void linkLast(Node<K, V> node) {
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+    }
+
+    private void unlink(Node<K, V> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = node.next = null;
+    }
+
+    private void moveToTail(Node<K, V> node) {
+        // 已被移除的节点(可能仍残留在读缓冲区里)prev为null.
+        if (node.prev != null && node != head.prev) {
+            unlink(node);
+            linkLast(node);
+        }
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        volatile V value;
+        /**
+         * 以下字段仅在锁内访问。
+         */
+        int size;
+        Node<K, V> prev, next;
+
+        Node(K key, V value, int size) {
+            this.key = key;
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    /**
+     * 多生产者、单消费者(持有锁的线程)的有损环形缓冲区。
+     */
+    private static final class ReadBuffer<K, V> {
+        final AtomicReferenceArray<Node<K, V>> buffer = new AtomicReferenceArray<Node<K, V>>(READ_BUFFER_SIZE);
+        final AtomicLong writeCounter = new AtomicLong();
+        volatile long readCounter;
+
+        @SuppressWarnings("unchecked")
+        static <K, V> ReadBuffer<K, V>[] newArray(int length) {
+            return (ReadBuffer<K, V>[]) new ReadBuffer<?, ?>[length];
+        }
+
+        /**
+         * @return 当前待回放的记录数。缓冲区已满或竞争失败时丢弃本次记录。
+         */
+        long offer(Node<K, V> node) {
+            final long head = readCounter;
+            final long tail = writeCounter.get();
+            final long size = tail - head;
+            if (size < READ_BUFFER_SIZE && writeCounter.compareAndSet(tail, tail + 1)) {
+                buffer.lazySet((int) (tail & READ_BUFFER_MASK), node);
+                return size + 1;
+            }
+            return size;
+        }
+
+        void drainTo(ConcurrentLruCache<K, V> cache) {
+            long head = readCounter;
+            final long tail = writeCounter.get();
+            while (head < tail) {
+                final int index = (int) (head & READ_BUFFER_MASK);
+                final Node<K, V> node = buffer.get(index);
+                if (node == null) break;    // 生产者已占位但尚未写入，下次再回放。
+                buffer.lazySet(index, null);
+                cache.moveToTail(node);
+                head++;
+            }
+            readCounter = head;
+        }
+    }
+}
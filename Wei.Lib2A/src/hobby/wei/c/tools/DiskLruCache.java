@@ -0,0 +1,446 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 基于文件的LRU缓存，按总字节数淘汰。每个值存为目录下的一个文件，文件名为key的MD5.
+ * <p>
+ * 索引保存在只追加的日志文件(journal)中，进程被杀死后重新打开时据此恢复（包括LRU顺序）。
+ * 日志同时记录key的{@link String#hashCode()}, 以便{@link #removeByHash(int)}删除不知道原key的条目。
+ * 写入值时先写临时文件再重命名，然后才记录日志，因此任何时刻崩溃都不会读到写了一半的值；
+ * 未记录在日志中的文件在打开时被删除。日志中的冗余记录过多时会重写日志，同样是先写临时文件再重命名。
+ * <p>
+ * 通常放在缓存目录下，如：
+ * <pre><code>
+ * File dir = new File(FStoreLoc.DEFAULT.getCacheDir(context, FStoreLoc.DirLevel.PRIVATE), "users");
+ * DiskLruCache disk = DiskLruCache.open(dir, Manifest.getVersionCode(context), 10 * 1024 * 1024);
+ * </code></pre>
+ * 线程安全。同一个目录在同一时刻只应被一个实例使用。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public final class DiskLruCache implements Closeable {
+    /**
+     * 值与字节数组之间的转换，用于{@link ICache.Builder#diskCache(DiskLruCache, Codec)}.
+     */
+    public interface Codec<V> {
+        byte[] encode(V value);
+
+        /**
+         * @return 无法解析时可以返回null或抛出异常，该文件都会被删除。
+         */
+        V decode(byte[] data);
+    }
+
+    /**
+     * 条目因超出容量被淘汰时的回调，在本对象的锁内调用，不能再调用本对象的方法。
+     */
+    interface EvictionListener {
+        /**
+         * @param name 文件名，即{@link #nameOf(String)}.
+         */
+        void onEvicted(String name);
+    }
+
+    private static final String JOURNAL = "journal";
+    private static final String JOURNAL_TMP = "journal.tmp";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String MAGIC = "hobby.wei.c.tools.DiskLruCache";
+    private static final String VERSION = "1";
+    private static final String PUT = "PUT", DEL = "DEL", READ = "READ";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /**
+     * 日志中冗余的记录数超过这个值（且超过有效条目数）时重写日志。
+     */
+    private static final int REBUILD_THRESHOLD = 2000;
+
+    private final File mDir;
+    private final File mJournal;
+    private final int mAppVersion;
+    private final long mMaxBytes;
+    /**
+     * 文件名 -> 字节数，按访问顺序。
+     */
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(0, 0.75f, true);
+    /**
+     * 文件名 -> key的hashCode. 旧版本写入的日志中没有记录的不在其中。
+     */
+    private final Map<String, Integer> mHashes = new HashMap<>();
+    private final CopyOnWriteArrayList<EvictionListener> mListeners = new CopyOnWriteArrayList<>();
+    private long mSize;
+    private int mRedundantOps;
+    private Writer mWriter;
+
+    private DiskLruCache(File dir, int appVersion, long maxBytes) {
+        mDir = dir;
+        mJournal = new File(dir, JOURNAL);
+        mAppVersion = appVersion;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @param appVersion 与日志中记录的不同时（如数据格式变化之后），清空所有缓存。
+     * @param maxBytes   所有值的总字节数上限。
+     */
+    public static DiskLruCache open(File dir, int appVersion, long maxBytes) throws IOException {
+        if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes <= 0");
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("无法创建目录：" + dir);
+        final DiskLruCache cache = new DiskLruCache(dir, appVersion, maxBytes);
+        synchronized (cache) {
+            if (cache.mJournal.exists()) {
+                try {
+                    cache.readJournal();
+                } catch (IOException e) {
+                    // 日志已损坏或版本不一致，重新开始。
+                    cache.mEntries.clear();
+                    cache.mHashes.clear();
+                    cache.mSize = 0;
+                }
+            }
+            cache.deleteOrphans();
+            cache.rebuildJournal();
+            cache.trimToSize();
+        }
+        return cache;
+    }
+
+    /**
+     * @return 不存在时为null.
+     */
+    public byte[] get(String key) throws IOException {
+        final InputStream in;
+        synchronized (this) {
+            checkNotClosed();
+            final String name = nameOf(key);
+            if (!mEntries.containsKey(name)) return null;
+            try {
+                // 打开之后即使文件被删除或替换，也能读到完整的旧内容。
+                in = new FileInputStream(new File(mDir, name));
+            } catch (FileNotFoundException e) {
+                removeEntry(name);
+                return null;
+            }
+            mEntries.get(name);
+            appendJournal(READ, name, -1, false);
+        }
+        try {
+            return readFully(in);
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    public synchronized boolean contains(String key) {
+        return mEntries.containsKey(nameOf(key));
+    }
+
+    /**
+     * 原子地写入，返回时值已在磁盘上。
+     */
+    public void put(String key, byte[] data) throws IOException {
+        final String name = nameOf(key);
+        // 文件名中带上线程id, 避免不同线程同时写同一个key的临时文件。
+        final File tmp = new File(mDir, name + '.' + Thread.currentThread().getId() + TMP_SUFFIX);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(data);
+            out.getFD().sync();
+        } finally {
+            closeQuietly(out);
+        }
+        synchronized (this) {
+            checkNotClosed();
+            if (!tmp.renameTo(new File(mDir, name))) {
+                tmp.delete();
+                throw new IOException("重命名失败：" + tmp);
+            }
+            final Long old = mEntries.put(name, (long) data.length);
+            if (old != null) {
+                mSize -= old;
+                mRedundantOps++;
+            }
+            mSize += data.length;
+            mHashes.put(name, key.hashCode());
+            mWriter.write(putLine(name, data.length));
+            mWriter.flush();
+            trimToSize();
+            rebuildJournalIfNeeded();
+        }
+    }
+
+    public synchronized boolean remove(String key) throws IOException {
+        checkNotClosed();
+        return removeEntry(nameOf(key));
+    }
+
+    /**
+     * 删除key的{@link String#hashCode()}为hash的条目，包括本实例不知道原key的（如上次运行时写入的）。
+     * 日志中没有记录hash的旧条目无从判断，也一并删除。
+     *
+     * @return 删除的条目的文件名，见{@link #nameOf(String)}.
+     */
+    synchronized List<String> removeByHash(int hash) throws IOException {
+        checkNotClosed();
+        final List<String> removed = new ArrayList<>();
+        for (String name : new ArrayList<>(mEntries.keySet())) {
+            final Integer h = mHashes.get(name);
+            if ((h == null || h == hash) && removeEntry(name)) removed.add(name);
+        }
+        return removed;
+    }
+
+    public synchronized void clear() throws IOException {
+        checkNotClosed();
+        for (String name : new ArrayList<>(mEntries.keySet())) {
+            new File(mDir, name).delete();
+        }
+        mEntries.clear();
+        mHashes.clear();
+        mSize = 0;
+        rebuildJournal();
+    }
+
+    /**
+     * 所有值的总字节数。
+     */
+    public synchronized long size() {
+        return mSize;
+    }
+
+    public long maxSize() {
+        return mMaxBytes;
+    }
+
+    public synchronized void flush() throws IOException {
+        checkNotClosed();
+        mWriter.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (mWriter == null) return;
+        mWriter.close();
+        mWriter = null;
+    }
+
+    void addEvictionListener(EvictionListener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    void removeEvictionListener(EvictionListener listener) {
+        mListeners.remove(listener);
+    }
+
+    private boolean removeEntry(String name) throws IOException {
+        final Long size = mEntries.remove(name);
+        if (size == null) return false;
+        mHashes.remove(name);
+        new File(mDir, name).delete();
+        mSize -= size;
+        mRedundantOps++;
+        appendJournal(DEL, name, -1, true);
+        return true;
+    }
+
+    private void trimToSize() throws IOException {
+        final Iterator<Map.Entry<String, Long>> it = mEntries.entrySet().iterator();
+        while (mSize > mMaxBytes && it.hasNext()) {
+            final Map.Entry<String, Long> e = it.next();
+            it.remove();
+            mHashes.remove(e.getKey());
+            new File(mDir, e.getKey()).delete();
+            mSize -= e.getValue();
+            mRedundantOps++;
+            appendJournal(DEL, e.getKey(), -1, false);
+            for (EvictionListener listener : mListeners) {
+                listener.onEvicted(e.getKey());
+            }
+        }
+        mWriter.flush();
+    }
+
+    private void readJournal() throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mJournal), UTF_8));
+        try {
+            if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine())
+                    || !String.valueOf(mAppVersion).equals(reader.readLine()) || !"".equals(reader.readLine())) {
+                throw new IOException("journal header mismatch");
+            }
+            int lines = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                // 最后一行可能只写了一半，按格式不对忽略。
+                final String[] parts = line.split(" ");
+                if (parts.length < 2) continue;
+                final String name = parts[1];
+                if (PUT.equals(parts[0]) && (parts.length == 3 || parts.length == 4)) {
+                    final long size;
+                    final Integer hash;
+                    try {
+                        size = Long.parseLong(parts[2]);
+                        hash = parts.length == 4 ? Integer.valueOf(parts[3]) : null;
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                    final Long old = mEntries.put(name, size);
+                    if (old != null) mSize -= old;
+                    mSize += size;
+                    if (hash != null) mHashes.put(name, hash);
+                    else mHashes.remove(name);
+                } else if (DEL.equals(parts[0])) {
+                    mHashes.remove(name);
+                    final Long old = mEntries.remove(name);
+                    if (old != null) mSize -= old;
+                } else if (READ.equals(parts[0])) {
+                    mEntries.get(name);
+                }
+            }
+            mRedundantOps = lines - mEntries.size();
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    /**
+     * 删除日志中没有记录的文件（如写入了但还没来得及记录日志时崩溃）和临时文件，
+     * 以及日志中有记录但文件已不存在的条目。
+     */
+    private void deleteOrphans() {
+        final File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                final String name = file.getName();
+                if (name.equals(JOURNAL)) continue;
+                if (!mEntries.containsKey(name)) file.delete();
+            }
+        }
+        final Iterator<Map.Entry<String, Long>> it = mEntries.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<String, Long> e = it.next();
+            final File file = new File(mDir, e.getKey());
+            if (!file.isFile() || file.length() != e.getValue()) {
+                mHashes.remove(e.getKey());
+                file.delete();
+                mSize -= e.getValue();
+                it.remove();
+            }
+        }
+    }
+
+    private void rebuildJournalIfNeeded() throws IOException {
+        if (mRedundantOps >= REBUILD_THRESHOLD && mRedundantOps >= mEntries.size()) rebuildJournal();
+    }
+
+    private void rebuildJournal() throws IOException {
+        if (mWriter != null) mWriter.close();
+        final File tmp = new File(mDir, JOURNAL_TMP);
+        final FileOutputStream out = new FileOutputStream(tmp);
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(out, UTF_8));
+        try {
+            writer.write(MAGIC + '\n' + VERSION + '\n' + mAppVersion + "\n\n");
+            // 按访问顺序写入，重新读取时即可恢复LRU顺序。
+            for (Map.Entry<String, Long> e : mEntries.entrySet()) {
+                writer.write(putLine(e.getKey(), e.getValue()));
+            }
+            writer.flush();
+            out.getFD().sync();
+        } finally {
+            closeQuietly(writer);
+        }
+        if (!tmp.renameTo(mJournal)) throw new IOException("重命名失败：" + tmp);
+        mWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mJournal, true), UTF_8));
+        mRedundantOps = 0;
+    }
+
+    /**
+     * @param flush READ记录只影响LRU顺序，丢失了也无妨，不必立即写入。
+     */
+    private void appendJournal(String op, String name, long size, boolean flush) throws IOException {
+        mWriter.write(size >= 0 ? op + ' ' + name + ' ' + size + '\n' : op + ' ' + name + '\n');
+        if (flush) mWriter.flush();
+    }
+
+    private String putLine(String name, long size) {
+        final Integer hash = mHashes.get(name);
+        return PUT + ' ' + name + ' ' + size + (hash != null ? " " + hash : "") + '\n';
+    }
+
+    private void checkNotClosed() {
+        if (mWriter == null) throw new IllegalStateException("cache is closed");
+    }
+
+    static String nameOf(String key) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(UTF_8));
+            final char[] hex = new char[digest.length * 2];
+            final char[] digits = "0123456789abcdef".toCharArray();
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2] = digits[(digest[i] >> 4) & 0xf];
+                hex[i * 2 + 1] = digits[digest[i] & 0xf];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(32, in.available()));
+        final byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
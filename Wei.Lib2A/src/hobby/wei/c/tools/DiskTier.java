@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * {@link ICache.Impl}的磁盘层：读取是同步的，写入在后台线程按顺序进行。
+ * 尚未写入磁盘的值保存在内存中，读取时优先返回，因此不会读到过时的值。
+ * <p>
+ * 磁盘层只是缓存，读写失败都当作不存在处理，不影响{@link ICache.Delegate}.
+ * <p>
+ * 记录本进程写入或读到的key, 以便{@link DiskLruCache}淘汰时通过{@link Listener}告知是哪个key.
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+final class DiskTier<K, V> {
+    /**
+     * 表示待删除。
+     */
+    private static final Object REMOVED = new Object();
+
+    private final DiskLruCache mDisk;
+    private final DiskLruCache.Codec<V> mCodec;
+    private final Executor mExecutor;
+    /**
+     * 待写入磁盘的，key为{@link #keyOf(Object)}. 在本对象的锁内读写。
+     */
+    private final Map<String, Object> mPending = new LinkedHashMap<>();
+    /**
+     * 已在磁盘上的key, 以{@link DiskLruCache#nameOf(String) 文件名}索引。在本对象的锁内读写。
+     */
+    private final Map<String, K> mKeys = new HashMap<>();
+    private final Listener<K> mListener;
+    private final DiskLruCache.EvictionListener mEvictionListener;
+    private boolean mDraining;
+
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    interface Listener<K> {
+        /**
+         * 在{@link DiskLruCache}的锁内回调。
+         */
+        void onEvicted(K key);
+    }
+
+    DiskTier(DiskLruCache disk, DiskLruCache.Codec<V> codec, Executor executor, Listener<K> listener) {
+        mDisk = disk;
+        mCodec = codec;
+        mExecutor = executor;
+        mListener = listener;
+        mEvictionListener = new DiskLruCache.EvictionListener() {
+            @Override
+            public void onEvicted(String name) {
+                final K key;
+                synchronized (DiskTier.this) {
+                    key = mKeys.remove(name);
+                }
+                // 可能是共用同一个DiskLruCache的其它缓存的。
+                if (key != null) mListener.onEvicted(key);
+            }
+        };
+        mDisk.addEvictionListener(mEvictionListener);
+    }
+
+    /**
+     * 取消对{@link DiskLruCache}淘汰的监听，否则本对象会一直被其持有。
+     */
+    void close() {
+        mDisk.removeEvictionListener(mEvictionListener);
+    }
+
+    /**
+     * @return 是否在磁盘上或正等待写入。只知道本进程写入或读到过的key.
+     */
+    synchronized boolean contains(K key) {
+        final String k = keyOf(key);
+        final Object pending = mPending.get(k);
+        if (pending != null) return pending != REMOVED;
+        return mKeys.containsKey(DiskLruCache.nameOf(k));
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(K key) {
+        final String k = keyOf(key);
+        synchronized (this) {
+            final Object pending = mPending.get(k);
+            if (pending != null) return pending == REMOVED ? null : ((Write<K, V>) pending).value;
+        }
+        try {
+            final byte[] data = mDisk.get(k);
+            if (data == null) return null;
+            final V value = mCodec.decode(data);
+            if (value == null) {
+                discard(k);
+            } else {
+                synchronized (this) {
+                    mKeys.put(DiskLruCache.nameOf(k), key);
+                }
+            }
+            return value;
+        } catch (IOException | RuntimeException e) {
+            discard(k);
+            return null;
+        }
+    }
+
+    /**
+     * 删除无法读取的值。
+     */
+    private void discard(String key) {
+        try {
+            mDisk.remove(key);
+        } catch (IOException | RuntimeException ignored) {
+        }
+        synchronized (this) {
+            mKeys.remove(DiskLruCache.nameOf(key));
+        }
+    }
+
+    void put(K key, V value) {
+        enqueue(keyOf(key), new Write<>(key, value));
+    }
+
+    void remove(K key) {
+        enqueue(keyOf(key), REMOVED);
+    }
+
+    /**
+     * 删除磁盘上key的hashCode（即{@link String#valueOf(Object)}的）为hash的值，包括本进程不知道的key.
+     * 正等待写入的不受影响，须由调用方按key{@link #remove}.
+     */
+    void removeByHash(int hash) {
+        final List<String> names;
+        try {
+            names = mDisk.removeByHash(hash);
+        } catch (IOException | RuntimeException e) {
+            return;
+        }
+        synchronized (this) {
+            for (String name : names) {
+                mKeys.remove(name);
+            }
+        }
+    }
+
+    void clear() {
+        synchronized (this) {
+            mPending.clear();
+            mKeys.clear();
+        }
+        try {
+            mDisk.clear();
+        } catch (IOException | RuntimeException ignored) {
+        }
+    }
+
+    private void enqueue(String key, Object value) {
+        synchronized (this) {
+            // 先删除再放入，以保持写入顺序与调用顺序一致。
+            mPending.remove(key);
+            mPending.put(key, value);
+            if (mDraining) return;
+            mDraining = true;
+        }
+        try {
+            mExecutor.execute(mDrainTask);
+        } catch (RejectedExecutionException e) {
+            drain();
+        }
+    }
+
+    /**
+     * 同一时刻只有一个线程在执行，因此对同一个key的写入是有序的。
+     */
+    @SuppressWarnings("unchecked")
+    private void drain() {
+        while (true) {
+            final String key;
+            final Object value;
+            synchronized (this) {
+                final Iterator<Map.Entry<String, Object>> it = mPending.entrySet().iterator();
+                if (!it.hasNext()) {
+                    mDraining = false;
+                    return;
+                }
+                final Map.Entry<String, Object> e = it.next();
+                key = e.getKey();
+                value = e.getValue();
+            }
+            final String name = DiskLruCache.nameOf(key);
+            try {
+                if (value == REMOVED) {
+                    mDisk.remove(key);
+                    synchronized (this) {
+                        mKeys.remove(name);
+                    }
+                } else {
+                    final Write<K, V> write = (Write<K, V>) value;
+                    // 先记录再写入，写入时即被淘汰的也能通过mEvictionListener移除。
+                    synchronized (this) {
+                        mKeys.put(name, write.key);
+                    }
+                    mDisk.put(key, mCodec.encode(write.value));
+                }
+            } catch (IOException | RuntimeException ignored) {
+                // 写入失败只是少了一个缓存。磁盘上可能还有旧值，此时保留记录。
+                if (value != REMOVED && !mDisk.contains(key)) {
+                    synchronized (this) {
+                        mKeys.remove(name);
+                    }
+                }
+            }
+            synchronized (this) {
+                // 期间有新的值则保留，下一轮写入。
+                if (mPending.get(key) == value) mPending.remove(key);
+            }
+        }
+    }
+
+    private static String keyOf(Object key) {
+        return String.valueOf(key);
+    }
+
+    private static final class Write<K, V> {
+        final K key;
+        final V value;
+
+        Write(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
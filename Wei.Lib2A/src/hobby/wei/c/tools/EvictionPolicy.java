@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.util.List;
+
+/**
+ * {@link LruCache}的淘汰策略。不指定时，{@link LruCache}使用按访问顺序排列的LRU.
+ * <p>
+ * 策略只维护key的顺序（及其它元数据），数据本身仍由{@link LruCache}存放。所有方法都在
+ * {@link LruCache}的锁内被调用，因此实现不需要是线程安全的，但应尽量轻量。
+ * <p>
+ * 一个策略实例只能用于一个缓存。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public interface EvictionPolicy<K> {
+    /**
+     * 在构造缓存及{@link LruCache#resize(int)}时被调用。
+     *
+     * @param maxSize 单位同{@link LruCache#sizeOf}.
+     */
+    void setMaximum(int maxSize);
+
+    /**
+     * 新增了一个条目。
+     */
+    void onAdd(K key, int size);
+
+    /**
+     * 已有条目的值被替换了。
+     */
+    void onUpdate(K key, int size);
+
+    /**
+     * 条目被命中。
+     */
+    void onAccess(K key);
+
+    /**
+     * 条目被显式移除（不包括由{@link #evict()}返回的）。
+     */
+    void onRemove(K key);
+
+    /**
+     * 选出下一个要被淘汰的条目，并将其从策略中移除。仅在缓存超出容量时被调用，
+     * 返回的可能是刚刚{@link #onAdd(Object, int) 加入}的条目（即拒绝准入）。
+     *
+     * @return 没有可淘汰的条目时返回null.
+     */
+    K evict();
+
+    /**
+     * @return 所有的key，按被淘汰的先后顺序（即最先被淘汰的在前）。
+     */
+    List<K> order();
+}
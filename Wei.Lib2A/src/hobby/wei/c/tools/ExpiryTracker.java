@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 为{@link ICache.Impl}记录每个条目的写入及访问时间，并通过{@link TimerWheel}找出过期的条目。
+ * <p>
+ * 命中时的检查({@link #onRead})是无锁的：访问时间只是写一个volatile字段，
+ * 定时器在到期时才根据最新的访问时间决定是真正过期还是顺延，因此不需要在每次命中时重新调度。
+ * <p>
+ * 其它方法须在构造时传入的锁内调用，这个锁也应当保护对缓存本身的增删，以保证两者一致。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+final class ExpiryTracker<K, V> {
+    static final int FRESH = 0, EXPIRED = 1, REFRESH = 2;
+    /**
+     * 推进时间轮的最小间隔，即第一层桶的时长。
+     */
+    private static final long ADVANCE_INTERVAL_NANOS = 1L << 30;
+
+    private final long mExpireAfterWrite, mExpireAfterAccess, mRefreshAfterWrite;
+    private final ConcurrentMap<K, Timing<K, V>> mTimings = new ConcurrentHashMap<>();
+    private final TimerWheel<K> mWheel;
+    private volatile long mNextAdvance;
+
+    /**
+     * 各参数单位为纳秒，不大于0表示不启用。
+     */
+    ExpiryTracker(long expireAfterWrite, long expireAfterAccess, long refreshAfterWrite) {
+        mExpireAfterWrite = expireAfterWrite;
+        mExpireAfterAccess = expireAfterAccess;
+        mRefreshAfterWrite = refreshAfterWrite;
+        final long now = System.nanoTime();
+        mWheel = new TimerWheel<>(now);
+        mNextAdvance = now + ADVANCE_INTERVAL_NANOS;
+    }
+
+    private boolean expires() {
+        return mExpireAfterWrite > 0 || mExpireAfterAccess > 0;
+    }
+
+    /**
+     * 须在锁内、且在把值放入缓存<b>之前</b>调用（放入时若被立即淘汰，{@link #onRemoved}能正确清理）。
+     */
+    void onWrite(K key, V value, long now) {
+        final Timing<K, V> timing = new Timing<>(key, value, now);
+        final Timing<K, V> old = mTimings.put(key, timing);
+        if (old != null) mWheel.deschedule(old);
+        if (expires()) mWheel.schedule(timing, deadline(timing));
+    }
+
+    /**
+     * 须在锁内调用。仅当被移除的值就是当前记录的值时才清理，替换的情况由{@link #onWrite}处理。
+     */
+    void onRemoved(K key, V value) {
+        final Timing<K, V> timing = mTimings.get(key);
+        if (timing != null && timing.value == value) {
+            mTimings.remove(key);
+            mWheel.deschedule(timing);
+        }
+    }
+
+    /**
+     * 无锁。命中时调用。
+     *
+     * @param refreshAhead 是否允许返回{@link #REFRESH}. 返回{@link #REFRESH}后，在
+     *                     {@link #onWrite 写入}新值或{@link #onRefreshFailed 失败}之前不会再次返回。
+     */
+    int onRead(K key, V value, long now, boolean refreshAhead) {
+        final Timing<K, V> timing = mTimings.get(key);
+        if (timing == null || timing.value != value) return FRESH;
+        if (isExpired(timing, now)) return EXPIRED;
+        if (mExpireAfterAccess > 0) timing.accessTime = now;
+        if (refreshAhead && mRefreshAfterWrite > 0 && now - timing.writeTime >= mRefreshAfterWrite
+                && timing.refreshing.compareAndSet(false, true)) {
+            return REFRESH;
+        }
+        return FRESH;
+    }
+
+    void onRefreshFailed(K key) {
+        final Timing<K, V> timing = mTimings.get(key);
+        if (timing != null) timing.refreshing.set(false);
+    }
+
+    /**
+     * 须在锁内调用。若当前记录的值仍是value且已过期，则移除记录并返回true.
+     */
+    boolean expireIfCurrent(K key, V value, long now) {
+        final Timing<K, V> timing = mTimings.get(key);
+        if (timing != null && timing.value == value && isExpired(timing, now)) {
+            mTimings.remove(key);
+            mWheel.deschedule(timing);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 无锁。是否到了该推进时间轮的时候。
+     */
+    boolean isAdvanceDue(long now) {
+        return expires() && now - mNextAdvance >= 0;
+    }
+
+    /**
+     * 须在锁内调用。推进时间轮，移除并返回已过期条目的key, 调用方应随即把它们从缓存中移除。
+     */
+    List<K> advance(long now) {
+        mNextAdvance = now + ADVANCE_INTERVAL_NANOS;
+        final List<TimerWheel.Timer<K>> timers = mWheel.advance(now);
+        if (timers == null) return null;
+        final List<K> expired = new ArrayList<>(timers.size());
+        for (TimerWheel.Timer<K> timer : timers) {
+            @SuppressWarnings("unchecked")
+            final Timing<K, V> timing = (Timing<K, V>) timer;
+            if (mTimings.get(timing.key) != timing) continue;
+            if (isExpired(timing, now)) {
+                mTimings.remove(timing.key);
+                expired.add(timing.key);
+            } else {
+                // 期间被访问过，顺延。
+                mWheel.schedule(timing, deadline(timing));
+            }
+        }
+        return expired;
+    }
+
+    private boolean isExpired(Timing<K, V> timing, long now) {
+        return (mExpireAfterWrite > 0 && now - timing.writeTime >= mExpireAfterWrite)
+                || (mExpireAfterAccess > 0 && now - timing.accessTime >= mExpireAfterAccess);
+    }
+
+    private long deadline(Timing<K, V> timing) {
+        long deadline = Long.MAX_VALUE;
+        if (mExpireAfterWrite > 0) deadline = timing.writeTime + mExpireAfterWrite;
+        if (mExpireAfterAccess > 0) deadline = Math.min(deadline, timing.accessTime + mExpireAfterAccess);
+        return deadline;
+    }
+
+    private static final class Timing<K, V> extends TimerWheel.Timer<K> {
+        final V value;
+        final long writeTime;
+        volatile long accessTime;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Timing(K key, V value, long now) {
+            super(key);
+            this.value = value;
+            this.writeTime = now;
+            this.accessTime = now;
+        }
+    }
+}
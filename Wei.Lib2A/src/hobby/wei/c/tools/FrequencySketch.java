@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+/**
+ * 用于估算key近期访问频率的Count-Min Sketch. 每个计数器占4 bit（最大15），
+ * 一个long存放16个计数器，每个key对应4个计数器，取其最小值作为估算值。
+ * <p>
+ * 当记录的次数达到样本上限时，所有计数器减半，使旧的访问记录逐渐失效（老化）。
+ * <p>
+ * 非线程安全。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+final class FrequencySketch {
+    private static final long[] SEED = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final int MAX_CAPACITY = 1 << 20;
+
+    private long[] mTable = new long[0];
+    private int mTableMask;
+    private int mSampleSize;
+    private int mSize;
+
+    /**
+     * 表不小于条目数，扩大时按2的幂增长，之前的计数清零。
+     *
+     * @param maximum 当前的条目数。
+     */
+    void ensureCapacity(int maximum) {
+        final int capacity = StripedCounter.ceilingPowerOfTwo(Math.max(1, Math.min(maximum, MAX_CAPACITY)));
+        if (mTable.length >= capacity) return;
+        mTable = new long[capacity];
+        mTableMask = Math.max(0, capacity - 1);
+        mSampleSize = 10 * capacity;
+        mSize = 0;
+    }
+
+    int frequency(Object key) {
+        final int hash = spread(key.hashCode());
+        final int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            final int index = indexOf(hash, i);
+            final int count = (int) ((mTable[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    void increment(Object key) {
+        final int hash = spread(key.hashCode());
+        final int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++mSize >= mSampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int i, int j) {
+        final int offset = j << 2;
+        final long mask = 0xfL << offset;
+        if ((mTable[i] & mask) != mask) {
+            mTable[i] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 所有计数器减半。
+     */
+    private void reset() {
+        int count = 0;
+        for (int i = 0; i < mTable.length; i++) {
+            count += Long.bitCount(mTable[i] & ONE_MASK);
+            mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+        }
+        mSize = (mSize >>> 1) - (count >>> 2);
+    }
+
+    private int indexOf(int item, int i) {
+        long hash = (item + SEED[i]) * SEED[i];
+        hash += hash >>> 32;
+        return ((int) hash) & mTableMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -16,6 +16,30 @@
 
 package hobby.wei.c.tools;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * @author Wei.Chou
  * @version 1.0, 23/03/2017
@@ -25,6 +49,19 @@ public interface ICache<K, V> {
 
     V getOnly(K key);
 
+    /**
+     * 同{@link #get(Object)}, 但需要加载时在后台线程执行。命中时返回的Future已经完成。
+     */
+    Future<V> getAsync(K key);
+
+    /**
+     * 批量获取。未命中的key若{@link Delegate}实现了{@link Delegate.Bulk}, 则通过一次
+     * {@link Delegate.Bulk#loadAll(Collection)}加载，否则逐个{@link Delegate#load(Object)}.
+     *
+     * @return 按keys的顺序，不包含值为null的key.
+     */
+    Map<K, V> getAll(Collection<K> keys);
+
     V refresh(K key);
 
     void dirty(K key);
@@ -33,21 +70,406 @@ public interface ICache<K, V> {
 
     void clear();
 
+    /**
+     * 作废所有带有该标签的条目，效果同对每个条目调用{@link #dirty(Object)}. 标签由{@link Builder#tagger(Tagger)}指定。
+     *
+     * @return 作废的条目数。
+     */
+    int invalidateTag(Object tag);
+
+    /**
+     * 作废所有带有以prefix开头的String标签的条目。
+     *
+     * @return 作废的条目数。
+     */
+    int invalidatePrefix(String prefix);
+
     interface Delegate<K, V> {
         V load(K key);
 
         boolean update(K key, V value);
+
+        /**
+         * 支持批量加载的{@link Delegate}, 如一次数据库查询或网络请求取回多条数据。
+         */
+        interface Bulk<K, V> extends Delegate<K, V> {
+            /**
+             * @return 加载到的值，不存在的key可以不包含在内。
+             */
+            Map<K, V> loadAll(Collection<K> keys);
+        }
+
+        /**
+         * 支持批量写入的{@link Delegate}, 用于{@link Builder#writeBehind 延迟写入}模式。
+         */
+        interface Batch<K, V> extends Delegate<K, V> {
+            /**
+             * @return 是否全部写入成功。返回false时，这些key在缓存中的值都会作废。
+             */
+            boolean updateAll(Map<K, V> values);
+        }
+    }
+
+    /**
+     * 估算一个条目的权重（通常为字节数），用于按内存占用而不是条数来限制缓存大小。
+     * 常用的实现见{@link Weighers}.
+     * <p>
+     * 同一个条目在放入和移除时都会被估算，两次的结果必须相同，且不能为负数。
+     */
+    interface Weigher<K, V> {
+        int weigh(K key, V value);
+    }
+
+    /**
+     * 为key指定标签，用于{@link #invalidateTag(Object)}、{@link #invalidatePrefix(String)}批量作废，
+     * 如按用户id作废该用户的所有条目。
+     */
+    interface Tagger<K> {
+        /**
+         * 同一个key每次返回的标签必须相同。String类型的标签还可以用于{@link #invalidatePrefix(String)}.
+         *
+         * @return 可以为null或空。
+         */
+        Collection<?> tagsOf(K key);
+    }
+
+    /**
+     * 在多个进程的同名缓存之间传递作废消息，见{@link Builder#invalidationChannel(InvalidationChannel)}.
+     * Android上的实现见{@code hobby.wei.c.persist.CacheInvalidationChannel}.
+     * <p>
+     * 消息只包含缓存名和key的哈希值（{@code String.valueOf(key).hashCode()}），哈希冲突只会多作废几个条目。
+     * 实现应忽略本进程自己发出的消息。
+     */
+    interface InvalidationChannel {
+        void publish(String cacheName, int keyHash);
+
+        void subscribe(String cacheName, Listener listener);
+
+        void unsubscribe(String cacheName, Listener listener);
+
+        interface Listener {
+            /**
+             * 可能在任意线程回调。
+             */
+            void onInvalidate(int keyHash);
+        }
+    }
+
+    /**
+     * 用于构造带有更多选项的{@link Impl}. 用法示例：
+     * <pre><code>
+     * ICache&lt;String, Xxx&gt; cache = new ICache.Builder&lt;String, Xxx&gt;(20)
+     *          .expireAfterWrite(10, TimeUnit.MINUTES)
+     *          .refreshAfterWrite(1, TimeUnit.MINUTES)
+     *          .build(delegate);
+     * </code></pre>
+     */
+    class Builder<K, V> {
+        /**
+         * 避免时间相加时溢出。
+         */
+        private static final long MAX_DURATION_NANOS = Long.MAX_VALUE >> 2;
+
+        final int cacheSize;
+        EvictionPolicy<K> policy;
+        long expireAfterWriteNanos;
+        long expireAfterAccessNanos;
+        long refreshAfterWriteNanos;
+        Executor executor;
+        Weigher<? super K, ? super V> weigher;
+        MemoryBudget budget;
+        String name;
+        boolean softValues;
+        long writeDelayNanos;
+        int writeBatchSize, maxPendingWrites;
+        DiskLruCache disk;
+        DiskLruCache.Codec<V> codec;
+        Tagger<? super K> tagger;
+        InvalidationChannel channel;
+        File snapshotFile;
+        int snapshotVersion, snapshotMaxEntries;
+        DiskLruCache.Codec<K> snapshotKeyCodec;
+        DiskLruCache.Codec<V> snapshotValueCodec;
+        long negativeTtlNanos;
+        int negativeMaxEntries;
+        boolean negativeBloom;
+
+        /**
+         * @param cacheSize 单位：条（一个key-value对为一条）；若设置了{@link #weigher(Weigher)},
+         *                  则与{@link Weigher#weigh(Object, Object)}单位相同。
+         */
+        public Builder(int cacheSize) {
+            this.cacheSize = cacheSize;
+        }
+
+        /**
+         * @param policy 淘汰策略，如{@link TinyLfuPolicy}、{@link S3FifoPolicy}, 为null则使用LRU.
+         */
+        public Builder<K, V> policy(EvictionPolicy<K> policy) {
+            this.policy = policy;
+            return this;
+        }
+
+        /**
+         * 写入（加载或更新）之后超过该时长，条目即过期，下次{@link #get(Object)}时重新加载。
+         */
+        public Builder<K, V> expireAfterWrite(long duration, TimeUnit unit) {
+            expireAfterWriteNanos = toNanos(duration, unit);
+            return this;
+        }
+
+        /**
+         * 最后一次写入或命中之后超过该时长，条目即过期。
+         */
+        public Builder<K, V> expireAfterAccess(long duration, TimeUnit unit) {
+            expireAfterAccessNanos = toNanos(duration, unit);
+            return this;
+        }
+
+        /**
+         * 写入之后超过该时长再被命中时，在后台线程重新{@link Delegate#load(Object) 加载}，
+         * 加载完成之前仍返回旧值。应小于过期时长，否则条目会先过期。
+         */
+        public Builder<K, V> refreshAfterWrite(long duration, TimeUnit unit) {
+            refreshAfterWriteNanos = toNanos(duration, unit);
+            return this;
+        }
+
+        /**
+         * 执行后台任务（如{@link #refreshAfterWrite 提前刷新}）的线程池，默认为{@link Background#executor()}.
+         */
+        public Builder<K, V> executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * 按权重（如字节数）而不是条数计算缓存大小。
+         */
+        public Builder<K, V> weigher(Weigher<? super K, ? super V> weigher) {
+            this.weigher = weigher;
+            return this;
+        }
+
+        /**
+         * 因容量不足被淘汰（包括内存不足时被{@link CacheRegistry#trimAll(float) 收缩}）的值以软引用保留，
+         * 再次访问时若尚未被GC回收，则直接取回而不必重新加载。取回的值按新写入计算过期时间。
+         */
+        public Builder<K, V> softValues() {
+            this.softValues = true;
+            return this;
+        }
+
+        /**
+         * 在{@link CacheRegistry}中显示的名字。
+         */
+        public Builder<K, V> name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * 加入一个与其它缓存共享的内存预算，如{@link hobby.wei.c.framework.Config#memoryBudget()}.
+         * 通常应同时设置{@link #weigher(Weigher)}, 且单位与预算一致。
+         */
+        public Builder<K, V> budget(MemoryBudget budget) {
+            this.budget = budget;
+            return this;
+        }
+
+        /**
+         * 延迟写入模式：{@link #update(Object, Object)}立即更新缓存并返回true, 由后台线程稍后调用
+         * {@link Delegate#update(Object, Object)}（若实现了{@link Delegate.Batch}, 则批量写入）。
+         * 同一个key在写入前的多次更新只写入最后一次。
+         * <p>
+         * 写入失败（抛出异常）的稍后重试；{@link Delegate#update(Object, Object)}返回false的，
+         * 其缓存的值作废。可通过{@link Impl#flush()}、{@link Impl#close()}立即写入。
+         *
+         * @param delay      第一次更新之后最多延迟多久写入。
+         * @param batchSize  积累到这个数量就立即写入，也是每一批的最大数量。
+         * @param maxPending 待写入的最大数量，达到之后由调用{@link #update(Object, Object)}的线程同步写入。
+         */
+        public Builder<K, V> writeBehind(long delay, TimeUnit unit, int batchSize, int maxPending) {
+            if (batchSize <= 0) throw new IllegalArgumentException("batchSize <= 0");
+            if (maxPending < batchSize) throw new IllegalArgumentException("maxPending < batchSize");
+            writeDelayNanos = toNanos(delay, unit);
+            writeBatchSize = batchSize;
+            maxPendingWrites = maxPending;
+            return this;
+        }
+
+        /**
+         * 在内存之后增加一层磁盘缓存：{@link #get(Object)}内存未命中时先读磁盘，再{@link Delegate#load(Object)}；
+         * 加载或更新的值在后台线程写入磁盘。磁盘上的文件以{@code String.valueOf(key)}区分，
+         * 因此key的toString()应当能唯一地标识它。
+         * <p>
+         * {@link #refresh(Object)}和{@link #refreshAfterWrite 提前刷新}不读磁盘，总是加载并覆盖磁盘上的值；
+         * 内存中的条目过期时，磁盘上的值也一并删除。注意被淘汰出内存之后，从磁盘读出的值按新写入计算过期时间。
+         */
+        public Builder<K, V> diskCache(DiskLruCache disk, DiskLruCache.Codec<V> codec) {
+            if (disk == null || codec == null) throw new NullPointerException("disk or codec");
+            this.disk = disk;
+            this.codec = codec;
+            return this;
+        }
+
+        /**
+         * 为条目建立标签索引，以支持{@link #invalidateTag(Object)}、{@link #invalidatePrefix(String)}.
+         * 索引随条目的放入、淘汰而更新；设置了{@link #diskCache 磁盘缓存}或{@link #softValues()}时，
+         * 被淘汰出内存的条目仍保留在索引中，直到也被磁盘缓存淘汰、被GC回收、被作废或{@link #clear()}.
+         * 注意磁盘缓存中以前的进程写入、本进程尚未读到的条目不在索引中。
+         */
+        public Builder<K, V> tagger(Tagger<? super K> tagger) {
+            this.tagger = tagger;
+            return this;
+        }
+
+        /**
+         * 在其它进程中的同名缓存之间保持一致：本进程{@link #update(Object, Object)}（写入{@link Delegate}之后）
+         * 或{@link #dirty(Object)}时，通知其它进程作废该key, 使其下次访问时重新加载，而不必依赖很短的过期时间。
+         * {@link #clear()}只作用于本进程。必须同时设置{@link #name(String)}, 各进程以名字对应。
+         */
+        public Builder<K, V> invalidationChannel(InvalidationChannel channel) {
+            this.channel = channel;
+            return this;
+        }
+
+        /**
+         * 预热：应用退到后台时（见{@link MemoryTrimmer}）把最近访问的条目保存到file, 下次创建本缓存时在后台线程放回
+         * （见{@link Impl#restoreSnapshot()}），
+         * 以免冷启动时集中调用{@link Delegate#load(Object)}. 放回的值按新写入计算过期时间，且不会覆盖此时
+         * 已在缓存中或正在加载的值。快照放回后即被删除，只使用一次。
+         *
+         * @param file       通常位于{@code Context.getCacheDir()}下，各缓存不能相同。
+         * @param version    数据的格式或含义变化时递增，版本不符的快照会被丢弃。
+         * @param maxEntries 最多保存的条目数。
+         */
+        public Builder<K, V> snapshot(File file, int version, int maxEntries,
+                                      DiskLruCache.Codec<K> keyCodec, DiskLruCache.Codec<V> valueCodec) {
+            if (file == null || keyCodec == null || valueCodec == null) throw new NullPointerException("file or codec");
+            if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries <= 0");
+            snapshotFile = file;
+            snapshotVersion = version;
+            snapshotMaxEntries = maxEntries;
+            snapshotKeyCodec = keyCodec;
+            snapshotValueCodec = valueCodec;
+            return this;
+        }
+
+        /**
+         * 记住{@link Delegate#load(Object)}返回null的key, 在duration之内对其{@link #get(Object)}、{@link #getAll(Collection)}
+         * 直接返回null, 不再加载。{@link #update(Object, Object)}、{@link #dirty(Object)}或放入该key时立即清除其记录；
+         * {@link #refresh(Object)}总是加载。
+         *
+         * @param maxEntries  最多记住的key数，超出时最早记录的先被忘记。
+         * @param bloomFilter 是否以布隆过滤器预先排除不在记录中的key, 使绝大多数查询不必获取锁。
+         *                    只用于加速，误判不会使存在的key被当作不存在。
+         */
+        public Builder<K, V> negativeCache(long duration, TimeUnit unit, int maxEntries, boolean bloomFilter) {
+            if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries <= 0");
+            negativeTtlNanos = toNanos(duration, unit);
+            negativeMaxEntries = maxEntries;
+            negativeBloom = bloomFilter;
+            return this;
+        }
+
+        public Impl<K, V> build(Delegate<K, V> delegate) {
+            final Impl<K, V> cache = new Impl<>(this, delegate);
+            cache.restoreSnapshot();
+            return cache;
+        }
+
+        public Impl.SyncGet<K, V> buildSyncGet(Delegate<K, V> delegate) {
+            final Impl.SyncGet<K, V> cache = new Impl.SyncGet<>(this, delegate);
+            cache.restoreSnapshot();
+            return cache;
+        }
+
+        public Impl.Sync<K, V> buildSync(Delegate<K, V> delegate) {
+            final Impl.Sync<K, V> cache = new Impl.Sync<>(this, delegate);
+            cache.restoreSnapshot();
+            return cache;
+        }
+
+        private static long toNanos(long duration, TimeUnit unit) {
+            if (duration <= 0) throw new IllegalArgumentException("duration <= 0");
+            return Math.min(unit.toNanos(duration), MAX_DURATION_NANOS);
+        }
     }
 
-    class Impl<K, V> implements ICache<K, V> {
+    class Impl<K, V> implements ICache<K, V>, MemoryBudget.Member, CacheStats.Provider, CacheRegistry.Trimmable,
+            CacheRegistry.Snapshottable {
         protected final LruCache<K, V> mLruCache;
         protected final Delegate<K, V> mDelegate;
+        private final Executor mExecutor;
+        /**
+         * 未设置任何时间相关的选项时为null. 与{@link #mLruCache}的增删都在{@link #mLruCache}的锁内进行。
+         */
+        private final ExpiryTracker<K, V> mExpiry;
+        private final Weigher<? super K, ? super V> mWeigher;
+        private final MemoryBudget mBudget;
+        /**
+         * 非{@link Builder#writeBehind 延迟写入}模式时为null.
+         */
+        private final WriteBehind<K, V> mWriteBehind;
+        /**
+         * 未设置{@link Builder#diskCache 磁盘缓存}时为null.
+         */
+        private final DiskTier<K, V> mDisk;
+        private final String mName;
+        /**
+         * 未设置{@link Builder#softValues()}时为null.
+         */
+        private final SoftValues<K, V> mSoftValues;
+        /**
+         * 未设置{@link Builder#tagger(Tagger)}和{@link Builder#invalidationChannel}时为null.
+         * 与{@link #mLruCache}的增删都在{@link #mLruCache}的锁内进行。
+         */
+        private final TagIndex<K> mTags;
+        /**
+         * 未设置{@link Builder#invalidationChannel}时为null.
+         */
+        private final InvalidationChannel mChannel;
+        private final InvalidationChannel.Listener mChannelListener;
+        /**
+         * 未设置{@link Builder#snapshot}时mSnapshotFile为null.
+         */
+        private final File mSnapshotFile;
+        private final int mSnapshotVersion, mSnapshotMaxEntries;
+        private final DiskLruCache.Codec<K> mSnapshotKeyCodec;
+        private final DiskLruCache.Codec<V> mSnapshotValueCodec;
+        private final AtomicBoolean mSnapshotRestored = new AtomicBoolean();
+        /**
+         * 未设置{@link Builder#negativeCache}时为null.
+         */
+        private final NegativeCache<K> mNegative;
+        /**
+         * 正在加载中的key. 同一个key同时只会有一个{@link Delegate#load(Object)}在执行，
+         * 其它线程等待其结果；不同key之间互不影响。
+         */
+        private final ConcurrentMap<K, Flight<V>> mFlights = new ConcurrentHashMap<>();
 
         /**
          * @param cacheSize 单位：条（一个key-value对为一条）。
          */
         public Impl(int cacheSize, Delegate<K, V> delegate) {
-            mLruCache = new LruCache<K, V>(cacheSize) {
+            this(cacheSize, null, delegate);
+        }
+
+        /**
+         * @param cacheSize 单位：条（一个key-value对为一条）。
+         * @param policy    淘汰策略，如{@link TinyLfuPolicy}、{@link S3FifoPolicy}, 为null则使用LRU.
+         */
+        public Impl(int cacheSize, EvictionPolicy<K> policy, Delegate<K, V> delegate) {
+            this(new Builder<K, V>(cacheSize).policy(policy), delegate);
+        }
+
+        /**
+         * 设置了{@link Builder#snapshot}的，构造之后须调用{@link #restoreSnapshot()}（{@link Builder#build}等已调用）。
+         */
+        public Impl(Builder<K, V> builder, Delegate<K, V> delegate) {
+            mWeigher = builder.weigher;
+            mLruCache = new LruCache<K, V>(builder.cacheSize, builder.policy) {
                 @Override
                 protected int sizeOf(K key, V value) {
             /*
@@ -55,72 +477,686 @@ public interface ICache<K, V> {
              * 一是性能问题；
              * 二是涉及到共享对象、循环引用、32/64位处理器对象头、引用压缩、4/8bytes对齐等因素的不确定性，
              * 要做到准确性，代价很大，没必要。
-             * 因此这里按条数，一条数据的占用就是1。
+             * 因此默认按条数，一条数据的占用就是1；需要按内存占用时，由调用方提供对具体类型的估算。
              */
-                    return 1;
+                    return mWeigher == null ? 1 : mWeigher.weigh(key, value);
+                }
+
+                @Override
+                protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+                    onEntryRemoved(evicted, key, oldValue, newValue);
                 }
             };
             mDelegate = delegate;
+            mExecutor = builder.executor != null ? builder.executor : Background.executor();
+            mExpiry = builder.expireAfterWriteNanos > 0 || builder.expireAfterAccessNanos > 0
+                    || builder.refreshAfterWriteNanos > 0 ? new ExpiryTracker<K, V>(builder.expireAfterWriteNanos,
+                    builder.expireAfterAccessNanos, builder.refreshAfterWriteNanos) : null;
+            mBudget = builder.budget;
+            if (mBudget != null) mBudget.register(this);
+            mName = builder.name;
+            mSoftValues = !builder.softValues ? null : new SoftValues<K, V>(new SoftValues.Listener<K>() {
+                @Override
+                public void onCleared(K key) {
+                    untagIfGone(key);
+                }
+            });
+            if (builder.channel != null && builder.name == null) {
+                throw new IllegalArgumentException("invalidationChannel需要同时设置name");
+            }
+            mChannel = builder.channel;
+            mTags = builder.tagger == null && mChannel == null ? null
+                    : new TagIndex<K>(builder.tagger, mChannel != null);
+            // 以自身代替内部的mLruCache, 统计数据是同一份。
+            CacheRegistry.unregister(mLruCache);
+            CacheRegistry.register(this, mName);
+            mDisk = builder.disk == null ? null : new DiskTier<K, V>(builder.disk, builder.codec, mExecutor,
+                    new DiskTier.Listener<K>() {
+                        @Override
+                        public void onEvicted(K key) {
+                            untagIfGone(key);
+                        }
+                    });
+            mWriteBehind = builder.writeBatchSize <= 0 ? null : new WriteBehind<>(delegate, new WriteBehind.Callback<K>() {
+                @Override
+                public void onRejected(K key) {
+                    dirty(key);
+                }
+
+                @Override
+                public void onWritten(K key) {
+                    publish(key);
+                }
+            }, mExecutor, Background.scheduler(), builder.writeDelayNanos,
+                    builder.writeBatchSize, builder.maxPendingWrites);
+            if (mChannel == null) {
+                mChannelListener = null;
+            } else {
+                mChannelListener = new InvalidationChannel.Listener() {
+                    @Override
+                    public void onInvalidate(int keyHash) {
+                        onRemoteInvalidate(keyHash);
+                    }
+                };
+                mChannel.subscribe(mName, mChannelListener);
+            }
+            mSnapshotFile = builder.snapshotFile;
+            mSnapshotVersion = builder.snapshotVersion;
+            mSnapshotMaxEntries = builder.snapshotMaxEntries;
+            mSnapshotKeyCodec = builder.snapshotKeyCodec;
+            mSnapshotValueCodec = builder.snapshotValueCodec;
+            mNegative = builder.negativeTtlNanos <= 0 ? null : new NegativeCache<K>(builder.negativeTtlNanos,
+                    builder.negativeMaxEntries, builder.negativeBloom);
+        }
+
+        @Override
+        public long weight() {
+            return mLruCache.size();
+        }
+
+        @Override
+        public void trimWeight(long maxWeight) {
+            mLruCache.trimToSize((int) Math.min(maxWeight, Integer.MAX_VALUE));
         }
 
         @Override
         public V get(K key) {
-            V value = mLruCache.get(key);
-            if (value == null) {
-                value = refresh(key);
+            V value = lookup(key, true);
+            if (value == null && !isKnownAbsent(key)) {
+                value = refresh(key, true);
             }
             return value;
         }
 
         @Override
         public V getOnly(K key) {
-            return mLruCache.get(key);
+            return lookup(key, false);
         }
 
+        /**
+         * 在{@link Builder#executor(Executor)}中加载。若线程池已满，则在当前线程加载。
+         */
         @Override
-        public V refresh(K key) {
-            final V value = mDelegate.load(key);
-            if (value != null) mLruCache.put(key, value);
+        public Future<V> getAsync(final K key) {
+            final V value = lookup(key, true);
+            final boolean done = value != null || isKnownAbsent(key);
+            final FutureTask<V> task = new FutureTask<>(new Callable<V>() {
+                @Override
+                public V call() {
+                    // 已经查找过了，不再经过get(), 以免同一次读取被重复统计或重复触发提前刷新。
+                    return done ? value : refresh(key, true);
+                }
+            });
+            if (done) {
+                // 命中的话不会阻塞，直接在当前线程完成。
+                task.run();
+                return task;
+            }
+            try {
+                mExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.run();
+            }
+            return task;
+        }
+
+        @Override
+        public Map<K, V> getAll(Collection<K> keys) {
+            final Map<K, V> found = new HashMap<>();
+            final Set<K> missing = new LinkedHashSet<>();
+            for (K key : keys) {
+                final V value = lookup(key, true);
+                if (value != null) found.put(key, value);
+                else if (!isKnownAbsent(key)) missing.add(key);
+            }
+            if (!missing.isEmpty()) {
+                if (mDelegate instanceof Delegate.Bulk && missing.size() > 1) {
+                    found.putAll(refreshAll(missing));
+                } else {
+                    for (K key : missing) {
+                        final V value = refresh(key, true);
+                        if (value != null) found.put(key, value);
+                    }
+                }
+            }
+            final Map<K, V> result = new LinkedHashMap<>(found.size());
+            for (K key : keys) {
+                final V value = found.get(key);
+                if (value != null) result.put(key, value);
+            }
+            return result;
+        }
+
+        /**
+         * 批量版本的{@link #refresh(Object, boolean) refresh(key, true)}: 已经在加载中的key等待其结果，其余的一次加载。
+         */
+        private Map<K, V> refreshAll(Set<K> keys) {
+            final Map<K, Flight<V>> owned = new LinkedHashMap<>();
+            final Map<K, Flight<V>> waiting = new LinkedHashMap<>();
+            for (K key : keys) {
+                final Flight<V> flight = new Flight<>();
+                final Flight<V> prior = mFlights.putIfAbsent(key, flight);
+                if (prior != null) waiting.put(key, prior);
+                else owned.put(key, flight);
+            }
+            final Map<K, V> result = new HashMap<>();
+            if (!owned.isEmpty()) {
+                Map<K, V> loaded = Collections.emptyMap();
+                Throwable error = null;
+                try {
+                    final Map<K, V> stored = new HashMap<>();
+                    final Set<K> toLoad = new LinkedHashSet<>();
+                    for (K key : owned.keySet()) {
+                        final V value = loadStored(key, true);
+                        if (value != null) stored.put(key, value);
+                        else toLoad.add(key);
+                    }
+                    if (!toLoad.isEmpty()) {
+                        final long start = System.nanoTime();
+                        try {
+                            loaded = ((Delegate.Bulk<K, V>) mDelegate).loadAll(Collections.unmodifiableSet(toLoad));
+                        } catch (RuntimeException | Error e) {
+                            mLruCache.statsRecorder().recordLoadFailure(System.nanoTime() - start);
+                            throw e;
+                        }
+                        if (loaded == null) loaded = Collections.emptyMap();
+                        // 一次批量加载按一次计。
+                        mLruCache.statsRecorder().recordLoadSuccess(System.nanoTime() - start);
+                    }
+                    for (Map.Entry<K, Flight<V>> e : owned.entrySet()) {
+                        final boolean fromStore = stored.containsKey(e.getKey());
+                        final V value = fromStore ? stored.get(e.getKey()) : loaded.get(e.getKey());
+                        if (value != null) result.put(e.getKey(), value);
+                        synchronized (e.getValue()) {
+                            if (e.getValue().mDirty) continue;
+                            if (value != null) putLoaded(e.getKey(), value, fromStore);
+                            else if (mNegative != null) mNegative.put(e.getKey());
+                        }
+                    }
+                } catch (RuntimeException | Error e) {
+                    error = e;
+                    throw e;
+                } finally {
+                    for (Map.Entry<K, Flight<V>> e : owned.entrySet()) {
+                        mFlights.remove(e.getKey(), e.getValue());
+                        e.getValue().done(result.get(e.getKey()), error);
+                    }
+                }
+            }
+            for (Map.Entry<K, Flight<V>> e : waiting.entrySet()) {
+                final V value = e.getValue().await();
+                if (value != null) result.put(e.getKey(), value);
+            }
+            return result;
+        }
+
+        /**
+         * @return 是否在{@link Builder#negativeCache}的记录中，是则不必加载。
+         */
+        private boolean isKnownAbsent(K key) {
+            return mNegative != null && mNegative.contains(key);
+        }
+
+        /**
+         * 仅从内存中取值，过期的视为不存在。
+         *
+         * @param refreshAhead 是否在需要时触发后台刷新。
+         * @return 经{@link #onRead(Object, Object)}处理之后的值。
+         */
+        private V lookup(K key, boolean refreshAhead) {
+            final V value = find(key, refreshAhead);
+            return value == null ? null : onRead(key, value);
+        }
+
+        private V find(K key, boolean refreshAhead) {
+            if (mExpiry == null) return mLruCache.get(key);
+            final long now = System.nanoTime();
+            expireEntries(now);
+            final V value = mLruCache.get(key);
+            if (value == null) return null;
+            switch (mExpiry.onRead(key, value, now, refreshAhead)) {
+                case ExpiryTracker.EXPIRED:
+                    final boolean expired;
+                    synchronized (mLruCache) {
+                        expired = mExpiry.expireIfCurrent(key, value, now);
+                        if (expired) mLruCache.remove(key, CacheStats.Cause.EXPIRED);
+                    }
+                    if (expired) dropStored(key);
+                    return null;
+                case ExpiryTracker.REFRESH:
+                    refreshAhead(key);
+                    return value;
+                default:
+                    return value;
+            }
+        }
+
+        private void expireEntries(long now) {
+            if (!mExpiry.isAdvanceDue(now)) return;
+            final List<K> expired;
+            synchronized (mLruCache) {
+                expired = mExpiry.advance(now);
+                if (expired != null) {
+                    for (K key : expired) {
+                        mLruCache.remove(key, CacheStats.Cause.EXPIRED);
+                    }
+                }
+            }
+            if (expired != null) {
+                for (K key : expired) {
+                    dropStored(key);
+                }
+            }
+        }
+
+        private void refreshAhead(final K key) {
+            try {
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (refresh(key) == null) dirty(key);
+                        } catch (RuntimeException e) {
+                            // 继续使用旧值，下次命中时重试。
+                            mExpiry.onRefreshFailed(key);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                mExpiry.onRefreshFailed(key);
+            }
+        }
+
+        /**
+         * 所有放入缓存的操作都应通过本方法。
+         */
+        protected void putValue(K key, V value) {
+            if (mExpiry == null && mTags == null) {
+                mLruCache.put(key, value);
+            } else {
+                synchronized (mLruCache) {
+                    if (mExpiry != null) mExpiry.onWrite(key, value, System.nanoTime());
+                    if (mTags != null) mTags.add(key);
+                    mLruCache.put(key, value);
+                }
+            }
+            if (mNegative != null) mNegative.remove(key);
+            if (mBudget != null) mBudget.rebalance();
+        }
+
+        /**
+         * 命中的值交给调用方之前调用，默认原样返回。
+         *
+         * @return 交给调用方的值，如一份副本；null视为未命中，{@link #get(Object)}等会重新加载。
+         */
+        protected V onRead(K key, V value) {
             return value;
         }
 
+        /**
+         * 内部读取（如{@link #saveSnapshot()}）用完{@link #onRead(Object, Object)}返回的值之后调用。
+         */
+        protected void onReadDone(K key, V value) {
+        }
+
+        /**
+         * 条目被淘汰、移除或替换之后的回调，参数同{@link LruCache#entryRemoved(boolean, Object, Object, Object)}.
+         */
+        protected void onEntryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+            if (evicted && mSoftValues != null) mSoftValues.put(key, oldValue);
+            if (mExpiry != null) {
+                synchronized (mLruCache) {
+                    // 替换（或已被重新放入）的，新值的记录已由onWrite()建立；新值可能就是同一个对象，不能按值清理。
+                    if (!mLruCache.containsKey(key)) mExpiry.onRemoved(key, oldValue);
+                }
+            }
+            if (mTags != null && newValue == null) {
+                if (evicted && mSoftValues != null) {
+                    // 被淘汰到软引用的仍可能被取回，保留其索引。若并发的untagIfGone()在放入软引用之前移除了索引，在此补回。
+                    synchronized (mLruCache) {
+                        if (!mLruCache.containsKey(key) && mSoftValues.contains(key)) mTags.add(key);
+                    }
+                } else {
+                    untagIfGone(key);
+                }
+            }
+        }
+
+        /**
+         * 内存、软引用和磁盘缓存中都已没有该key时，移除其标签索引。
+         */
+        private void untagIfGone(K key) {
+            if (mTags == null) return;
+            synchronized (mLruCache) {
+                // 回调可能在锁外，期间可能已被重新放入。
+                if (mLruCache.containsKey(key)) return;
+                if (mSoftValues != null && mSoftValues.contains(key)) return;
+                if (mDisk != null && mDisk.contains(key)) return;
+                mTags.remove(key);
+            }
+        }
+
+        /**
+         * 总是{@link Delegate#load(Object) 加载}（尚未写入的{@link Builder#writeBehind 延迟写入}的值除外），
+         * 不读软引用和磁盘缓存，加载到的值覆盖它们。
+         * 如果同一个key已经在加载中，则不会再次加载，而是等待并返回其结果。
+         */
+        @Override
+        public V refresh(K key) {
+            return refresh(key, false);
+        }
+
+        /**
+         * @param readStores 是否先从软引用和磁盘缓存中读取，仅用于{@link #get(Object)}未命中时。
+         */
+        private V refresh(K key, boolean readStores) {
+            final Flight<V> flight = new Flight<>();
+            final Flight<V> prior = mFlights.putIfAbsent(key, flight);
+            if (prior != null) return prior.await();
+            V value = null;
+            Throwable error = null;
+            try {
+                value = loadStored(key, readStores);
+                final boolean fromStore = value != null;
+                if (!fromStore) value = load(key);
+                synchronized (flight) {
+                    // 加载期间被dirty()或update()了，那么结果可能已经过时，不能放入缓存。
+                    if (!flight.mDirty) {
+                        if (value != null) putLoaded(key, value, fromStore);
+                        else if (mNegative != null) mNegative.put(key);
+                        // 旧的副本已被取代，不能再被get()取回。
+                        if (!readStores) {
+                            if (value == null) dropStored(key);
+                            else if (mSoftValues != null) mSoftValues.remove(key);
+                        }
+                    }
+                }
+                return value;
+            } catch (RuntimeException | Error e) {
+                error = e;
+                throw e;
+            } finally {
+                mFlights.remove(key, flight);
+                flight.done(value, error);
+            }
+        }
+
         @Override
         public void dirty(K key) {
+            invalidateLocal(key);
+            publish(key);
+        }
+
+        /**
+         * 同{@link #dirty(Object)}, 但不通知其它进程。
+         */
+        private void invalidateLocal(K key) {
+            final Flight<V> flight = mFlights.remove(key);
+            if (flight != null) {
+                synchronized (flight) {
+                    flight.mDirty = true;
+                }
+            }
             mLruCache.remove(key);
+            if (mSoftValues != null) mSoftValues.remove(key);
+            if (mDisk != null) mDisk.remove(key);
+            // 在标记mDirty之后，正在进行的加载不会再记录。
+            if (mNegative != null) mNegative.remove(key);
         }
 
         @Override
         public boolean update(K key, V value) {
-            dirty(key);
+            // 先入队再dirty(): 此后开始的加载会读到待写入的值，之前开始的则被作废。
+            // 其它进程在写入Delegate之后才通知，以免在此之前重新加载到旧值。延迟写入的见WriteBehind.Callback.
+            // 先写入磁盘缓存再放入内存，使随即被淘汰的条目仍保留索引，见untagIfGone().
+            final WriteBehind.Write<V> write = mWriteBehind == null ? null : mWriteBehind.enqueue(key, value);
+            if (write != null) {
+                invalidateLocal(key);
+                if (mDisk != null) mDisk.put(key, value);
+                putValue(key, value);
+                // 入队时可能已经写入并被拒绝，那时回调的dirty()在放入之前，须再作废一次。
+                if (write.isRejected()) dirty(key);
+                return true;
+            }
+            invalidateLocal(key);
             if (mDelegate.update(key, value)) {
-                mLruCache.put(key, value);
+                if (mDisk != null) mDisk.put(key, value);
+                putValue(key, value);
+                publish(key);
                 return true;
             }
+            publish(key);
             return false;
         }
 
         @Override
         public void clear() {
             mLruCache.evictAll();
+            if (mSoftValues != null) mSoftValues.clear();
+            if (mDisk != null) mDisk.clear();
+            if (mTags != null) mTags.clear();
+            if (mNegative != null) mNegative.clear();
+        }
+
+        @Override
+        public int invalidateTag(Object tag) {
+            return invalidate(tags().keysOf(tag));
+        }
+
+        @Override
+        public int invalidatePrefix(String prefix) {
+            return invalidate(tags().keysWithPrefix(prefix));
+        }
+
+        private TagIndex<K> tags() {
+            if (mTags == null || !mTags.hasTagger()) throw new IllegalStateException("未设置Builder.tagger()");
+            return mTags;
+        }
+
+        private void publish(K key) {
+            if (mChannel != null) mChannel.publish(mName, TagIndex.hashOf(key));
+        }
+
+        /**
+         * 作废本进程中哈希值相同的key, 包括正在加载的。
+         */
+        private void onRemoteInvalidate(int keyHash) {
+            final Set<K> keys = new HashSet<>(mTags.keysOfHash(keyHash));
+            for (K key : mFlights.keySet()) {
+                if (TagIndex.hashOf(key) == keyHash) keys.add(key);
+            }
+            // 磁盘上可能有本进程尚未读到、因而不在索引中的旧值（如上次运行时写入的），按hash删除。
+            if (mDisk != null) mDisk.removeByHash(keyHash);
+            for (K key : keys) {
+                invalidateLocal(key);
+                synchronized (mLruCache) {
+                    if (!mLruCache.containsKey(key)) mTags.remove(key);
+                }
+            }
+        }
+
+        private int invalidate(List<K> keys) {
+            final Set<K> done = new HashSet<>(keys.size());
+            for (K key : keys) {
+                if (done.add(key)) {
+                    dirty(key);
+                    // 不在内存中（已淘汰到磁盘或软引用）的不会触发回调，在此移除。
+                    synchronized (mLruCache) {
+                        if (!mLruCache.containsKey(key)) mTags.remove(key);
+                    }
+                }
+            }
+            return done.size();
+        }
+
+        /**
+         * 只收缩内存中的部分，磁盘缓存不受影响。keepRatio为0时软引用保留的值和{@link Builder#negativeCache 不存在的key}的记录也一并释放。
+         */
+        @Override
+        public void trim(float keepRatio) {
+            mLruCache.trim(keepRatio);
+            if (keepRatio <= 0) {
+                if (mSoftValues != null) mSoftValues.clear();
+                if (mNegative != null) mNegative.clear();
+            }
+        }
+
+        /**
+         * 立即写入所有{@link Builder#writeBehind 延迟写入}的更新，返回时之前的更新都已写入。
+         */
+        public void flush() {
+            if (mWriteBehind != null) mWriteBehind.flush();
+        }
+
+        /**
+         * 写入所有延迟写入的更新，之后的{@link #update(Object, Object)}改为同步写入。
+         * 若设置了{@link Builder#invalidationChannel}, 同时取消订阅；设置了{@link Builder#diskCache 磁盘缓存}的，
+         * 同时取消对其淘汰的监听。否则本对象会一直被它们持有。
+         */
+        public void close() {
+            if (mWriteBehind != null) mWriteBehind.close();
+            if (mChannel != null) mChannel.unsubscribe(mName, mChannelListener);
+            if (mDisk != null) mDisk.close();
+        }
+
+        /**
+         * 把最近访问的条目保存到{@link Builder#snapshot}指定的文件，未设置则什么也不做。
+         * 在调用线程中同步写入，通常由{@link CacheRegistry#saveSnapshots()}在后台线程调用。
+         */
+        @Override
+        public void saveSnapshot() throws IOException {
+            if (mSnapshotFile == null) return;
+            if (mExpiry != null) expireEntries(System.nanoTime());
+            final List<Map.Entry<K, V>> entries = new ArrayList<>(mLruCache.snapshot().entrySet());
+            // 与命中一样经过onRead(), 编码期间值不会失效（见OffHeapCache）。
+            final List<Map.Entry<K, V>> read = new ArrayList<>();
+            for (Map.Entry<K, V> e : entries.subList(Math.max(0, entries.size() - mSnapshotMaxEntries), entries.size())) {
+                final V value = onRead(e.getKey(), e.getValue());
+                if (value != null) read.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), value));
+            }
+            try {
+                CacheSnapshot.save(mSnapshotFile, mSnapshotVersion, read, mSnapshotKeyCodec, mSnapshotValueCodec);
+            } finally {
+                for (Map.Entry<K, V> e : read) {
+                    onReadDone(e.getKey(), e.getValue());
+                }
+            }
+        }
+
+        /**
+         * 在后台线程放回{@link Builder#snapshot}保存的条目，未设置则什么也不做。只有第一次调用有效。
+         * <p>
+         * 放回时会调用可被子类重写的{@link #putValue(Object, Object)}, 因此不能在构造方法中调用，
+         * 而应在包括子类在内的构造都完成之后。
+         */
+        public void restoreSnapshot() {
+            if (mSnapshotFile == null || !mSnapshotRestored.compareAndSet(false, true)) return;
+            final Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    final List<Map.Entry<K, V>> entries = CacheSnapshot.restore(mSnapshotFile, mSnapshotVersion,
+                            mSnapshotKeyCodec, mSnapshotValueCodec);
+                    mSnapshotFile.delete();
+                    for (Map.Entry<K, V> e : entries) {
+                        restore(e.getKey(), e.getValue());
+                    }
+                }
+            };
+            try {
+                mExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // 只是预热，放弃即可。
+            }
+        }
+
+        /**
+         * 与{@link #refresh(Object)}一样占用该key的加载，期间被{@link #dirty(Object)}或{@link #update(Object, Object)}
+         * 了则不放入，以免覆盖更新的值。
+         */
+        private void restore(K key, V value) {
+            if (mLruCache.containsKey(key)) return;
+            final Flight<V> flight = new Flight<>();
+            if (mFlights.putIfAbsent(key, flight) != null) return;
+            try {
+                synchronized (flight) {
+                    if (!flight.mDirty) putValue(key, value);
+                }
+            } finally {
+                mFlights.remove(key, flight);
+                flight.done(value, null);
+            }
+        }
+
+        /**
+         * 调用{@link Delegate#load(Object)}并记录耗时，返回null也算作失败。
+         */
+        private V load(K key) {
+            final long start = System.nanoTime();
+            V value = null;
+            try {
+                value = mDelegate.load(key);
+                return value;
+            } finally {
+                final long elapsed = System.nanoTime() - start;
+                if (value != null) mLruCache.statsRecorder().recordLoadSuccess(elapsed);
+                else mLruCache.statsRecorder().recordLoadFailure(elapsed);
+            }
+        }
+
+        @Override
+        public CacheStats stats() {
+            return mLruCache.stats().named(mName != null ? mName : "ICache");
+        }
+
+        /**
+         * 在{@link Delegate#load(Object)}之前，依次从尚未写入的值（比load()读到的更新）、软引用和磁盘缓存中读取。
+         *
+         * @param readStores 为false则只读尚未写入的值。
+         */
+        private V loadStored(K key, boolean readStores) {
+            V value = mWriteBehind == null ? null : mWriteBehind.pending(key);
+            if (!readStores) return value;
+            if (mSoftValues != null) {
+                final V soft = mSoftValues.take(key);
+                if (value == null) value = soft;
+            }
+            if (value == null && mDisk != null) value = mDisk.get(key);
+            return value;
+        }
+
+        /**
+         * 删除软引用和磁盘缓存中的副本，用于内存中的条目过期或重新加载不到值时。
+         */
+        private void dropStored(K key) {
+            if (mSoftValues != null) mSoftValues.remove(key);
+            if (mDisk != null) mDisk.remove(key);
+        }
+
+        /**
+         * @param fromStore 是否由{@link #loadStored(Object, boolean)}读出，是则不必再写入磁盘。
+         */
+        private void putLoaded(K key, V value, boolean fromStore) {
+            if (!fromStore && mDisk != null) mDisk.put(key, value);
+            putValue(key, value);
         }
 
         /**
          * 仅在第一次{@link #get(K)}的时候，使用线程同步。等同于单例实现。
+         * <p>
+         * 现在{@link Impl}本身已经保证同一个key只加载一次（见{@link #refresh(Object)}），
+         * 且不同key的加载可以并行，因此不再需要持有全局的锁。保留本类以兼容已有代码。
          */
         public static class SyncGet<K, V> extends Impl<K, V> {
             public SyncGet(int cacheSize, Delegate<K, V> delegate) {
                 super(cacheSize, delegate);
             }
 
-            @Override
-            public V get(K key) {
-                V value = mLruCache.get(key);
-                if (value == null) {
-                    synchronized (this) {
-                        value = super.get(key);
-                    }
-                }
-                return value;
+            public SyncGet(int cacheSize, EvictionPolicy<K> policy, Delegate<K, V> delegate) {
+                super(cacheSize, policy, delegate);
+            }
+
+            public SyncGet(Builder<K, V> builder, Delegate<K, V> delegate) {
+                super(builder, delegate);
             }
         }
 
@@ -129,6 +1165,14 @@ public interface ICache<K, V> {
                 super(cacheSize, delegate);
             }
 
+            public Sync(int cacheSize, EvictionPolicy<K> policy, Delegate<K, V> delegate) {
+                super(cacheSize, policy, delegate);
+            }
+
+            public Sync(Builder<K, V> builder, Delegate<K, V> delegate) {
+                super(builder, delegate);
+            }
+
             @Override
             public synchronized V get(K key) {
                 return super.get(key);
@@ -139,6 +1183,11 @@ public interface ICache<K, V> {
                 return super.getOnly(key);
             }
 
+            @Override
+            public synchronized Map<K, V> getAll(Collection<K> keys) {
+                return super.getAll(keys);
+            }
+
             @Override
             public synchronized V refresh(K key) {
                 return super.refresh(key);
@@ -158,6 +1207,48 @@ public interface ICache<K, V> {
             public synchronized void clear() {
                 super.clear();
             }
+
+            @Override
+            public synchronized int invalidateTag(Object tag) {
+                return super.invalidateTag(tag);
+            }
+
+            @Override
+            public synchronized int invalidatePrefix(String prefix) {
+                return super.invalidatePrefix(prefix);
+            }
+        }
+
+        private static class Flight<V> {
+            private final CountDownLatch mLatch = new CountDownLatch(1);
+            private V mValue;
+            private Throwable mError;
+            /**
+             * 在本对象的锁内读写。
+             */
+            boolean mDirty;
+
+            void done(V value, Throwable error) {
+                mValue = value;
+                mError = error;
+                mLatch.countDown();
+            }
+
+            V await() {
+                boolean interrupted = false;
+                while (true) {
+                    try {
+                        mLatch.await();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) Thread.currentThread().interrupt();
+                if (mError instanceof RuntimeException) throw (RuntimeException) mError;
+                if (mError instanceof Error) throw (Error) mError;
+                return mValue;
+            }
         }
     }
 }
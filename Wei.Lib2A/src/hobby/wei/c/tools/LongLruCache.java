@@ -0,0 +1,447 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.util.Arrays;
+
+/**
+ * 以long为key的{@link LruCache}, 用于数据库行id、时间戳等，key不装箱，每个条目也不再分配{@code LinkedHashMap.Entry}.
+ * <p>
+ * 条目存放在按下标排列的几个数组中，LRU顺序由{@link #mPrev}/{@link #mNext}两个下标数组构成的双向链表维护，
+ * 删除后空出的下标串成空闲链表复用；key到下标的索引是线性探测的开放寻址表，删除时向前移位而不留墓碑。
+ * 因此{@link #get(long)}命中时不分配任何对象。
+ * <p>
+ * 用法与{@link LruCache}相同：可覆写{@link #create(long)}、{@link #sizeOf(long, Object)}、
+ * {@link #entryRemoved(boolean, long, Object, Object)}；线程安全，不允许null值。
+ * 不支持{@link EvictionPolicy}. 以int为key的见{@link IntLruCache}.
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class LongLruCache<V> implements CacheStats.Provider, CacheRegistry.Trimmable {
+    private static final int NONE = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] mKeys;
+    private Object[] mValues;
+    /**
+     * 放入时的{@link #sizeOf}, 移除时直接使用，不再重新计算。
+     */
+    private int[] mSizes;
+    private int[] mPrev, mNext;
+    /**
+     * 开放寻址表，存放条目下标+1, 0表示空位。长度为2的幂，且至少为条目数组的2倍。
+     */
+    private int[] mTable;
+    /**
+     * 链表头（最久未访问）和尾（最近访问）。
+     */
+    private int mHead = NONE, mTail = NONE;
+    /**
+     * 空闲下标链表，经由{@link #mNext}串联。
+     */
+    private int mFree = NONE;
+    /**
+     * 已使用过的下标数，其后的下标尚未使用过。
+     */
+    private int mUsed;
+    private int mCount;
+
+    private int mSize;
+    private int mMaxSize;
+    private int mPutCount;
+    private int mCreateCount;
+    private final StatsRecorder mStats = new StatsRecorder();
+
+    /**
+     * @param maxSize 未覆写{@link #sizeOf}时为最大条目数，否则为各条目{@link #sizeOf}之和的上限。
+     */
+    public LongLruCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mMaxSize = maxSize;
+        allocate(INITIAL_CAPACITY);
+        CacheRegistry.register(this, null);
+    }
+
+    public void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        synchronized (this) {
+            mMaxSize = maxSize;
+        }
+        trimToSize(maxSize);
+    }
+
+    /**
+     * 见{@link LruCache#get(Object)}.
+     */
+    @SuppressWarnings("unchecked")
+    public final V get(long key) {
+        V mapValue;
+        synchronized (this) {
+            final int index = indexOf(key);
+            if (index != NONE) {
+                moveToTail(index);
+                mapValue = (V) mValues[index];
+            } else {
+                mapValue = null;
+            }
+        }
+        if (mapValue != null) {
+            mStats.recordHit();
+            return mapValue;
+        }
+        mStats.recordMiss();
+
+        final V createdValue = create(key);
+        if (createdValue == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            mCreateCount++;
+            final int index = indexOf(key);
+            if (index != NONE) {
+                // 期间已有其它线程放入，以已有的为准。
+                mapValue = (V) mValues[index];
+            } else {
+                insert(key, createdValue, safeSizeOf(key, createdValue));
+            }
+        }
+
+        if (mapValue != null) {
+            entryRemoved(false, key, createdValue, mapValue);
+            return mapValue;
+        } else {
+            trimToSize(mMaxSize);
+            return createdValue;
+        }
+    }
+
+    /**
+     * 见{@link LruCache#put(Object, Object)}.
+     */
+    @SuppressWarnings("unchecked")
+    public final V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value == null");
+        }
+
+        V previous = null;
+        synchronized (this) {
+            mPutCount++;
+            final int valueSize = safeSizeOf(key, value);
+            final int index = indexOf(key);
+            if (index != NONE) {
+                previous = (V) mValues[index];
+                mSize += valueSize - mSizes[index];
+                mValues[index] = value;
+                mSizes[index] = valueSize;
+                moveToTail(index);
+            } else {
+                insert(key, value, valueSize);
+            }
+        }
+
+        if (previous != null) {
+            entryRemoved(false, key, previous, value);
+        }
+
+        trimToSize(mMaxSize);
+        return previous;
+    }
+
+    /**
+     * 见{@link LruCache#trimToSize(int)}.
+     */
+    public void trimToSize(int maxSize) {
+        trimToSize(maxSize, CacheStats.Cause.SIZE);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void trimToSize(int maxSize, CacheStats.Cause cause) {
+        while (true) {
+            final long key;
+            final V value;
+            synchronized (this) {
+                if (mSize < 0 || (mCount == 0 && mSize != 0)) {
+                    throw new IllegalStateException(getClass().getName()
+                            + ".sizeOf() is reporting inconsistent results!");
+                }
+                if (mSize <= maxSize || mHead == NONE) {
+                    break;
+                }
+                final int index = mHead;
+                key = mKeys[index];
+                value = (V) mValues[index];
+                delete(index);
+            }
+            mStats.recordEviction(cause);
+
+            entryRemoved(true, key, value, null);
+        }
+    }
+
+    /**
+     * @return 被移除的值，不存在则为null.
+     */
+    @SuppressWarnings("unchecked")
+    public final V remove(long key) {
+        V previous = null;
+        synchronized (this) {
+            final int index = indexOf(key);
+            if (index != NONE) {
+                previous = (V) mValues[index];
+                delete(index);
+            }
+        }
+
+        if (previous != null) {
+            mStats.recordEviction(CacheStats.Cause.EXPLICIT);
+            entryRemoved(false, key, previous, null);
+        }
+        return previous;
+    }
+
+    /**
+     * 见{@link LruCache#entryRemoved(boolean, Object, Object, Object)}.
+     */
+    protected void entryRemoved(boolean evicted, long key, V oldValue, V newValue) {
+    }
+
+    /**
+     * 见{@link LruCache#create(Object)}.
+     */
+    protected V create(long key) {
+        return null;
+    }
+
+    /**
+     * 见{@link LruCache#sizeOf(Object, Object)}.
+     */
+    protected int sizeOf(long key, V value) {
+        return 1;
+    }
+
+    private int safeSizeOf(long key, V value) {
+        final int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    @Override
+    public void trim(float keepRatio) {
+        if (keepRatio <= 0) {
+            trimToSize(-1);
+        } else if (keepRatio < 1) {
+            trimToSize((int) (size() * keepRatio));
+        }
+    }
+
+    public final void evictAll() {
+        trimToSize(-1, CacheStats.Cause.EXPLICIT); // -1 will evict 0-sized elements
+    }
+
+    public synchronized final boolean contains(long key) {
+        return indexOf(key) != NONE;
+    }
+
+    public synchronized final int count() {
+        return mCount;
+    }
+
+    public synchronized final int size() {
+        return mSize;
+    }
+
+    public synchronized final int maxSize() {
+        return mMaxSize;
+    }
+
+    public final int hitCount() {
+        return (int) mStats.hitCount();
+    }
+
+    public final int missCount() {
+        return (int) mStats.missCount();
+    }
+
+    public synchronized final int createCount() {
+        return mCreateCount;
+    }
+
+    public synchronized final int putCount() {
+        return mPutCount;
+    }
+
+    public final int evictionCount() {
+        return (int) mStats.evictionCount(CacheStats.Cause.SIZE);
+    }
+
+    @Override
+    public CacheStats stats() {
+        final int size, maxSize;
+        synchronized (this) {
+            size = mSize;
+            maxSize = mMaxSize;
+        }
+        return mStats.snapshot("LongLruCache", size, maxSize);
+    }
+
+    /**
+     * @return 当前所有的key, 从最久未访问到最近访问排列。
+     */
+    public synchronized final long[] keys() {
+        final long[] keys = new long[mCount];
+        int i = 0;
+        for (int index = mHead; index != NONE; index = mNext[index]) {
+            keys[i++] = mKeys[index];
+        }
+        return keys;
+    }
+
+    @Override
+    public synchronized final String toString() {
+        final long hitCount = mStats.hitCount(), missCount = mStats.missCount();
+        final long accesses = hitCount + missCount;
+        final long hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+        return String.format("LongLruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                mMaxSize, hitCount, missCount, hitPercent);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////
+    // 以下都在锁内调用。
+
+    private static int hash(long key) {
+        final int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int indexOf(long key) {
+        final int[] table = mTable;
+        final int mask = table.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            final int entry = table[slot];
+            if (entry == 0) return NONE;
+            if (mKeys[entry - 1] == key) return entry - 1;
+        }
+    }
+
+    private void insert(long key, V value, int size) {
+        if (mFree == NONE && mUsed == mKeys.length) {
+            allocate(mKeys.length << 1);
+        }
+        final int index;
+        if (mFree != NONE) {
+            index = mFree;
+            mFree = mNext[index];
+        } else {
+            index = mUsed++;
+        }
+        mKeys[index] = key;
+        mValues[index] = value;
+        mSizes[index] = size;
+        linkLast(index);
+
+        final int mask = mTable.length - 1;
+        int slot = hash(key) & mask;
+        while (mTable[slot] != 0) slot = (slot + 1) & mask;
+        mTable[slot] = index + 1;
+
+        mCount++;
+        mSize += size;
+    }
+
+    private void delete(int index) {
+        final int[] table = mTable;
+        final int mask = table.length - 1;
+        int slot = hash(mKeys[index]) & mask;
+        while (table[slot] != index + 1) slot = (slot + 1) & mask;
+        // 把探测链上后续的条目前移，填补空位。
+        int hole = slot;
+        for (slot = (slot + 1) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            final int home = hash(mKeys[table[slot] - 1]) & mask;
+            // home不在(hole, slot]之间，说明移到hole之后仍能被探测到。
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                table[hole] = table[slot];
+                hole = slot;
+            }
+        }
+        table[hole] = 0;
+
+        unlink(index);
+        mSize -= mSizes[index];
+        mCount--;
+        mValues[index] = null;
+        mNext[index] = mFree;
+        mFree = index;
+    }
+
+    private void moveToTail(int index) {
+        if (index == mTail) return;
+        unlink(index);
+        linkLast(index);
+    }
+
+    private void linkLast(int index) {
+        mPrev[index] = mTail;
+        mNext[index] = NONE;
+        if (mTail != NONE) mNext[mTail] = index;
+        else mHead = index;
+        mTail = index;
+    }
+
+    private void unlink(int index) {
+        final int prev = mPrev[index], next = mNext[index];
+        if (prev != NONE) mNext[prev] = next;
+        else mHead = next;
+        if (next != NONE) mPrev[next] = prev;
+        else mTail = prev;
+    }
+
+    /**
+     * 扩充条目数组并重建索引表。下标不变，因此链表无需调整。
+     */
+    private void allocate(int capacity) {
+        if (mKeys == null) {
+            mKeys = new long[capacity];
+            mValues = new Object[capacity];
+            mSizes = new int[capacity];
+            mPrev = new int[capacity];
+            mNext = new int[capacity];
+        } else {
+            mKeys = Arrays.copyOf(mKeys, capacity);
+            mValues = Arrays.copyOf(mValues, capacity);
+            mSizes = Arrays.copyOf(mSizes, capacity);
+            mPrev = Arrays.copyOf(mPrev, capacity);
+            mNext = Arrays.copyOf(mNext, capacity);
+        }
+        final int[] table = new int[capacity << 1];
+        final int mask = table.length - 1;
+        for (int index = mHead; index != NONE; index = mNext[index]) {
+            int slot = hash(mKeys[index]) & mask;
+            while (table[slot] != 0) slot = (slot + 1) & mask;
+            table[slot] = index + 1;
+        }
+        mTable = table;
+    }
+}
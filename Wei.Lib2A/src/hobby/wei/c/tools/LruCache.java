@@ -67,9 +67,16 @@ import java.util.Map;
  * <p>This class appeared in Android 3.1 (Honeycomb MR1); it's available as part
  * of <a href="http://developer.android.com/sdk/compatibility-library.html">Android's
  * Support Package</a> for earlier releases.
+ * <p>
+ * <p>可以通过{@link EvictionPolicy}替换默认的LRU淘汰顺序，如{@link TinyLfuPolicy}、{@link S3FifoPolicy}.
+ * <p>创建时自动登记到{@link CacheRegistry}, 统计数据见{@link #stats()}.
  */
-public class LruCache<K, V> {
+public class LruCache<K, V> implements CacheStats.Provider, CacheRegistry.Trimmable {
     private final LinkedHashMap<K, V> map;
+    /**
+     * 为null时使用{@link #map}自身的访问顺序(LRU).
+     */
+    private final EvictionPolicy<K> policy;
 
     /**
      * Size of this cache in units. Not necessarily the number of elements.
@@ -79,9 +86,10 @@ public class LruCache<K, V> {
 
     private int putCount;
     private int createCount;
-    private int evictionCount;
-    private int hitCount;
-    private int missCount;
+    /**
+     * 命中、未命中及淘汰的次数，在锁外记录。
+     */
+    private final StatsRecorder stats = new StatsRecorder();
 
     /**
      * @param maxSize for caches that do not override {@link #sizeOf}, this is
@@ -89,11 +97,22 @@ public class LruCache<K, V> {
      *                this is the maximum sum of the sizes of the entries in this cache.
      */
     public LruCache(int maxSize) {
+        this(maxSize, null);
+    }
+
+    /**
+     * @param policy 淘汰策略，为null则使用LRU. 一个策略实例只能用于一个缓存。
+     */
+    public LruCache(int maxSize, EvictionPolicy<K> policy) {
         if (maxSize <= 0) {
             throw new IllegalArgumentException("maxSize <= 0");
         }
         this.maxSize = maxSize;
-        this.map = new LinkedHashMap<K, V>(0, 0.75f, true);
+        this.policy = policy;
+        // 有策略时，访问顺序由策略维护，map不必在每次get()时调整链表。
+        this.map = new LinkedHashMap<K, V>(0, 0.75f, policy == null);
+        if (policy != null) policy.setMaximum(maxSize);
+        CacheRegistry.register(this, null);
     }
 
     /**
@@ -108,6 +127,7 @@ public class LruCache<K, V> {
 
         synchronized (this) {
             this.maxSize = maxSize;
+            if (policy != null) policy.setMaximum(maxSize);
         }
         trimToSize(maxSize);
     }
@@ -126,12 +146,13 @@ public class LruCache<K, V> {
         V mapValue;
         synchronized (this) {
             mapValue = map.get(key);
-            if (mapValue != null) {
-                hitCount++;
-                return mapValue;
-            }
-            missCount++;
+            if (mapValue != null && policy != null) policy.onAccess(key);
         }
+        if (mapValue != null) {
+            stats.recordHit();
+            return mapValue;
+        }
+        stats.recordMiss();
 
         /*
          * Attempt to create a value. This may take a long time, and the map
@@ -153,7 +174,9 @@ public class LruCache<K, V> {
                 // There was a conflict so undo that last put
                 map.put(key, mapValue);
             } else {
-                size += safeSizeOf(key, createdValue);
+                final int createdSize = safeSizeOf(key, createdValue);
+                size += createdSize;
+                if (policy != null) policy.onAdd(key, createdSize);
             }
         }
 
@@ -180,11 +203,16 @@ public class LruCache<K, V> {
         V previous;
         synchronized (this) {
             putCount++;
-            size += safeSizeOf(key, value);
+            final int valueSize = safeSizeOf(key, value);
+            size += valueSize;
             previous = map.put(key, value);
             if (previous != null) {
                 size -= safeSizeOf(key, previous);
             }
+            if (policy != null) {
+                if (previous != null) policy.onUpdate(key, valueSize);
+                else policy.onAdd(key, valueSize);
+            }
         }
 
         if (previous != null) {
@@ -203,6 +231,13 @@ public class LruCache<K, V> {
      *                to evict even 0-sized elements.
      */
     public void trimToSize(int maxSize) {
+        trimToSize(maxSize, CacheStats.Cause.SIZE);
+    }
+
+    /**
+     * @param cause 用于统计。
+     */
+    private void trimToSize(int maxSize, CacheStats.Cause cause) {
         while (true) {
             K key;
             V value;
@@ -216,21 +251,33 @@ public class LruCache<K, V> {
                     break;
                 }
 
-                Map.Entry<K, V> toEvict = null; // map.eldest();
-                for (Map.Entry<K, V> entry : map.entrySet()) {
-                    toEvict = entry;
-                    break;  // 仅仅取出第一个就返回。
-                }
-                if (toEvict == null) {
-                    break;
+                if (policy != null) {
+                    key = policy.evict();
+                    if (key == null) {
+                        break;
+                    }
+                    value = map.get(key);
+                    if (value == null) {
+                        throw new IllegalStateException(policy.getClass().getName()
+                                + ".evict() returned a key not in the cache: " + key);
+                    }
+                } else {
+                    Map.Entry<K, V> toEvict = null; // map.eldest();
+                    for (Map.Entry<K, V> entry : map.entrySet()) {
+                        toEvict = entry;
+                        break;  // 仅仅取出第一个就返回。
+                    }
+                    if (toEvict == null) {
+                        break;
+                    }
+
+                    key = toEvict.getKey();
+                    value = toEvict.getValue();
                 }
-
-                key = toEvict.getKey();
-                value = toEvict.getValue();
                 map.remove(key);
                 size -= safeSizeOf(key, value);
-                evictionCount++;
             }
+            stats.recordEviction(cause);
 
             entryRemoved(true, key, value, null);
         }
@@ -242,6 +289,13 @@ public class LruCache<K, V> {
      * @return the previous value mapped by {@code key}.
      */
     public final V remove(K key) {
+        return remove(key, CacheStats.Cause.EXPLICIT);
+    }
+
+    /**
+     * @param cause 用于统计。
+     */
+    final V remove(K key, CacheStats.Cause cause) {
         if (key == null) {
             throw new NullPointerException("key == null");
         }
@@ -251,10 +305,12 @@ public class LruCache<K, V> {
             previous = map.remove(key);
             if (previous != null) {
                 size -= safeSizeOf(key, previous);
+                if (policy != null) policy.onRemove(key);
             }
         }
 
         if (previous != null) {
+            stats.recordEviction(cause);
             entryRemoved(false, key, previous, null);
         }
 
@@ -317,11 +373,20 @@ public class LruCache<K, V> {
         return 1;
     }
 
+    @Override
+    public void trim(float keepRatio) {
+        if (keepRatio <= 0) {
+            trimToSize(-1);
+        } else if (keepRatio < 1) {
+            trimToSize((int) (size() * keepRatio));
+        }
+    }
+
     /**
      * Clear the cache, calling {@link #entryRemoved} on each removed entry.
      */
     public final void evictAll() {
-        trimToSize(-1); // -1 will evict 0-sized elements
+        trimToSize(-1, CacheStats.Cause.EXPLICIT); // -1 will evict 0-sized elements
     }
 
     /**
@@ -346,16 +411,16 @@ public class LruCache<K, V> {
      * Returns the number of times {@link #get} returned a value that was
      * already present in the cache.
      */
-    public synchronized final int hitCount() {
-        return hitCount;
+    public final int hitCount() {
+        return (int) stats.hitCount();
     }
 
     /**
      * Returns the number of times {@link #get} returned null or required a new
      * value to be created.
      */
-    public synchronized final int missCount() {
-        return missCount;
+    public final int missCount() {
+        return (int) stats.missCount();
     }
 
     /**
@@ -375,22 +440,56 @@ public class LruCache<K, V> {
     /**
      * Returns the number of values that have been evicted.
      */
-    public synchronized final int evictionCount() {
-        return evictionCount;
+    public final int evictionCount() {
+        return (int) stats.evictionCount(CacheStats.Cause.SIZE);
+    }
+
+    /**
+     * 不影响访问顺序和命中统计。
+     */
+    synchronized final boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+
+    /**
+     * 供子类或{@link ICache.Impl}记录加载耗时等。
+     */
+    final StatsRecorder statsRecorder() {
+        return stats;
+    }
+
+    @Override
+    public CacheStats stats() {
+        final int size, maxSize;
+        synchronized (this) {
+            size = this.size;
+            maxSize = this.maxSize;
+        }
+        return stats.snapshot("LruCache", size, maxSize);
     }
 
     /**
      * Returns a copy of the current contents of the cache, ordered from least
      * recently accessed to most recently accessed.
+     * <p>
+     * 如果指定了{@link EvictionPolicy}, 则按{@link EvictionPolicy#order()}排序。
      */
     public synchronized final Map<K, V> snapshot() {
+        if (policy != null) {
+            final LinkedHashMap<K, V> copy = new LinkedHashMap<K, V>(map.size());
+            for (K key : policy.order()) {
+                copy.put(key, map.get(key));
+            }
+            return copy;
+        }
         return new LinkedHashMap<K, V>(map);
     }
 
     @Override
     public synchronized final String toString() {
-        int accesses = hitCount + missCount;
-        int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+        final long hitCount = stats.hitCount(), missCount = stats.missCount();
+        long accesses = hitCount + missCount;
+        long hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
         return String.format("LruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
                 maxSize, hitCount, missCount, hitPercent);
     }
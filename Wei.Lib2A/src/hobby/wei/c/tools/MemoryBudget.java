@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 由多个缓存共享的内存预算。各成员仍有各自的容量上限，但所有成员的总权重（通常为字节数）
+ * 超出{@link #limit()}时，会依次从当前权重最大的成员中淘汰，直到总量回到预算以内。
+ * <p>
+ * 成员以弱引用持有，被回收的成员自动移出。进程级的默认预算见
+ * {@link hobby.wei.c.framework.Config#memoryBudget()}.
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class MemoryBudget {
+    public interface Member {
+        /**
+         * @return 当前总权重，与{@link MemoryBudget#limit()}单位相同。
+         */
+        long weight();
+
+        /**
+         * 淘汰条目，直到总权重不大于maxWeight.
+         */
+        void trimWeight(long maxWeight);
+    }
+
+    private final long mLimit;
+    private final CopyOnWriteArrayList<WeakReference<Member>> mMembers = new CopyOnWriteArrayList<>();
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    /**
+     * @param limit 预算上限，单位须与各成员的{@link Member#weight()}一致（通常为字节）。
+     */
+    public MemoryBudget(long limit) {
+        if (limit <= 0) throw new IllegalArgumentException("limit <= 0");
+        mLimit = limit;
+    }
+
+    public long limit() {
+        return mLimit;
+    }
+
+    public void register(Member member) {
+        if (member == null) throw new NullPointerException("member");
+        for (WeakReference<Member> ref : mMembers) {
+            if (ref.get() == member) return;
+        }
+        mMembers.add(new WeakReference<>(member));
+    }
+
+    public void unregister(Member member) {
+        for (WeakReference<Member> ref : mMembers) {
+            final Member m = ref.get();
+            if (m == null || m == member) mMembers.remove(ref);
+        }
+    }
+
+    /**
+     * 所有成员的当前总权重。
+     */
+    public long weight() {
+        long total = 0;
+        for (WeakReference<Member> ref : mMembers) {
+            final Member m = ref.get();
+            if (m != null) total += m.weight();
+        }
+        return total;
+    }
+
+    /**
+     * 成员在放入新值后调用。若超出预算，则从权重最大的成员开始淘汰。
+     * <p>
+     * 淘汰过程是串行的。注意不要在成员自身的锁内调用本方法。
+     */
+    public void rebalance() {
+        // 成员数量很少，每次重新计算总量比维护增量更简单，也不会因漏算而漂移。
+        if (weight() <= mLimit) return;
+        mLock.lock();
+        try {
+            long excess = weight() - mLimit;
+            while (excess > 0) {
+                final Member heaviest = heaviest();
+                if (heaviest == null) break;
+                final long weight = heaviest.weight();
+                heaviest.trimWeight(Math.max(0, weight - excess));
+                final long trimmed = weight - heaviest.weight();
+                if (trimmed <= 0) break;
+                excess -= trimmed;
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private Member heaviest() {
+        Member heaviest = null;
+        long max = 0;
+        final Iterator<WeakReference<Member>> it = mMembers.iterator();
+        while (it.hasNext()) {
+            final WeakReference<Member> ref = it.next();
+            final Member m = ref.get();
+            if (m == null) {
+                mMembers.remove(ref);
+                continue;
+            }
+            final long w = m.weight();
+            if (w > max) {
+                max = w;
+                heaviest = m;
+            }
+        }
+        return heaviest;
+    }
+}
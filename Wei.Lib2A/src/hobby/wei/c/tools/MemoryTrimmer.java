@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import android.content.ComponentCallbacks2;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 根据系统的内存压力等级收缩{@link CacheRegistry}中的缓存。由{@link hobby.wei.c.framework.AbsApp}在
+ * {@code onTrimMemory()}/{@code onLowMemory()}时调用，不使用AbsApp的可自行转发。
+ * <p>
+ * 界面不可见({@link ComponentCallbacks2#TRIM_MEMORY_UI_HIDDEN})时，还会在后台线程
+ * {@link CacheRegistry#saveSnapshots() 保存缓存快照}，之后进程随时可能被杀死。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public final class MemoryTrimmer {
+    private MemoryTrimmer() {
+    }
+
+    public static void onTrimMemory(int level) {
+        if (level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) saveSnapshots();
+        CacheRegistry.trimAll(keepRatioOf(level));
+    }
+
+    public static void onLowMemory() {
+        CacheRegistry.trimAll(0);
+    }
+
+    private static void saveSnapshots() {
+        try {
+            Background.executor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    CacheRegistry.saveSnapshots();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 下次退到后台时再保存。
+        }
+    }
+
+    /**
+     * @return 各等级下缓存应保留的比例。
+     */
+    public static float keepRatioOf(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            return 0;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            return 0.25f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            return 0.5f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // 只是界面不可见了，缓存稍后可能还会用到。
+            return 1;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 0.25f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return 0.5f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            return 0.75f;
+        }
+        return 1;
+    }
+}
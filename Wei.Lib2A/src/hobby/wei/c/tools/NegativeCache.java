@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 记录{@link ICache.Delegate#load(Object)}返回null的key, 在过期之前不再加载，见{@link ICache.Builder#negativeCache}.
+ * <p>
+ * 以一个按写入顺序排列、有数量上限的表为准。可选的{@link BloomFilter}只用于加速查询：绝大多数不在表中的key
+ * 不必获取锁即可排除。布隆过滤器的误判只会多查一次表，因此不会把存在的key误当作不存在。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+final class NegativeCache<K> {
+    private final long mTtlNanos;
+    private final int mMaxEntries;
+    /**
+     * key到过期时刻，按写入顺序排列，最早写入的最先过期。
+     */
+    private final LinkedHashMap<K, Long> mDeadlines = new LinkedHashMap<>();
+    /**
+     * 不使用时为null. 总是包含{@link #mDeadlines}中所有的key.
+     */
+    private final BloomFilter mBloom;
+
+    NegativeCache(long ttlNanos, int maxEntries, boolean bloom) {
+        mTtlNanos = ttlNanos;
+        mMaxEntries = maxEntries;
+        mBloom = bloom ? new BloomFilter(maxEntries * 2) : null;
+    }
+
+    /**
+     * @return 是否已知不存在且尚未过期。
+     */
+    boolean contains(K key) {
+        if (mBloom != null && !mBloom.mightContain(key)) return false;
+        synchronized (this) {
+            final Long deadline = mDeadlines.get(key);
+            if (deadline == null) return false;
+            if (System.nanoTime() - deadline < 0) return true;
+            mDeadlines.remove(key);
+            return false;
+        }
+    }
+
+    synchronized void put(K key) {
+        final long now = System.nanoTime();
+        // 重新放入以更新写入顺序。
+        mDeadlines.remove(key);
+        mDeadlines.put(key, now + mTtlNanos);
+        final Iterator<Map.Entry<K, Long>> it = mDeadlines.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<K, Long> e = it.next();
+            if (mDeadlines.size() <= mMaxEntries && now - e.getValue() < 0) break;
+            it.remove();
+        }
+        if (mBloom != null) {
+            if (mBloom.isFull()) {
+                mBloom.clear();
+                for (K k : mDeadlines.keySet()) {
+                    mBloom.put(k);
+                }
+            } else {
+                mBloom.put(key);
+            }
+        }
+    }
+
+    /**
+     * 不经过布隆过滤器，以免与并发的{@link #put(Object)}错过。
+     */
+    synchronized void remove(K key) {
+        mDeadlines.remove(key);
+    }
+
+    synchronized void clear() {
+        mDeadlines.clear();
+        if (mBloom != null) mBloom.clear();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * 值存放在{@link OffHeapStore}中的{@link ICache}, 用于编码后的图片、JSON等大块字节数据，
+ * 使其不占用Java堆。堆上只保留key和一个很小的{@link ByteBuffer}视图对象。
+ * <p>
+ * 放入时把值复制到堆外，按块的实际大小计入缓存容量，LRU淘汰时释放其所占的块；
+ * 由于各大小级别之间的碎片，空间不足时会继续淘汰最久未访问的条目，直到放得下为止。
+ * 超出{@link OffHeapStore#maxValueSize()}的值不缓存。
+ * <p>
+ * {@link #get}、{@link #getOnly}、{@link #getAll}等命中时不复制，返回的是堆外数据的只读视图，各调用方的position互不影响。
+ * 每个返回的视图都{@link OffHeapStore#pin 钉住}了其所在的块：条目即使随后被淘汰，块也要等视图被{@link #release}
+ * 之后才会被重用，因此视图在释放之前一直有效。<b>用完须调用{@link #release}</b>: 忘记释放的要等视图被GC回收后才释放，
+ * 而堆外数据很少触发GC, 期间这些块不能存放新的值，缓存的有效容量随之减少。
+ * <p>
+ * 用法示例：
+ * <pre><code>
+ * OffHeapCache&lt;String&gt; cache = new OffHeapCache&lt;&gt;(
+ *          new OffHeapStore(1 &lt;&lt; 20, 16 &lt;&lt; 20), delegate);
+ * ByteBuffer data = cache.get(url);
+ * try {
+ *     // 读取data
+ * } finally {
+ *     cache.release(data);
+ * }
+ * </code></pre>
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class OffHeapCache<K> extends ICache.Impl<K, ByteBuffer> {
+    private final OffHeapStore mStore;
+
+    /**
+     * 容量即store的{@link OffHeapStore#maxBytes()}.
+     */
+    public OffHeapCache(OffHeapStore store, Delegate<K, ByteBuffer> delegate) {
+        this(new ICache.Builder<K, ByteBuffer>((int) store.maxBytes()), store, delegate);
+    }
+
+    /**
+     * 设置了{@link Builder#snapshot}的，构造之后须调用{@link #restoreSnapshot()}.
+     *
+     * @param builder 其cacheSize为堆外的字节数，不能超过store的{@link OffHeapStore#maxBytes()}；
+     *                不能设置{@link Builder#softValues()}和{@link Builder#weigher(Weigher)}.
+     */
+    public OffHeapCache(ICache.Builder<K, ByteBuffer> builder, OffHeapStore store, Delegate<K, ByteBuffer> delegate) {
+        super(check(builder, store), delegate);
+        mStore = store;
+    }
+
+    private static <K> ICache.Builder<K, ByteBuffer> check(ICache.Builder<K, ByteBuffer> builder, final OffHeapStore store) {
+        if (builder.cacheSize > store.maxBytes()) {
+            throw new IllegalArgumentException("cacheSize > store.maxBytes()");
+        }
+        // 软引用保留的视图，其所在的块已被释放，内容不可信。
+        if (builder.softValues) throw new IllegalArgumentException("不支持softValues");
+        if (builder.weigher != null) throw new IllegalArgumentException("不支持自定义weigher");
+        return builder.weigher(new Weigher<K, ByteBuffer>() {
+            @Override
+            public int weigh(K key, ByteBuffer value) {
+                return store.chunkSize(value.capacity());
+            }
+        });
+    }
+
+    @Override
+    public ByteBuffer get(K key) {
+        return duplicate(super.get(key));
+    }
+
+    @Override
+    public ByteBuffer getOnly(K key) {
+        return duplicate(super.getOnly(key));
+    }
+
+    @Override
+    public Map<K, ByteBuffer> getAll(Collection<K> keys) {
+        final Map<K, ByteBuffer> result = super.getAll(keys);
+        for (Map.Entry<K, ByteBuffer> e : result.entrySet()) {
+            e.setValue(duplicate(e.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * 放开{@link #get}等返回的视图，之后不能再读取它。对未命中时加载而返回的值（不是视图）调用则忽略。
+     */
+    public void release(ByteBuffer value) {
+        if (value != null) mStore.unpin(value);
+    }
+
+    /**
+     * 钉住之后再交给调用方。已被释放（条目已被淘汰或替换）的钉不住，按未命中处理。
+     */
+    @Override
+    protected ByteBuffer onRead(K key, ByteBuffer value) {
+        return mStore.pin(value);
+    }
+
+    @Override
+    protected void onReadDone(K key, ByteBuffer value) {
+        mStore.unpin(value);
+    }
+
+    /**
+     * 复制到堆外之后再放入。
+     */
+    @Override
+    protected void putValue(K key, ByteBuffer value) {
+        ByteBuffer view = mStore.put(value);
+        while (view == null) {
+            if (value.remaining() > mStore.maxValueSize() || !evictEldest()) {
+                // 放不下，也不能留着旧值。
+                mLruCache.remove(key);
+                return;
+            }
+            view = mStore.put(value);
+        }
+        super.putValue(key, view);
+    }
+
+    @Override
+    protected void onEntryRemoved(boolean evicted, K key, ByteBuffer oldValue, ByteBuffer newValue) {
+        super.onEntryRemoved(evicted, key, oldValue, newValue);
+        mStore.free(oldValue);
+    }
+
+    /**
+     * 容量收缩为0时，同时丢弃空闲的slab, 以便GC释放其直接内存。
+     */
+    @Override
+    public void trim(float keepRatio) {
+        super.trim(keepRatio);
+        if (keepRatio <= 0) mStore.releaseEmpty();
+    }
+
+    /**
+     * @return 是否淘汰了条目。
+     */
+    private boolean evictEldest() {
+        final int size = mLruCache.size();
+        if (size <= 0) return false;
+        mLruCache.trimToSize(size - 1);
+        return true;
+    }
+
+    /**
+     * 加载的值可能同时返回给多个等待同一次加载的调用方，各自复制一个视图，position互不影响。
+     * 钉住的视图本身就是新的，不能再复制，否则复制品的有效期不受钉住的保护。
+     */
+    private ByteBuffer duplicate(ByteBuffer value) {
+        return value == null || mStore.isPinned(value) ? value : value.duplicate();
+    }
+}
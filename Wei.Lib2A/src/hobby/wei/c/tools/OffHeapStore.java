@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 堆外的字节存储，数据存放在若干个直接内存{@link ByteBuffer}(slab)中，不占用Java堆，也就不增加GC的负担。
+ * <p>
+ * 分配按2的幂划分大小级别，从{@link #MIN_CHUNK_SIZE}到slab大小。每个slab在第一次使用时被划给一个级别，
+ * 切分成等大的块，空闲的块记在该slab的空闲栈中；slab中的块全部释放后，slab退回空闲池，可以再划给其它级别。
+ * 因此不会因为各级别的需求变化而永久地碎片化。
+ * <p>
+ * 本类只负责分配和释放，不做淘汰：空间不足时{@link #put(ByteBuffer)}返回null, 由调用方（如{@link OffHeapCache}）
+ * 按LRU释放一些条目后重试。线程安全。
+ * <p>
+ * 读取方可以{@link #pin}一个视图：被钉住的块即使被{@link #free}了也不会被重用，直到{@link #unpin}
+ * 或钉住时返回的视图被GC回收。因此读取不必复制，也不必在读取期间持有任何锁。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public final class OffHeapStore {
+    public static final int MIN_CHUNK_SIZE = 64;
+
+    private final int mSlabSize;
+    private final int mMaxSlabs;
+    /**
+     * 下标为大小级别，存放还有空闲块的slab.
+     */
+    private final List<List<Slab>> mPartial;
+    /**
+     * 已分配直接内存但未划给任何级别的slab.
+     */
+    private final List<Slab> mEmpty = new ArrayList<>();
+    /**
+     * 已分配出去的视图到其所在块的映射，用于{@link #free(ByteBuffer)}. 以对象身份比较，视图的内容和位置不影响查找。
+     */
+    private final Map<ByteBuffer, Chunk> mChunks = new IdentityHashMap<>();
+    /**
+     * {@link #pin}返回的视图，按其identityHashCode分桶；弱引用，以免调用方忘记{@link #unpin}时块永远不被重用。
+     */
+    private final Map<Integer, List<Pin>> mPins = new HashMap<>();
+    private final ReferenceQueue<ByteBuffer> mCollected = new ReferenceQueue<>();
+    private int mSlabCount;
+    private long mUsed;
+
+    /**
+     * @param slabSize 单个slab的字节数，也是单个值的上限，会向上取整为2的幂。
+     * @param maxBytes 所有slab的总字节数上限，不超过{@link Integer#MAX_VALUE}.
+     */
+    public OffHeapStore(int slabSize, long maxBytes) {
+        if (slabSize < MIN_CHUNK_SIZE) throw new IllegalArgumentException("slabSize < " + MIN_CHUNK_SIZE);
+        if (maxBytes > Integer.MAX_VALUE) throw new IllegalArgumentException("maxBytes > Integer.MAX_VALUE");
+        mSlabSize = StripedCounter.ceilingPowerOfTwo(slabSize);
+        mMaxSlabs = (int) (maxBytes / mSlabSize);
+        if (mMaxSlabs <= 0) throw new IllegalArgumentException("maxBytes < slabSize");
+        final int classes = classOf(mSlabSize) + 1;
+        mPartial = new ArrayList<>(classes);
+        for (int i = 0; i < classes; i++) {
+            mPartial.add(new ArrayList<Slab>());
+        }
+    }
+
+    /**
+     * 复制src的剩余部分(position到limit)到堆外，不改变src的position.
+     *
+     * @return 只读的视图，position为0, capacity为数据的长度；在{@link #free}之前有效。
+     * 空间不足或超出{@link #maxValueSize()}时返回null.
+     */
+    public synchronized ByteBuffer put(ByteBuffer src) {
+        expunge();
+        final int length = src.remaining();
+        if (length > mSlabSize) return null;
+        final int sizeClass = classOf(Math.max(length, 1));
+        final Slab slab = slabFor(sizeClass);
+        if (slab == null) return null;
+        final int index = slab.mFree[--slab.mFreeCount];
+        if (slab.mFreeCount == 0) mPartial.get(sizeClass).remove(slab);
+
+        final ByteBuffer dst = slab.mBuffer.duplicate();
+        final int offset = index * slab.mChunkSize;
+        dst.limit(offset + length).position(offset);
+        dst.put(src.duplicate());
+        dst.position(offset);
+        final ByteBuffer view = dst.slice().asReadOnlyBuffer();
+        mChunks.put(view, new Chunk(slab, index));
+        mUsed += slab.mChunkSize;
+        return view;
+    }
+
+    /**
+     * 释放{@link #put}返回的视图所占的块，之后该视图（及其副本）的内容随时可能被覆盖；
+     * 块被{@link #pin 钉住}的，等到全部{@link #unpin}之后才可重用，期间钉住时返回的视图仍然有效。
+     * 重复释放或传入其它对象时忽略。
+     */
+    public synchronized void free(ByteBuffer view) {
+        final Chunk chunk = mChunks.remove(view);
+        if (chunk == null) return;
+        if (chunk.pins > 0) {
+            chunk.freed = true;
+            return;
+        }
+        recycle(chunk);
+    }
+
+    /**
+     * 钉住view所在的块。
+     *
+     * @param view {@link #put}返回的视图。
+     * @return 只读的新视图，position为0, 在{@link #unpin}之前（或不再被引用之前）一直有效；
+     * view已被{@link #free}或不是本store的视图时返回null.
+     */
+    public synchronized ByteBuffer pin(ByteBuffer view) {
+        expunge();
+        final Chunk chunk = mChunks.get(view);
+        if (chunk == null) return null;
+        final ByteBuffer pinned = view.duplicate();
+        pinned.clear();
+        final Pin pin = new Pin(pinned, chunk, mCollected);
+        List<Pin> bucket = mPins.get(pin.hash);
+        if (bucket == null) {
+            bucket = new ArrayList<>(1);
+            mPins.put(pin.hash, bucket);
+        }
+        bucket.add(pin);
+        chunk.pins++;
+        return pinned;
+    }
+
+    /**
+     * 放开{@link #pin}返回的视图，之后其内容随时可能被覆盖。重复调用或传入其它对象时忽略。
+     */
+    public synchronized void unpin(ByteBuffer pinned) {
+        final Pin pin = findPin(pinned);
+        if (pin != null) {
+            pin.clear();
+            release(pin);
+        }
+        expunge();
+    }
+
+    /**
+     * @return 是否为{@link #pin}返回的、尚未{@link #unpin}的视图。
+     */
+    public synchronized boolean isPinned(ByteBuffer buffer) {
+        return findPin(buffer) != null;
+    }
+
+    private Pin findPin(ByteBuffer pinned) {
+        final List<Pin> bucket = mPins.get(System.identityHashCode(pinned));
+        if (bucket != null) {
+            for (Pin pin : bucket) {
+                if (pin.get() == pinned) return pin;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 放开已被GC回收的视图所钉住的块。
+     */
+    private void expunge() {
+        Pin pin;
+        while ((pin = (Pin) mCollected.poll()) != null) {
+            release(pin);
+        }
+    }
+
+    private void release(Pin pin) {
+        final List<Pin> bucket = mPins.get(pin.hash);
+        // 已被unpin()的也可能随后入队。
+        if (bucket == null || !removeIdentical(bucket, pin)) return;
+        if (bucket.isEmpty()) mPins.remove(pin.hash);
+        final Chunk chunk = pin.chunk;
+        if (--chunk.pins == 0 && chunk.freed) recycle(chunk);
+    }
+
+    private static boolean removeIdentical(List<Pin> bucket, Pin pin) {
+        for (int i = bucket.size() - 1; i >= 0; i--) {
+            if (bucket.get(i) == pin) {
+                bucket.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void recycle(Chunk chunk) {
+        final Slab slab = chunk.slab;
+        slab.mFree[slab.mFreeCount++] = chunk.index;
+        mUsed -= slab.mChunkSize;
+        final List<Slab> partial = mPartial.get(classOf(slab.mChunkSize));
+        if (slab.mFreeCount == slab.mFree.length) {
+            // 已全部空闲，退回空闲池。
+            if (slab.mFreeCount > 1) partial.remove(slab);
+            slab.mChunkSize = 0;
+            mEmpty.add(slab);
+        } else if (slab.mFreeCount == 1) {
+            partial.add(slab);
+        }
+    }
+
+    /**
+     * 丢弃空闲池中的slab, 其直接内存在GC回收这些{@link ByteBuffer}时释放。
+     */
+    public synchronized void releaseEmpty() {
+        mSlabCount -= mEmpty.size();
+        mEmpty.clear();
+    }
+
+    /**
+     * @return 存放length字节实际占用的字节数。
+     */
+    public int chunkSize(int length) {
+        return MIN_CHUNK_SIZE << classOf(Math.max(length, 1));
+    }
+
+    public int maxValueSize() {
+        return mSlabSize;
+    }
+
+    public long maxBytes() {
+        return (long) mMaxSlabs * mSlabSize;
+    }
+
+    /**
+     * @return 已分配出去的块的总字节数。
+     */
+    public synchronized long usedBytes() {
+        return mUsed;
+    }
+
+    /**
+     * @return 已申请的直接内存的字节数。
+     */
+    public synchronized long allocatedBytes() {
+        return (long) mSlabCount * mSlabSize;
+    }
+
+    /**
+     * @return 第一个块大小不小于length的级别。
+     */
+    private static int classOf(int length) {
+        if (length <= MIN_CHUNK_SIZE) return 0;
+        return 32 - Integer.numberOfLeadingZeros(length - 1) - Integer.numberOfTrailingZeros(MIN_CHUNK_SIZE);
+    }
+
+    private Slab slabFor(int sizeClass) {
+        final List<Slab> partial = mPartial.get(sizeClass);
+        if (!partial.isEmpty()) return partial.get(partial.size() - 1);
+        final Slab slab;
+        if (!mEmpty.isEmpty()) {
+            slab = mEmpty.remove(mEmpty.size() - 1);
+        } else if (mSlabCount < mMaxSlabs) {
+            slab = new Slab(ByteBuffer.allocateDirect(mSlabSize));
+            mSlabCount++;
+        } else {
+            return null;
+        }
+        slab.assign(MIN_CHUNK_SIZE << sizeClass);
+        partial.add(slab);
+        return slab;
+    }
+
+    private static final class Slab {
+        final ByteBuffer mBuffer;
+        /**
+         * 为0表示在空闲池中。
+         */
+        int mChunkSize;
+        int[] mFree;
+        int mFreeCount;
+
+        Slab(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        void assign(int chunkSize) {
+            mChunkSize = chunkSize;
+            final int chunks = mBuffer.capacity() / chunkSize;
+            if (mFree == null || mFree.length != chunks) mFree = new int[chunks];
+            // 倒序入栈，使分配从低地址开始。
+            for (int i = 0; i < chunks; i++) {
+                mFree[i] = chunks - 1 - i;
+            }
+            mFreeCount = chunks;
+        }
+    }
+
+    private static final class Chunk {
+        final Slab slab;
+        final int index;
+        /**
+         * 被钉住的次数，以及是否已被{@link #free}（钉住期间延后重用），都在store的锁内读写。
+         */
+        int pins;
+        boolean freed;
+
+        Chunk(Slab slab, int index) {
+            this.slab = slab;
+            this.index = index;
+        }
+    }
+
+    private static final class Pin extends WeakReference<ByteBuffer> {
+        final Chunk chunk;
+        final int hash;
+
+        Pin(ByteBuffer pinned, Chunk chunk, ReferenceQueue<ByteBuffer> queue) {
+            super(pinned, queue);
+            this.chunk = chunk;
+            hash = System.identityHashCode(pinned);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.util.List;
+
+/**
+ * 供{@link EvictionPolicy}实现使用的侵入式双向队列，记录了队列内条目的总大小。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+final class PolicyQueue<K> {
+    private final Node<K> head = new Node<>(null, 0);
+    private final byte mId;
+    private int mSize;
+
+    PolicyQueue(int id) {
+        mId = (byte) id;
+        head.prev = head.next = head;
+    }
+
+    boolean isEmpty() {
+        return head.next == head;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    Node<K> peekFirst() {
+        return head.next == head ? null : head.next;
+    }
+
+    void addLast(Node<K> node) {
+        node.queue = mId;
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+        mSize += node.size;
+    }
+
+    void remove(Node<K> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = node.next = null;
+        mSize -= node.size;
+    }
+
+    void moveToLast(Node<K> node) {
+        if (node != head.prev) {
+            remove(node);
+            addLast(node);
+        }
+    }
+
+    /**
+     * 修改队列内某条目的大小。
+     */
+    void resize(Node<K> node, int size) {
+        mSize += size - node.size;
+        node.size = size;
+    }
+
+    boolean contains(Node<K> node) {
+        return node.queue == mId && node.prev != null;
+    }
+
+    void appendKeysTo(List<K> list) {
+        for (Node<K> node = head.next; node != head; node = node.next) {
+            list.add(node.key);
+        }
+    }
+
+    static final class Node<K> {
+        final K key;
+        int size;
+        /**
+         * 留给策略自用，如访问频率。
+         */
+        int freq;
+        byte queue;
+        Node<K> prev, next;
+
+        Node(K key, int size) {
+            this.key = key;
+            this.size = size;
+        }
+    }
+}
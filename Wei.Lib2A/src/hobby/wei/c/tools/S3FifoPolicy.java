@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * S3-FIFO淘汰策略：由三个FIFO队列组成，命中时只累加一个最大为3的计数，不调整任何队列。
+ * <ul>
+ * <li>新条目进入小队列S（约占容量的10%）；</li>
+ * <li>从S出队时，若期间被访问过，则移入主队列M，否则被淘汰，并把key记入幽灵队列G；</li>
+ * <li>新条目若命中G，说明不久前才被淘汰，直接进入M；</li>
+ * <li>从M出队时，若计数大于0，则计数减1并重新入队（类似CLOCK），否则被淘汰。</li>
+ * </ul>
+ * 只被访问一次的数据（如顺序扫描）会很快从S中淘汰，不会影响M里的常用数据。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class S3FifoPolicy<K> implements EvictionPolicy<K> {
+    private static final int SMALL = 0, MAIN = 1;
+    private static final int MAX_FREQ = 3;
+
+    private final Map<K, PolicyQueue.Node<K>> mNodes = new HashMap<>();
+    private final PolicyQueue<K> mSmall = new PolicyQueue<>(SMALL);
+    private final PolicyQueue<K> mMain = new PolicyQueue<>(MAIN);
+    /**
+     * 只记录key, 按条数限制为与缓存中的条目数相当。
+     */
+    private final LinkedHashSet<K> mGhost = new LinkedHashSet<>();
+
+    private int mSmallMax;
+
+    @Override
+    public void setMaximum(int maxSize) {
+        mSmallMax = Math.max(1, maxSize / 10);
+    }
+
+    @Override
+    public void onAdd(K key, int size) {
+        final PolicyQueue.Node<K> node = new PolicyQueue.Node<>(key, size);
+        mNodes.put(key, node);
+        if (mGhost.remove(key)) {
+            mMain.addLast(node);
+        } else {
+            mSmall.addLast(node);
+        }
+    }
+
+    @Override
+    public void onUpdate(K key, int size) {
+        final PolicyQueue.Node<K> node = mNodes.get(key);
+        if (node == null) return;
+        (node.queue == SMALL ? mSmall : mMain).resize(node, size);
+        onAccess(node);
+    }
+
+    @Override
+    public void onAccess(K key) {
+        final PolicyQueue.Node<K> node = mNodes.get(key);
+        if (node != null) onAccess(node);
+    }
+
+    private void onAccess(PolicyQueue.Node<K> node) {
+        if (node.freq < MAX_FREQ) node.freq++;
+    }
+
+    @Override
+    public void onRemove(K key) {
+        final PolicyQueue.Node<K> node = mNodes.remove(key);
+        if (node != null) (node.queue == SMALL ? mSmall : mMain).remove(node);
+    }
+
+    @Override
+    public K evict() {
+        while (true) {
+            if (!mSmall.isEmpty() && (mSmall.size() > mSmallMax || mMain.isEmpty())) {
+                final PolicyQueue.Node<K> node = mSmall.peekFirst();
+                mSmall.remove(node);
+                if (node.freq > 0) {
+                    node.freq = 0;
+                    mMain.addLast(node);
+                    continue;
+                }
+                mNodes.remove(node.key);
+                remember(node.key);
+                return node.key;
+            }
+            final PolicyQueue.Node<K> node = mMain.peekFirst();
+            if (node == null) return null;
+            mMain.remove(node);
+            if (node.freq > 0) {
+                node.freq--;
+                mMain.addLast(node);
+                continue;
+            }
+            mNodes.remove(node.key);
+            return node.key;
+        }
+    }
+
+    @Override
+    public List<K> order() {
+        final List<K> list = new ArrayList<>(mNodes.size());
+        mSmall.appendKeysTo(list);
+        mMain.appendKeysTo(list);
+        return list;
+    }
+
+    private void remember(K key) {
+        mGhost.add(key);
+        final int max = Math.max(mNodes.size(), 1);
+        for (Iterator<K> it = mGhost.iterator(); mGhost.size() > max && it.hasNext(); ) {
+            it.next();
+            it.remove();
+        }
+    }
+}
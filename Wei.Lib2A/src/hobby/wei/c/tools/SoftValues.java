@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 以软引用保留被淘汰的值：在内存充足时仍可以找回，避免重新加载；内存紧张时由GC回收。
+ * 见{@link ICache.Builder#softValues()}.
+ * <p>
+ * 被回收的值在之后的{@link #put}、{@link #take}、{@link #remove}中清理，并通过{@link Listener}告知。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+final class SoftValues<K, V> {
+    private final ConcurrentMap<K, Ref<K, V>> mRefs = new ConcurrentHashMap<>();
+    private final ReferenceQueue<V> mQueue = new ReferenceQueue<>();
+    private final Listener<K> mListener;
+
+    interface Listener<K> {
+        /**
+         * 值被GC回收或被{@link #clear()}之后回调，不在任何锁内。
+         */
+        void onCleared(K key);
+    }
+
+    SoftValues(Listener<K> listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @return 是否仍保留着该key的值（尚未被回收）。
+     */
+    boolean contains(K key) {
+        final Ref<K, V> ref = mRefs.get(key);
+        return ref != null && ref.get() != null;
+    }
+
+    void put(K key, V value) {
+        expunge();
+        mRefs.put(key, new Ref<>(key, value, mQueue));
+    }
+
+    /**
+     * 取出并移除。
+     */
+    V take(K key) {
+        expunge();
+        final Ref<K, V> ref = mRefs.remove(key);
+        return ref == null ? null : ref.get();
+    }
+
+    void remove(K key) {
+        mRefs.remove(key);
+        expunge();
+    }
+
+    void clear() {
+        final List<K> keys = new ArrayList<>(mRefs.keySet());
+        mRefs.clear();
+        while (mQueue.poll() != null) {
+            // 都已移除，不必再回调。
+        }
+        for (K key : keys) {
+            mListener.onCleared(key);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void expunge() {
+        Ref<K, V> ref;
+        while ((ref = (Ref<K, V>) mQueue.poll()) != null) {
+            if (mRefs.remove(ref.key, ref)) mListener.onCleared(ref.key);
+        }
+    }
+
+    private static final class Ref<K, V> extends SoftReference<V> {
+        final K key;
+
+        Ref(K key, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 缓存统计数据的记录器，各方法都是无锁的，可以在缓存自身的锁外调用。
+ * <p>
+ * 命中和未命中在热路径上，使用{@link StripedCounter}以避免多线程争用；加载和淘汰的次数较少，使用普通的原子变量。
+ * <p>
+ * 最近命中率：每隔{@link #SLOT_NANOS}记录一次累计的命中/未命中次数，用当前值减去约
+ * {@link #WINDOW_SLOTS}个间隔之前的记录得到。记录只在未命中和{@link #snapshot}时进行，
+ * 因此当长时间全部命中时，窗口可能比设定的更长，但此时命中率本身不受影响。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public final class StatsRecorder {
+    private static final int WINDOW_SLOTS = 12;
+    /**
+     * 5秒，即窗口约为1分钟。
+     */
+    private static final long SLOT_NANOS = 5_000_000_000L;
+
+    private final StripedCounter mHits = new StripedCounter();
+    private final StripedCounter mMisses = new StripedCounter();
+    private final AtomicLong mLoadSuccess = new AtomicLong();
+    private final AtomicLong mLoadFailure = new AtomicLong();
+    private final AtomicLong mTotalLoadNanos = new AtomicLong();
+    private final AtomicLongArray mEvictions = new AtomicLongArray(CacheStats.Cause.values().length);
+    private final AtomicLongArray mLatency = new AtomicLongArray(CacheStats.LATENCY_BUCKETS);
+
+    /**
+     * 在本对象的锁内读写。
+     */
+    private final long[] mSlotTime = new long[WINDOW_SLOTS], mSlotHits = new long[WINDOW_SLOTS],
+            mSlotMisses = new long[WINDOW_SLOTS];
+    private int mSlotCount, mSlotHead;
+    private volatile long mNextSample;
+
+    public StatsRecorder() {
+        // 以创建时刻的0作为第一条记录。
+        final long now = System.nanoTime();
+        mSlotTime[0] = now;
+        mSlotHead = mSlotCount = 1;
+        mNextSample = now + SLOT_NANOS;
+    }
+
+    public void recordHit() {
+        mHits.increment();
+    }
+
+    public void recordMiss() {
+        mMisses.increment();
+        sample(System.nanoTime());
+    }
+
+    public void recordLoadSuccess(long nanos) {
+        mLoadSuccess.incrementAndGet();
+        recordLoadTime(nanos);
+    }
+
+    public void recordLoadFailure(long nanos) {
+        mLoadFailure.incrementAndGet();
+        recordLoadTime(nanos);
+    }
+
+    public void recordEviction(CacheStats.Cause cause) {
+        mEvictions.incrementAndGet(cause.ordinal());
+    }
+
+    long hitCount() {
+        return mHits.sum();
+    }
+
+    long missCount() {
+        return mMisses.sum();
+    }
+
+    long evictionCount(CacheStats.Cause cause) {
+        return mEvictions.get(cause.ordinal());
+    }
+
+    public CacheStats snapshot(String name, int size, int maxSize) {
+        final long now = System.nanoTime();
+        sample(now);
+        final long hits = mHits.sum(), misses = mMisses.sum();
+        final double recent;
+        synchronized (this) {
+            // 找到窗口内最早的记录。
+            int oldest = -1;
+            for (int i = 0; i < mSlotCount; i++) {
+                final int index = (mSlotHead - 1 - i + WINDOW_SLOTS) % WINDOW_SLOTS;
+                oldest = index;
+                if (now - mSlotTime[index] >= WINDOW_SLOTS * SLOT_NANOS) break;
+            }
+            final long h = oldest < 0 ? hits : hits - mSlotHits[oldest];
+            final long m = oldest < 0 ? misses : misses - mSlotMisses[oldest];
+            recent = h + m == 0 ? Double.NaN : (double) h / (h + m);
+        }
+        final long[] evictions = new long[mEvictions.length()];
+        for (int i = 0; i < evictions.length; i++) evictions[i] = mEvictions.get(i);
+        final long[] latency = new long[mLatency.length()];
+        for (int i = 0; i < latency.length; i++) latency[i] = mLatency.get(i);
+        return new CacheStats(name, size, maxSize, hits, misses, mLoadSuccess.get(), mLoadFailure.get(),
+                mTotalLoadNanos.get(), recent, evictions, latency);
+    }
+
+    private void recordLoadTime(long nanos) {
+        mTotalLoadNanos.addAndGet(nanos);
+        mLatency.incrementAndGet(CacheStats.latencyBucketOf(nanos));
+    }
+
+    private void sample(long now) {
+        if (now - mNextSample < 0) return;
+        synchronized (this) {
+            if (now - mNextSample < 0) return;
+            mSlotTime[mSlotHead] = now;
+            mSlotHits[mSlotHead] = mHits.sum();
+            mSlotMisses[mSlotHead] = mMisses.sum();
+            mSlotHead = (mSlotHead + 1) % WINDOW_SLOTS;
+            if (mSlotCount < WINDOW_SLOTS) mSlotCount++;
+            mNextSample = now + SLOT_NANOS;
+        }
+    }
+}
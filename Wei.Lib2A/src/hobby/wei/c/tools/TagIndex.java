@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * {@link ICache.Impl}的标签索引：标签到key的反向索引，使按标签作废的开销只与匹配的条目数有关。
+ * <p>
+ * String类型的标签存放在有序表中，以支持按前缀查找；其它类型的标签存放在哈希表中。
+ * 用于{@link ICache.InvalidationChannel 跨进程作废}时，还按{@link #hashOf(Object)}索引，以便由收到的哈希值找到key.
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+final class TagIndex<K> {
+    /**
+     * 为null表示只按哈希值索引。
+     */
+    private final ICache.Tagger<? super K> mTagger;
+    /**
+     * 不按哈希值索引时为null.
+     */
+    private final Map<Integer, Set<K>> mHashes;
+    private final TreeMap<String, Set<K>> mStringTags = new TreeMap<>();
+    private final Map<Object, Set<K>> mOtherTags = new HashMap<>();
+    /**
+     * 已索引的key及其标签，移除时使用，不再调用{@link ICache.Tagger#tagsOf(Object)}.
+     */
+    private final Map<K, Collection<?>> mKeys = new HashMap<>();
+
+    TagIndex(ICache.Tagger<? super K> tagger, boolean indexHash) {
+        mTagger = tagger;
+        mHashes = indexHash ? new HashMap<Integer, Set<K>>() : null;
+    }
+
+    /**
+     * 在各进程中一致的哈希值，与{@link ICache.Builder#diskCache 磁盘缓存}一样以{@code String.valueOf(key)}标识key.
+     */
+    static int hashOf(Object key) {
+        return String.valueOf(key).hashCode();
+    }
+
+    boolean hasTagger() {
+        return mTagger != null;
+    }
+
+    synchronized void add(K key) {
+        if (mKeys.containsKey(key)) return;
+        Collection<?> tags = mTagger == null ? null : mTagger.tagsOf(key);
+        if (tags == null) tags = Collections.emptySet();
+        mKeys.put(key, tags);
+        if (mHashes != null) {
+            final int hash = hashOf(key);
+            Set<K> keys = mHashes.get(hash);
+            if (keys == null) mHashes.put(hash, keys = new HashSet<>(2));
+            keys.add(key);
+        }
+        for (Object tag : tags) {
+            Set<K> keys = bucket(tag);
+            if (keys == null) {
+                keys = new HashSet<>();
+                if (tag instanceof String) mStringTags.put((String) tag, keys);
+                else mOtherTags.put(tag, keys);
+            }
+            keys.add(key);
+        }
+    }
+
+    synchronized void remove(K key) {
+        final Collection<?> tags = mKeys.remove(key);
+        if (tags == null) return;
+        if (mHashes != null) {
+            final int hash = hashOf(key);
+            final Set<K> keys = mHashes.get(hash);
+            if (keys != null && keys.remove(key) && keys.isEmpty()) mHashes.remove(hash);
+        }
+        for (Object tag : tags) {
+            final Set<K> keys = bucket(tag);
+            if (keys == null) continue;
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                if (tag instanceof String) mStringTags.remove(tag);
+                else mOtherTags.remove(tag);
+            }
+        }
+    }
+
+    /**
+     * @return 副本。
+     */
+    synchronized List<K> keysOf(Object tag) {
+        final Set<K> keys = bucket(tag);
+        return keys == null ? Collections.<K>emptyList() : new ArrayList<>(keys);
+    }
+
+    /**
+     * @return 副本。
+     */
+    synchronized List<K> keysOfHash(int hash) {
+        final Set<K> keys = mHashes == null ? null : mHashes.get(hash);
+        return keys == null ? Collections.<K>emptyList() : new ArrayList<>(keys);
+    }
+
+    /**
+     * @return 所有以prefix开头的String标签下的key（副本，可能有重复）。
+     */
+    synchronized List<K> keysWithPrefix(String prefix) {
+        final List<K> result = new ArrayList<>();
+        for (Map.Entry<String, Set<K>> e : mStringTags.tailMap(prefix, true).entrySet()) {
+            if (!e.getKey().startsWith(prefix)) break;
+            result.addAll(e.getValue());
+        }
+        return result;
+    }
+
+    synchronized void clear() {
+        mStringTags.clear();
+        mOtherTags.clear();
+        mKeys.clear();
+        if (mHashes != null) mHashes.clear();
+    }
+
+    private Set<K> bucket(Object tag) {
+        return tag instanceof String ? mStringTags.get(tag) : mOtherTags.get(tag);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分层时间轮。用于跟踪大量定时器的到期时间，调度、取消都是O(1)，推进时间时只需处理到期的桶，
+ * 而不必扫描所有定时器。
+ * <p>
+ * 每一层的一个桶覆盖的时长逐层递增（约1秒、1分钟、1小时、1天、更久），
+ * 高层的桶到期时，其中未真正到期的定时器会被重新分配到更精细的低层桶里。
+ * <p>
+ * 非线程安全。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+final class TimerWheel<K> {
+    private static final int[] BUCKETS = {64, 64, 32, 4, 1};
+    /**
+     * 各层一个桶的时长(纳秒)：2^30(1.07s), 2^36(1.14m), 2^42(1.22h), 2^46(0.81d), 2^48(3.26d).
+     */
+    private static final int[] SHIFT = {30, 36, 42, 46, 48};
+    /**
+     * 第i层能够容纳的最大时长，即第i+1层一个桶的时长。
+     */
+    private static final long[] SPANS = {1L << 36, 1L << 42, 1L << 46, 1L << 48, Long.MAX_VALUE};
+
+    private final Timer<K>[][] mWheel;
+    private long mNanos;
+
+    TimerWheel(long nowNanos) {
+        mNanos = nowNanos;
+        mWheel = newWheel(BUCKETS.length);
+        for (int i = 0; i < mWheel.length; i++) {
+            mWheel[i] = newBuckets(BUCKETS[i]);
+            for (int j = 0; j < mWheel[i].length; j++) {
+                final Timer<K> sentinel = new Timer<>(null);
+                sentinel.prev = sentinel.next = sentinel;
+                mWheel[i][j] = sentinel;
+            }
+        }
+    }
+
+    /**
+     * 调度定时器，若已经在轮上则先移除。
+     */
+    void schedule(Timer<K> timer, long deadlineNanos) {
+        if (timer.prev != null) unlink(timer);
+        timer.deadline = deadlineNanos;
+        link(findBucket(timer.deadline), timer);
+    }
+
+    void deschedule(Timer<K> timer) {
+        if (timer.prev != null) unlink(timer);
+    }
+
+    /**
+     * 推进到当前时间，并返回到期的定时器（已从轮上移除）。
+     */
+    List<Timer<K>> advance(long nowNanos) {
+        final long previous = mNanos;
+        mNanos = nowNanos;
+        List<Timer<K>> expired = null;
+        for (int i = 0; i < SHIFT.length; i++) {
+            final long previousTicks = previous >>> SHIFT[i];
+            final long currentTicks = nowNanos >>> SHIFT[i];
+            if (currentTicks - previousTicks <= 0L) break;
+            expired = expire(i, previousTicks, currentTicks - previousTicks, expired);
+        }
+        return expired;
+    }
+
+    private List<Timer<K>> expire(int level, long previousTicks, long delta, List<Timer<K>> expired) {
+        final Timer<K>[] buckets = mWheel[level];
+        final int mask = buckets.length - 1;
+        final int steps = (int) Math.min(1 + delta, buckets.length);
+        final int start = (int) (previousTicks & mask);
+        for (int i = start; i < start + steps; i++) {
+            final Timer<K> sentinel = buckets[i & mask];
+            Timer<K> timer = sentinel.next;
+            sentinel.prev = sentinel.next = sentinel;
+            while (timer != sentinel) {
+                final Timer<K> next = timer.next;
+                timer.prev = timer.next = null;
+                if (timer.deadline - mNanos > 0) {
+                    // 还没到期，放到更精细的桶里。
+                    link(findBucket(timer.deadline), timer);
+                } else {
+                    if (expired == null) expired = new ArrayList<>();
+                    expired.add(timer);
+                }
+                timer = next;
+            }
+        }
+        return expired;
+    }
+
+    private Timer<K> findBucket(long deadline) {
+        // 已经过期的放进当前的桶，在下一次推进时处理。
+        final long duration = Math.max(0, deadline - mNanos);
+        final long time = mNanos + duration;
+        for (int i = 0; i < SPANS.length - 1; i++) {
+            if (duration < SPANS[i]) {
+                final long ticks = time >>> SHIFT[i];
+                return mWheel[i][(int) (ticks & (mWheel[i].length - 1))];
+            }
+        }
+        return mWheel[mWheel.length - 1][0];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> Timer<K>[][] newWheel(int levels) {
+        return (Timer<K>[][]) new Timer<?>[levels][];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> Timer<K>[] newBuckets(int length) {
+        return (Timer<K>[]) new Timer<?>[length];
+    }
+
+    private static <K> void link(Timer<K> sentinel, Timer<K> timer) {
+        timer.prev = sentinel.prev;
+        timer.next = sentinel;
+        sentinel.prev.next = timer;
+        sentinel.prev = timer;
+    }
+
+    private static <K> void unlink(Timer<K> timer) {
+        timer.prev.next = timer.next;
+        timer.next.prev = timer.prev;
+        timer.prev = timer.next = null;
+    }
+
+    static class Timer<K> {
+        final K key;
+        long deadline;
+        Timer<K> prev, next;
+
+        Timer(K key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * W-TinyLFU淘汰策略：
+ * <ul>
+ * <li>新条目先进入一个很小的LRU窗口（约占容量的1%），以容纳突发的访问；</li>
+ * <li>被挤出窗口的条目作为候选者，与主区域里最该被淘汰的条目比较近期访问频率（由
+ * {@link FrequencySketch}估算），频率高者留下。因此一次顺序扫描不会冲掉常用的数据；</li>
+ * <li>主区域是分段LRU：再次被命中的条目从试用段(probation)晋升到保护段(protected，约占主区域的80%)。</li>
+ * </ul>
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public class TinyLfuPolicy<K> implements EvictionPolicy<K> {
+    private static final int WINDOW = 0, PROBATION = 1, PROTECTED = 2;
+
+    private final Map<K, PolicyQueue.Node<K>> mNodes = new HashMap<>();
+    private final PolicyQueue<K> mWindow = new PolicyQueue<>(WINDOW);
+    private final PolicyQueue<K> mProbation = new PolicyQueue<>(PROBATION);
+    private final PolicyQueue<K> mProtected = new PolicyQueue<>(PROTECTED);
+    private final FrequencySketch mSketch = new FrequencySketch();
+
+    private int mWindowMax;
+    private int mMainMax;
+    private int mProtectedMax;
+
+    @Override
+    public void setMaximum(int maxSize) {
+        mWindowMax = Math.max(1, maxSize / 100);
+        mMainMax = Math.max(0, maxSize - mWindowMax);
+        mProtectedMax = (int) (mMainMax * 0.8f);
+    }
+
+    @Override
+    public void onAdd(K key, int size) {
+        final PolicyQueue.Node<K> node = new PolicyQueue.Node<>(key, size);
+        mNodes.put(key, node);
+        // maxSize可能是字节数，因此按实际的条目数逐步扩大。
+        mSketch.ensureCapacity(mNodes.size());
+        mSketch.increment(key);
+        mWindow.addLast(node);
+    }
+
+    @Override
+    public void onUpdate(K key, int size) {
+        final PolicyQueue.Node<K> node = mNodes.get(key);
+        if (node == null) return;
+        queueOf(node).resize(node, size);
+        onAccess(node);
+    }
+
+    @Override
+    public void onAccess(K key) {
+        final PolicyQueue.Node<K> node = mNodes.get(key);
+        if (node != null) onAccess(node);
+    }
+
+    private void onAccess(PolicyQueue.Node<K> node) {
+        mSketch.increment(node.key);
+        switch (node.queue) {
+            case WINDOW:
+                mWindow.moveToLast(node);
+                break;
+            case PROBATION:
+                mProbation.remove(node);
+                mProtected.addLast(node);
+                // 保护段满了则把其中最久未被访问的降级到试用段。
+                while (mProtected.size() > mProtectedMax && mProtected.peekFirst() != node) {
+                    final PolicyQueue.Node<K> demoted = mProtected.peekFirst();
+                    mProtected.remove(demoted);
+                    mProbation.addLast(demoted);
+                }
+                break;
+            case PROTECTED:
+                mProtected.moveToLast(node);
+                break;
+        }
+    }
+
+    @Override
+    public void onRemove(K key) {
+        final PolicyQueue.Node<K> node = mNodes.remove(key);
+        if (node != null) queueOf(node).remove(node);
+    }
+
+    @Override
+    public K evict() {
+        // 主区域还有空间（如缓存刚填满时），则窗口溢出的部分直接进入主区域，无需竞争。
+        PolicyQueue.Node<K> candidate;
+        while (mWindow.size() > mWindowMax && (candidate = mWindow.peekFirst()) != null
+                && mProbation.size() + mProtected.size() + candidate.size <= mMainMax) {
+            mWindow.remove(candidate);
+            mProbation.addLast(candidate);
+        }
+        PolicyQueue.Node<K> victim = mainVictim();
+        if (mWindow.size() > mWindowMax && (candidate = mWindow.peekFirst()) != null && victim != null) {
+            mWindow.remove(candidate);
+            if (mSketch.frequency(candidate.key) > mSketch.frequency(victim.key)) {
+                mProbation.addLast(candidate);
+                return drop(victim);
+            }
+            return drop(candidate, null);
+        }
+        if (victim == null) victim = mWindow.peekFirst();
+        return victim == null ? null : drop(victim);
+    }
+
+    @Override
+    public List<K> order() {
+        final List<K> list = new ArrayList<>(mNodes.size());
+        mProbation.appendKeysTo(list);
+        mProtected.appendKeysTo(list);
+        mWindow.appendKeysTo(list);
+        return list;
+    }
+
+    private PolicyQueue.Node<K> mainVictim() {
+        final PolicyQueue.Node<K> victim = mProbation.peekFirst();
+        return victim != null ? victim : mProtected.peekFirst();
+    }
+
+    private K drop(PolicyQueue.Node<K> node) {
+        return drop(node, queueOf(node));
+    }
+
+    private K drop(PolicyQueue.Node<K> node, PolicyQueue<K> queue) {
+        if (queue != null) queue.remove(node);
+        mNodes.remove(node.key);
+        return node.key;
+    }
+
+    private PolicyQueue<K> queueOf(PolicyQueue.Node<K> node) {
+        switch (node.queue) {
+            case WINDOW:
+                return mWindow;
+            case PROBATION:
+                return mProbation;
+            default:
+                return mProtected;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import hobby.wei.c.data.abs.IJson;
+
+/**
+ * 常用类型的{@link ICache.Weigher}, 单位为字节。
+ * <p>
+ * 都只是估算：数组和字符串按64位虚拟机、开启引用压缩时的对象头计算，不含key本身的占用。
+ * 对于多个对象共享的数据（如同一个byte[]被多个条目引用），会被重复计算。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+public final class Weighers {
+    /**
+     * 数组对象头的大小：对象头 + length字段，按8字节对齐。
+     */
+    private static final int ARRAY_HEADER = 16;
+    /**
+     * String对象本身（不含内部char[]）的大小。
+     */
+    private static final int STRING_SHALLOW = 24;
+
+    private Weighers() {
+    }
+
+    /**
+     * 每个条目的权重都是1，即按条数计算，也是{@link ICache.Impl}的默认行为。
+     */
+    public static <K, V> ICache.Weigher<K, V> singleton() {
+        return new ICache.Weigher<K, V>() {
+            @Override
+            public int weigh(K key, V value) {
+                return 1;
+            }
+        };
+    }
+
+    public static <K> ICache.Weigher<K, byte[]> byteArray() {
+        return new ICache.Weigher<K, byte[]>() {
+            @Override
+            public int weigh(K key, byte[] value) {
+                return sizeOf(value);
+            }
+        };
+    }
+
+    public static <K> ICache.Weigher<K, String> string() {
+        return new ICache.Weigher<K, String>() {
+            @Override
+            public int weigh(K key, String value) {
+                return sizeOf(value);
+            }
+        };
+    }
+
+    public static <K> ICache.Weigher<K, Bitmap> bitmap() {
+        return new ICache.Weigher<K, Bitmap>() {
+            @Override
+            public int weigh(K key, Bitmap value) {
+                return sizeOf(value);
+            }
+        };
+    }
+
+    /**
+     * 按{@link IJson#toJson()}的长度估算。注意每次估算都会序列化一次（放入和移除时各一次），
+     * 仅适合不太大的对象；若条目较大或放入频繁，请自行实现一个基于字段的估算。
+     */
+    public static <K, V extends IJson<?>> ICache.Weigher<K, V> json() {
+        return new ICache.Weigher<K, V>() {
+            @Override
+            public int weigh(K key, V value) {
+                return sizeOf(value.toJson());
+            }
+        };
+    }
+
+    public static int sizeOf(byte[] value) {
+        return align(ARRAY_HEADER + value.length);
+    }
+
+    public static int sizeOf(String value) {
+        return STRING_SHALLOW + align(ARRAY_HEADER + (value.length() << 1));
+    }
+
+    public static int sizeOf(Bitmap value) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
+            return value.getByteCount();
+        }
+        return value.getRowBytes() * value.getHeight();
+    }
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2017-present, Wei.Chou(weichou2010@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package hobby.wei.c.tools;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link ICache.Impl}的延迟写入队列。
+ * <p>
+ * 同一个key在写入之前的多次更新只保留最后一次；累积到一批的数量，或距第一次更新超过延迟时间后，
+ * 在后台线程批量写入。待写入的数量达到上限时，由调用{@link #enqueue}的线程同步写入，以免无限堆积。
+ *
+ * @author Wei.Chou
+ * @version 1.0, 17/10/2026
+ */
+final class WriteBehind<K, V> {
+    interface Callback<K> {
+        /**
+         * {@link ICache.Delegate#update(Object, Object)}返回了false, 缓存中的值应当作废。
+         */
+        void onRejected(K key);
+
+        /**
+         * 已成功写入。
+         */
+        void onWritten(K key);
+    }
+
+    /**
+     * 一次{@link #enqueue}.
+     */
+    static final class Write<V> {
+        final V value;
+        private volatile boolean mRejected;
+
+        private Write(V value) {
+            this.value = value;
+        }
+
+        /**
+         * @return 是否已被拒绝，且已为此回调了{@link Callback#onRejected(Object)}.
+         */
+        boolean isRejected() {
+            return mRejected;
+        }
+    }
+
+    private final ICache.Delegate<K, V> mDelegate;
+    private final Callback<K> mCallback;
+    private final Executor mExecutor;
+    private final ScheduledExecutorService mScheduler;
+    private final long mDelayNanos;
+    private final int mBatchSize, mMaxPending;
+
+    /**
+     * 等待写入的，在本对象的锁内读写。
+     */
+    private final Map<K, Write<V>> mPending = new LinkedHashMap<>();
+    /**
+     * 已从{@link #mPending}取出、正在写入的，在本对象的锁内读写。
+     */
+    private final Map<K, Write<V>> mWriting = new HashMap<>();
+    /**
+     * 保证同时只有一个线程在写入，也就保证了同一个key的写入顺序。
+     */
+    private final ReentrantLock mFlushLock = new ReentrantLock();
+    private boolean mScheduled;
+    private boolean mClosed;
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (WriteBehind.this) {
+                mScheduled = false;
+            }
+            flush();
+        }
+    };
+
+    private final Runnable mDispatchTask = new Runnable() {
+        @Override
+        public void run() {
+            dispatch();
+        }
+    };
+
+    WriteBehind(ICache.Delegate<K, V> delegate, Callback<K> callback, Executor executor,
+                ScheduledExecutorService scheduler, long delayNanos, int batchSize, int maxPending) {
+        mDelegate = delegate;
+        mCallback = callback;
+        mExecutor = executor;
+        mScheduler = scheduler;
+        mDelayNanos = delayNanos;
+        mBatchSize = batchSize;
+        mMaxPending = Math.max(maxPending, batchSize);
+    }
+
+    /**
+     * 可能在返回之前就已写入（由当前线程或后台线程），因此{@link Callback#onRejected(Object)}可能先于调用方的后续操作，
+     * 调用方须在之后检查{@link Write#isRejected()}.
+     *
+     * @return null表示已{@link #close()}, 调用方应自行同步写入。
+     */
+    Write<V> enqueue(K key, V value) {
+        final Write<V> write = new Write<>(value);
+        final int size;
+        final boolean schedule;
+        synchronized (this) {
+            if (mClosed) return null;
+            mPending.put(key, write);
+            size = mPending.size();
+            schedule = size < mBatchSize && !mScheduled;
+            if (schedule) mScheduled = true;
+        }
+        if (size >= mMaxPending) {
+            flush();
+        } else if (size >= mBatchSize) {
+            dispatch();
+        } else if (schedule) {
+            mScheduler.schedule(mDispatchTask, mDelayNanos, TimeUnit.NANOSECONDS);
+        }
+        return write;
+    }
+
+    /**
+     * @return 尚未写入完成的值，没有则为null.
+     */
+    synchronized V pending(K key) {
+        Write<V> write = mPending.get(key);
+        if (write == null) write = mWriting.get(key);
+        return write == null ? null : write.value;
+    }
+
+    /**
+     * 写入所有待写入的值，返回时调用之前的更新都已写入（或已失败）。
+     */
+    void flush() {
+        mFlushLock.lock();
+        try {
+            while (true) {
+                final Map<K, Write<V>> batch;
+                synchronized (this) {
+                    if (mPending.isEmpty()) return;
+                    batch = takeBatch();
+                }
+                if (!write(batch)) return;
+            }
+        } finally {
+            mFlushLock.unlock();
+        }
+    }
+
+    /**
+     * 写入所有待写入的值，之后的{@link #enqueue}都返回false.
+     */
+    void close() {
+        synchronized (this) {
+            mClosed = true;
+        }
+        flush();
+    }
+
+    private Map<K, Write<V>> takeBatch() {
+        final Map<K, Write<V>> batch = new LinkedHashMap<>();
+        final Iterator<Map.Entry<K, Write<V>>> it = mPending.entrySet().iterator();
+        while (it.hasNext() && batch.size() < mBatchSize) {
+            final Map.Entry<K, Write<V>> e = it.next();
+            batch.put(e.getKey(), e.getValue());
+            it.remove();
+        }
+        mWriting.putAll(batch);
+        return batch;
+    }
+
+    /**
+     * @return false表示写入出现异常，剩余的留到下一次。
+     */
+    private boolean write(Map<K, Write<V>> batch) {
+        try {
+            if (mDelegate instanceof ICache.Delegate.Batch) {
+                final Map<K, V> values = new LinkedHashMap<>();
+                for (Map.Entry<K, Write<V>> e : batch.entrySet()) {
+                    values.put(e.getKey(), e.getValue().value);
+                }
+                final boolean written = ((ICache.Delegate.Batch<K, V>) mDelegate).updateAll(Collections.unmodifiableMap(values));
+                for (Map.Entry<K, Write<V>> e : batch.entrySet()) {
+                    if (written) mCallback.onWritten(e.getKey());
+                    else rejected(e.getKey(), e.getValue());
+                }
+                done(batch);
+            } else {
+                final Iterator<Map.Entry<K, Write<V>>> it = batch.entrySet().iterator();
+                while (it.hasNext()) {
+                    final Map.Entry<K, Write<V>> e = it.next();
+                    if (mDelegate.update(e.getKey(), e.getValue().value)) mCallback.onWritten(e.getKey());
+                    else rejected(e.getKey(), e.getValue());
+                    synchronized (this) {
+                        mWriting.remove(e.getKey());
+                    }
+                    it.remove();
+                }
+            }
+            return true;
+        } catch (RuntimeException e) {
+            // 放回队列，稍后重试；期间已有更新的key以新值为准。
+            final boolean closed, schedule;
+            synchronized (this) {
+                for (Map.Entry<K, Write<V>> entry : batch.entrySet()) {
+                    mWriting.remove(entry.getKey());
+                    if (!mPending.containsKey(entry.getKey())) mPending.put(entry.getKey(), entry.getValue());
+                }
+                closed = mClosed;
+                schedule = !mScheduled && !closed;
+                if (schedule) mScheduled = true;
+            }
+            if (closed) throw e;
+            if (schedule) mScheduler.schedule(mDispatchTask, mDelayNanos, TimeUnit.NANOSECONDS);
+            return false;
+        }
+    }
+
+    private void rejected(K key, Write<V> write) {
+        synchronized (this) {
+            // 期间有新的更新，那么缓存中的已经不是这个值了。
+            if (mPending.containsKey(key)) return;
+        }
+        // 先标记再回调：调用方若在标记之前检查过，回调必然在其之后。
+        write.mRejected = true;
+        mCallback.onRejected(key);
+    }
+
+    private synchronized void done(Map<K, Write<V>> batch) {
+        for (K key : batch.keySet()) {
+            mWriting.remove(key);
+        }
+    }
+
+    private void dispatch() {
+        try {
+            mExecutor.execute(mFlushTask);
+        } catch (RejectedExecutionException e) {
+            mFlushTask.run();
+        }
+    }
+}
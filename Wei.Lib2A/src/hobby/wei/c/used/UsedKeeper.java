@@ -29,7 +29,11 @@ public class UsedKeeper {
         }
 
         public static Keeper getModule(int moduleId) {
-            return get(AbsApp.get(), "AbsApp_module_" + moduleId).multiProcess().ok();
+            return module(moduleId).ok();
+        }
+
+        public static Keeper.Builder module(int moduleId) {
+            return get(AbsApp.get(), "AbsApp_module_" + moduleId).multiProcess();
         }
 
         public static boolean getFirstLaunch(int moduleId) {